@@ -8,7 +8,7 @@ import java.util.List;
 
 public class GraphCode {
 
-    private State state;
+    private volatile State state; // written last, so that readers of a completed state see all of its values
     private final ModelLiterals model;
     private List<String> dictionary;
     private int[][] matrix;
@@ -37,10 +37,48 @@ public class GraphCode {
         return NOT_AVAILABLE;
     }
 
+    /**
+     * Recreates a completed graph code from its stored values, e.g. after a restart.
+     *
+     * @param state
+     *         The {@link State} of the graph code. Either FINISHED or ERROR.
+     * @param model
+     *         The {@link ModelLiterals} instance which created the graph code.
+     * @param start
+     *         The time in milliseconds the graph code has been requested.
+     * @param dictionary
+     *         A {@link List} of dictionary terms.
+     * @param matrix
+     *         A two-dimensional array of integer values.
+     * @param error
+     *         The error text.
+     * @param description
+     *         The description of the graph code.
+     * @return A new {@link GraphCode} instance.
+     */
+    public static GraphCode restore(final State state, final ModelLiterals model, final long start,
+                                    final List<String> dictionary, final int[][] matrix, final String error,
+                                    final String description) {
+        if (state != State.FINISHED && state != State.ERROR)
+            throw new UnsupportedOperationException(String.format("A GraphCode of state %s cannot be restored.", state));
+
+        GraphCode graphCode = new GraphCode(State.PENDING, model, start);
+        graphCode.dictionary = dictionary;
+        graphCode.matrix = matrix;
+        graphCode.error = error;
+        graphCode.description = description;
+        graphCode.state = state;
+        return graphCode;
+    }
+
     private GraphCode(final State state, final ModelLiterals model) {
+        this(state, model, System.currentTimeMillis());
+    }
+
+    private GraphCode(final State state, final ModelLiterals model, final long start) {
         this.state = state;
         this.model = model;
-        this.start = System.currentTimeMillis();
+        this.start = start;
     }
 
     /**
@@ -51,9 +89,9 @@ public class GraphCode {
      */
     public void error(final String error, final String description) {
         checkStateUpdate();
-        this.state = State.ERROR;
         this.error = error;
         this.description = description;
+        this.state = State.ERROR;
     }
 
     /**
@@ -70,13 +108,13 @@ public class GraphCode {
     public void finished(final List<String> dictionary, final int[][] matrix, final String description) {
         checkStateUpdate();
         if (verifyDictionaryAndMatrix(dictionary, matrix)) {
-            this.state = State.FINISHED;
             this.dictionary = dictionary;
             this.matrix = matrix;
             this.description = description;
+            this.state = State.FINISHED;
         } else {
-            this.state = State.ERROR;
             this.error = ERROR_DEFAULT;
+            this.state = State.ERROR;
         }
     }
 
@@ -0,0 +1,94 @@
+package de.richardvierhaus.nlq_gc;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.PromptGraphCode;
+import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
+import de.richardvierhaus.nlq_gc.nlq.Evaluation;
+import de.richardvierhaus.nlq_gc.nlq.NLQService;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Evaluates the prompts and models without starting the web server. The NLQs are handled by the same
+ * {@link NLQService} as in {@link NlqGcApplication}, but the caches are disabled by default, so that every NLQ is
+ * executed by the LLM. The options are given as arguments:
+ * <ul>
+ *     <li>--evaluation.input: JSONL file of NLQs with expected graph codes, see
+ *     {@link Evaluation#readItems(Path)}</li>
+ *     <li>--evaluation.output: JSONL file of the results per NLQ, evaluation.jsonl by default</li>
+ *     <li>--evaluation.summary: file of the summary table, evaluation-summary.txt by default</li>
+ *     <li>--evaluation.prompts: comma-separated {@link PromptGraphCode}s, all by default</li>
+ *     <li>--evaluation.keyword-prompts: comma-separated {@link PromptKeyword}s, all by default</li>
+ *     <li>--evaluation.models: comma-separated {@link ModelLiterals}, the default model by default</li>
+ *     <li>--evaluation.concurrency: maximum number of NLQs handled at the same time, 4 by default</li>
+ *     <li>--evaluation.timeout-ms: maximum time to wait for a single graph code, 300000 by default</li>
+ * </ul>
+ */
+public class NlqGcEvaluation {
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(NlqGcApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("nlq.cache.max-entries=0", "nlq.semantic-cache.max-entries=0")
+                .run(args)) {
+            Environment environment = context.getEnvironment();
+            String input = environment.getProperty("evaluation.input");
+            if (input == null)
+                throw new UnsupportedOperationException("No input has been provided by --evaluation.input.");
+
+            List<Evaluation.Combination> combinations = Evaluation.Combination.of(
+                    getEnums(environment, "evaluation.prompts", PromptGraphCode::valueOf, PromptGraphCode.values()),
+                    getEnums(environment, "evaluation.keyword-prompts", PromptKeyword::valueOf,
+                            PromptKeyword.values()),
+                    getEnums(environment, "evaluation.models", ModelLiterals::valueOf,
+                            new ModelLiterals[]{ModelLiterals.getDefault()}));
+            Evaluation evaluation = new Evaluation(context.getBean(NLQService.class),
+                    environment.getProperty("evaluation.concurrency", Integer.class, 4),
+                    environment.getProperty("evaluation.timeout-ms", Long.class, 300000L));
+
+            List<Evaluation.Result> results = evaluation.run(Evaluation.readItems(Path.of(input)), combinations,
+                    Path.of(environment.getProperty("evaluation.output", "evaluation.jsonl")));
+            String summary = Evaluation.summarize(results);
+            Files.writeString(Path.of(environment.getProperty("evaluation.summary", "evaluation-summary.txt")),
+                    summary, StandardCharsets.UTF_8);
+            System.out.print(summary);
+        }
+    }
+
+    /**
+     * Reads a comma-separated list of enum keys.
+     *
+     * @param environment
+     *         The {@link Environment} containing the arguments.
+     * @param key
+     *         The key of the argument.
+     * @param valueOf
+     *         Resolves a single enum key.
+     * @param defaults
+     *         The values in case the argument is missing.
+     * @return The resolved values.
+     * @throws UnsupportedOperationException
+     *         in case a key is unknown.
+     */
+    private static <T> List<T> getEnums(final Environment environment, final String key,
+                                        final Function<String, T> valueOf, final T[] defaults) {
+        String value = environment.getProperty(key);
+        if (value == null || value.isBlank()) return List.of(defaults);
+        try {
+            return Arrays.stream(value.split(",")).map(String::strip).map(valueOf).toList();
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedOperationException(String.format("The argument %s contains an unknown key.", key));
+        }
+    }
+
+}
\ No newline at end of file
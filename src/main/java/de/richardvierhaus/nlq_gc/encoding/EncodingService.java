@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class EncodingService {
@@ -12,6 +13,7 @@ public class EncodingService {
 
     private final Gson gson;
     private final EncodingMappingRepository repository;
+    private final AtomicLong version = new AtomicLong();
 
     public EncodingService(final EncodingMappingRepository repository) {
         gson = new Gson();
@@ -33,6 +35,7 @@ public class EncodingService {
      */
     protected void clear() {
         repository.deleteAll();
+        version.incrementAndGet();
     }
 
     /**
@@ -43,6 +46,7 @@ public class EncodingService {
      */
     protected void addMapping(final EncodingMapping mapping) {
         repository.save(mapping);
+        version.incrementAndGet();
     }
 
     /**
@@ -53,6 +57,7 @@ public class EncodingService {
      */
     protected void removeMapping(final int id) {
         repository.deleteById(id);
+        version.incrementAndGet();
     }
 
     /**
@@ -64,6 +69,16 @@ public class EncodingService {
         return gson.toJson(getEncodingMappings());
     }
 
+    /**
+     * Provides the version of the stored {@link EncodingMapping}s, which changes with every modification. Results based
+     * on the mappings are only valid as long as the version remains the same.
+     *
+     * @return The current version.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
     public static EncodingService getInstance() {
         return INSTANCE;
     }
@@ -47,4 +47,14 @@ public class EnumController {
         return Arrays.stream(ModelLiterals.values()).map(Enum::name).toList();
     }
 
+    /**
+     * A GET-route which returns a listing of all priorities a NLQ can be handled with.
+     *
+     * @return A {@link List} with {@link Priority} keys.
+     */
+    @GetMapping("/priorities")
+    public List<String> getPriorities() {
+        return Arrays.stream(Priority.values()).map(Enum::name).toList();
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package de.richardvierhaus.nlq_gc.enums;
+
+public enum Priority {
+
+    INTERACTIVE,
+    NORMAL,
+    BULK;
+
+    /**
+     * Provides the default {@link Priority} in case no one was specified.
+     *
+     * @return The default {@link Priority}.
+     */
+    public static Priority getDefault() {
+        return NORMAL;
+    }
+
+}
\ No newline at end of file
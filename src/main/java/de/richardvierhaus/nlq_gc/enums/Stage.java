@@ -0,0 +1,20 @@
+package de.richardvierhaus.nlq_gc.enums;
+
+public enum Stage {
+
+    KEYWORD_EXTRACTION,
+    GRAPH_CODE_GENERATION,
+    COMPLETING,
+    FINISHED,
+    EXPIRED;
+
+    /**
+     * Determines whether a transaction in this stage is waiting for a response of an LLM.
+     *
+     * @return <code>true</code> in case the stage is pending.
+     */
+    public boolean isPending() {
+        return this == KEYWORD_EXTRACTION || this == GRAPH_CODE_GENERATION;
+    }
+
+}
\ No newline at end of file
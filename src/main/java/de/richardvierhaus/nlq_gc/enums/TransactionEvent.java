@@ -0,0 +1,20 @@
+package de.richardvierhaus.nlq_gc.enums;
+
+public enum TransactionEvent {
+
+    SUBMITTED,
+    KEYWORDS_EXTRACTED,
+    GRAPH_CODE_PROMPT_SUBMITTED,
+    FINISHED,
+    REMOVED;
+
+    /**
+     * Determines whether no further events follow this one.
+     *
+     * @return <code>true</code> in case the transaction is over.
+     */
+    public boolean isFinal() {
+        return this == FINISHED || this == REMOVED;
+    }
+
+}
\ No newline at end of file
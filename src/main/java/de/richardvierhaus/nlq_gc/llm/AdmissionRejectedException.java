@@ -0,0 +1,28 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+
+/**
+ * Signals that a transaction has not been accepted, as the model is working at its limit of in-flight and queued
+ * transactions already.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    private final ModelLiterals model;
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(final ModelLiterals model, final long retryAfterSeconds) {
+        super(String.format("The model %s is busy. Please try again in %d seconds.", model, retryAfterSeconds));
+        this.model = model;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public ModelLiterals getModel() {
+        return model;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+}
\ No newline at end of file
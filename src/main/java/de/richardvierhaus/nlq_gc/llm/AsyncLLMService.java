@@ -1,49 +1,78 @@
 package de.richardvierhaus.nlq_gc.llm;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import de.richardvierhaus.nlq_gc.GraphCode;
 import de.richardvierhaus.nlq_gc.KeywordResponse;
 import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
 import de.richardvierhaus.nlq_gc.enums.Replacement;
+import de.richardvierhaus.nlq_gc.enums.Stage;
+import de.richardvierhaus.nlq_gc.enums.State;
+import de.richardvierhaus.nlq_gc.enums.TransactionEvent;
 import de.richardvierhaus.nlq_gc.nlq.PromptBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.StringUtils;
 
-import java.util.Iterator;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class AsyncLLMService {
 
     private static volatile AsyncLLMService INSTANCE;
-    private static final int INTERVAL_SECONDS = 3; // 3 seconds between polling
+    private static final int INTERVAL_SECONDS = 3; // 3 seconds between timeout checks
     private static final int TIMEOUT = 300000;  // 5 minutes before deletion
+    private static final int EXPIRATION_TICK_MILLIS = 1000;
+    private static final int EXPIRATION_WHEEL_SIZE = 512; // one round takes about 8.5 minutes
+    private static final String ERROR_LLM = "The language model could not process the query. Please try again.";
     private static final Logger LOGGER = LoggerFactory.getLogger(AsyncLLMService.class);
 
-    private final Map<String, GraphCode> pendingKeywordTransactions;
-    private final Map<String, GraphCode> pendingGraphCodeTransactions;
-    private final Map<String, GraphCode> finishedGraphCodes;
-    private final Map<String, PromptBuilder> preparedGCPrompts;
-    private final Map<String, String> transactionMapping;
+    private final Map<String, Transaction> transactions;
+    private final TimingWheel<Expiration> expirations;
+    private final Map<ModelLiterals, ModelDispatcher> dispatchers;
+    private final Hedger hedger;
+    private final PromptCoalescer coalescer;
+    private final KeywordCache keywordCache;
+    private final ResultStore resultStore;
 
     private final Gson gson;
     private final ScheduledExecutorService scheduler;
+    private final ExecutorService handoffExecutor;
     private volatile boolean running;
 
     private AsyncLLMService() {
-        pendingKeywordTransactions = new ConcurrentHashMap<>();
-        pendingGraphCodeTransactions = new ConcurrentHashMap<>();
-        finishedGraphCodes = new ConcurrentHashMap<>();
-        preparedGCPrompts = new ConcurrentHashMap<>();
-        transactionMapping = new ConcurrentHashMap<>();
+        transactions = new ConcurrentHashMap<>();
+        expirations = new TimingWheel<>(EXPIRATION_TICK_MILLIS, EXPIRATION_WHEEL_SIZE);
+        dispatchers = new EnumMap<>(ModelLiterals.class);
+        for (ModelLiterals model : ModelLiterals.values())
+            dispatchers.put(model, ModelDispatcher.fromProperties(model));
+        hedger = Hedger.fromProperties(this::getDispatcher, this::isValidResponse);
+        coalescer = new PromptCoalescer(FallbackChain.fromProperties((model, user, priority, prompt) ->
+                getHedger().submit(model, user, priority, prompt), this::getDispatcher));
+        keywordCache = new KeywordCache((int) LLMProperties.getLong("KEYWORD_CACHE_MAX_ENTRIES", 1000),
+                LLMProperties.getLong("KEYWORD_CACHE_TTL_MS", 3600000));
+        resultStore = createResultStore();
 
         gson = new Gson();
         scheduler = Executors.newSingleThreadScheduledExecutor();
+        handoffExecutor = Executors.newVirtualThreadPerTaskExecutor();
         running = false;
     }
 
@@ -71,43 +100,88 @@ public class AsyncLLMService {
     }
 
     /**
-     * Stops the scheduler.
+     * Creates the {@link ResultStore} configured in the llm.properties. The environment variable RESULT_STORE_PATH
+     * overrides the path of the file. Without any path the results are kept on the heap, bounded by
+     * RESULT_STORE_MAX_ENTRIES.
+     *
+     * @return The {@link ResultStore}.
+     */
+    private static ResultStore createResultStore() {
+        String path = System.getenv("RESULT_STORE_PATH");
+        if (!StringUtils.hasText(path)) path = LLMProperties.get().getProperty("RESULT_STORE_PATH");
+        long retention = LLMProperties.getLong("RESULT_STORE_RETENTION_MS", TIMEOUT);
+        if (path == null || path.isBlank())
+            return new MemoryResultStore(retention, (int) LLMProperties.getLong("RESULT_STORE_MAX_ENTRIES", 10000));
+        boolean sync = LLMProperties.getBoolean("RESULT_STORE_SYNC", false);
+        return new FileResultStore(Path.of(path.trim()), retention, sync);
+    }
+
+    /**
+     * Stops the scheduler, the executor handing the responses off and the threads of the LLMs and closes the result
+     * store.
      */
     public void shutdown() {
         if (running) {
             running = false;
-            scheduler.shutdown();
-            try {
-                if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
-                    scheduler.shutdownNow();
+            terminate(scheduler, "scheduler");
+            terminate(handoffExecutor, "handoff executor");
+            Set<LanguageModel> llms = new LinkedHashSet<>();
+            for (ModelLiterals model : ModelLiterals.values()) llms.add(model.getLLM());
+            for (LanguageModel llm : llms) {
+                try {
+                    llm.shutdown();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Could not stop {}", llm.getClass().getSimpleName(), e);
                 }
-                LOGGER.info("Terminated AsyncLLMService scheduler");
-            } catch (InterruptedException e) {
-                scheduler.shutdownNow();
-                Thread.currentThread().interrupt();
-                LOGGER.info("Terminated AsyncLLMService scheduler", e);
             }
+            getResultStore().close();
         }
     }
 
     /**
-     * The scheduled task to process timeouts and check for results.
+     * Shuts the given executor down and waits for its running tasks to finish.
+     *
+     * @param executor
+     *         The {@link ExecutorService} to be terminated.
+     * @param name
+     *         The name of the executor used for logging.
+     */
+    private static void terminate(final ExecutorService executor, final String name) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+            LOGGER.info("Terminated AsyncLLMService {}", name);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            LOGGER.info("Terminated AsyncLLMService {}", name, e);
+        }
+    }
+
+    /**
+     * The scheduled task to process timeouts and to compact the result store. Results are not polled here, as they are
+     * pushed by the futures of the {@link LanguageModel}s. Errors are caught, as an uncaught exception would stop the
+     * scheduler for good.
      */
     private void processTransactions() {
         if (!running) return;
 
         LOGGER.trace("Routine scheduler run");
 
-        long currentTime = System.currentTimeMillis();
-        removeTimeouts(finishedGraphCodes, currentTime);
-        removeTimeouts(pendingKeywordTransactions, currentTime);
-        removeTimeouts(pendingGraphCodeTransactions, currentTime);
-
-        checkKeywordTransactions();
+        try {
+            long now = System.currentTimeMillis();
+            removeTimeouts(now);
+            getResultStore().compact(now);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error while processing transactions", e);
+        }
     }
 
     /**
-     * Starts the execution of the given prompt for keyword extraction.
+     * Starts the execution of the given prompt for keyword extraction. In case the keywords of an identical prompt
+     * are cached, the keyword extraction is skipped and the GC prompt is sent to the LLM directly.
      *
      * @param prompt
      *         The prompt to be executed.
@@ -115,23 +189,43 @@ public class AsyncLLMService {
      *         The {@link ModelLiterals} instance to be used.
      * @param preparedGCPrompt
      *         A {@link PromptBuilder} instance that is only missing keywords to be replaced.
+     * @param promptKeyword
+     *         The {@link PromptKeyword} the prompt is built from. Only used for the statistics of the keyword cache.
+     * @param user
+     *         The identification of the user. The capacity of the model is shared fairly between the users.
+     * @param priority
+     *         The {@link Priority} of the prompts. Interactive prompts are always started first.
      * @return A transactionId to poll the resulting graph code.
+     * @throws AdmissionRejectedException
+     *         in case the model is working at its limit.
      */
     public String addKeywordPrompt(final String prompt, final ModelLiterals model,
-                                   final PromptBuilder preparedGCPrompt) {
+                                   final PromptBuilder preparedGCPrompt, final PromptKeyword promptKeyword,
+                                   final String user, final Priority priority) {
         if (preparedGCPrompt.getLeftoverReplacements().size() != 1 || !preparedGCPrompt.getLeftoverReplacements().contains(Replacement.KEYWORDS))
             throw new UnsupportedOperationException("The given PromptBuilder does not contain exactly the replacement KEYWORDS");
 
-        final String transactionId = UUID.randomUUID().toString();
-        String llmTransaction = model.getLLM().handlePrompt(prompt);
-        LOGGER.debug("Started keyword transaction [{}]", transactionId);
-        LOGGER.trace("Executing keyword transaction [{}] with following prompt: {}", transactionId, prompt);
+        final Transaction transaction = new Transaction(UUID.randomUUID().toString(), GraphCode.getPendingGC(model),
+                Stage.KEYWORD_EXTRACTION, preparedGCPrompt, user, priority);
+        start(transaction);
+        LOGGER.debug("Started keyword transaction [{}]", transaction.getId());
+        LOGGER.trace("Executing keyword transaction [{}] with following prompt: {}", transaction.getId(), prompt);
 
-        transactionMapping.put(transactionId, llmTransaction);
-        pendingKeywordTransactions.put(transactionId, GraphCode.getPendingGC(model));
-        preparedGCPrompts.put(transactionId, preparedGCPrompt);
+        try {
+            List<String> keywords = keywordCache.get(model, prompt, promptKeyword);
+            if (keywords != null) {
+                LOGGER.debug("Keyword extraction [{}] found cached keywords: {}", transaction.getId(), keywords);
+                handOver(transaction, keywords);
+            } else {
+                submit(transaction, prompt).whenCompleteAsync((response, throwable) ->
+                        handleKeywordResponse(transaction, prompt, response, throwable), getExecutor());
+            }
+        } catch (RuntimeException e) {
+            discard(transaction);
+            throw e;
+        }
 
-        return transactionId;
+        return transaction.getId();
     }
 
     /**
@@ -141,125 +235,383 @@ public class AsyncLLMService {
      *         The prompt to be executed.
      * @param model
      *         The {@link ModelLiterals} instance to be used.
+     * @param user
+     *         The identification of the user. The capacity of the model is shared fairly between the users.
+     * @param priority
+     *         The {@link Priority} of the prompt. Interactive prompts are always started first.
      * @return A transactionId to poll the resulting graph code.
+     * @throws AdmissionRejectedException
+     *         in case the model is working at its limit.
      */
-    public String addGCPrompt(final String prompt, final ModelLiterals model) {
-        return addGCPrompt(prompt, GraphCode.getPendingGC(model), UUID.randomUUID().toString());
+    public String addGCPrompt(final String prompt, final ModelLiterals model, final String user,
+                              final Priority priority) {
+        final Transaction transaction = new Transaction(UUID.randomUUID().toString(), GraphCode.getPendingGC(model),
+                Stage.GRAPH_CODE_GENERATION, null, user, priority);
+        start(transaction);
+        try {
+            submitGCPrompt(transaction, prompt);
+        } catch (RuntimeException e) {
+            discard(transaction);
+            throw e;
+        }
+        return transaction.getId();
+    }
+
+    /**
+     * Creates a transaction which is finished already, e.g. because its graph code has been cached. Its graph code
+     * is handed over to the {@link ResultStore} right away.
+     *
+     * @param graphCode
+     *         The finished {@link GraphCode}.
+     * @return A transactionId to poll the graph code.
+     */
+    public String addFinishedGraphCode(final GraphCode graphCode) {
+        if (graphCode.getState() == State.PENDING || graphCode.getState() == State.NOT_AVAILABLE)
+            throw new UnsupportedOperationException("Only finished graph codes can be added.");
+
+        final Transaction transaction = new Transaction(UUID.randomUUID().toString(), graphCode, Stage.FINISHED, null,
+                null, null);
+        transactions.put(transaction.getId(), transaction);
+        transaction.fire(TransactionEvent.SUBMITTED);
+        finish(transaction);
+        LOGGER.debug("Added finished transaction [{}]", transaction.getId());
+        return transaction.getId();
+    }
+
+    /**
+     * Admits a new transaction at its model, registers it and schedules its timeout.
+     *
+     * @param transaction
+     *         The new {@link Transaction}.
+     * @throws AdmissionRejectedException
+     *         in case the model is working at its limit.
+     */
+    private void start(final Transaction transaction) {
+        ModelLiterals model = transaction.getGraphCode().getModel();
+        ModelDispatcher dispatcher = getDispatcher(model);
+        if (!dispatcher.acquire()) {
+            LOGGER.info("Rejected transaction for model {}", model);
+            throw new AdmissionRejectedException(model, dispatcher.estimateRetryAfter());
+        }
+        transaction.setAdmission(dispatcher);
+
+        transactions.put(transaction.getId(), transaction);
+        scheduleExpiration(transaction, false, transaction.getGraphCode().getStart() + getTimeout());
+        transaction.fire(TransactionEvent.SUBMITTED);
     }
 
     /**
-     * Starts the execution of the given prompt.
+     * Starts the execution of the given prompt for graph code generation within an existing transaction.
      *
+     * @param transaction
+     *         The {@link Transaction} in stage GRAPH_CODE_GENERATION.
      * @param prompt
      *         The prompt to be executed.
-     * @param graphCode
-     *         The {@link GraphCode} instance containing necessary information.
-     * @param transactionId
-     *         The already prepared transactionId.
-     * @return A transactionId to poll the resulting graph code.
      */
-    private String addGCPrompt(final String prompt, final GraphCode graphCode, final String transactionId) {
-        String llmTransaction = graphCode.getModel().getLLM().handlePrompt(prompt);
-        LOGGER.debug("Started graph code transaction [{}]", transactionId);
-        LOGGER.trace("Executing graph code transaction [{}] with following prompt: {}", transactionId, prompt);
+    private void submitGCPrompt(final Transaction transaction, final String prompt) {
+        LOGGER.debug("Started graph code transaction [{}]", transaction.getId());
+        LOGGER.trace("Executing graph code transaction [{}] with following prompt: {}", transaction.getId(), prompt);
+
+        transaction.fire(TransactionEvent.GRAPH_CODE_PROMPT_SUBMITTED);
+        submit(transaction, prompt).whenCompleteAsync((response, throwable) ->
+                handleGraphCodeResponse(transaction, response, throwable), getExecutor());
+    }
 
-        transactionMapping.put(transactionId, llmTransaction);
-        pendingGraphCodeTransactions.put(transactionId, graphCode);
+    /**
+     * Removes a transaction whose first prompt has been rejected by the LLM directly.
+     *
+     * @param transaction
+     *         The {@link Transaction} to be removed.
+     */
+    private void discard(final Transaction transaction) {
+        transaction.advance(transaction.getStage(), Stage.EXPIRED);
+        transactions.remove(transaction.getId(), transaction);
+        release(transaction);
+        transaction.getCompletion().complete(GraphCode.getNotAvailable());
+        transaction.fire(TransactionEvent.REMOVED);
+    }
 
-        return transactionId;
+    /**
+     * Hands the prompt over to the LLM and remembers the resulting future in order to cancel it on timeout. Identical
+     * prompts running at the same time share a single execution. Failed prompts are handed over to the fallback
+     * models of the model, see {@link FallbackChain}.
+     *
+     * @param transaction
+     *         The {@link Transaction}.
+     * @param prompt
+     *         The prompt to be executed.
+     * @return A {@link CompletableFuture} completing with the LLMs response.
+     */
+    private CompletableFuture<String> submit(final Transaction transaction, final String prompt) {
+        CompletableFuture<String> future = coalescer.submit(transaction.getGraphCode().getModel(), transaction.getUser(),
+                transaction.getPriority(), prompt);
+        transaction.setLLMFuture(future);
+        return future;
     }
 
     /**
-     * Looks up the {@link GraphCode} corresponding to the given transactionId.
+     * Looks up the {@link GraphCode} corresponding to the given transactionId. Completed graph codes are read from
+     * the {@link ResultStore} and can be read repeatedly until their retention has passed. The lookup never contacts
+     * an LLM, as the transactions are completed by their futures, so that reading graph codes does not add to the
+     * load of the LLMs.
      *
      * @param transactionId
      *         The transactions' id.
      * @return The {@link GraphCode} behind the transactionId.
      */
     public GraphCode getGraphCode(final String transactionId) {
-        GraphCode result = finishedGraphCodes.remove(transactionId);
-        if (result == null) {
-            result = pendingKeywordTransactions.get(transactionId);
-            if (result == null) {
-                result = checkPendingGraphCodeTransaction(transactionId);
-                if (result == null) result = GraphCode.getNotAvailable();
-            }
-        }
+        Transaction transaction = transactions.get(transactionId);
+        GraphCode result = transaction == null ? getResultStore().get(transactionId) : transaction.getGraphCode();
+        if (result == null) result = GraphCode.getNotAvailable();
         LOGGER.trace("Transaction [{}] found graph code {}", transactionId, result);
         return result;
     }
 
     /**
-     * Checks all entries in the given mapping for their processing time exceeding the timeout time and removes them in
-     * case they do.
+     * Waits for the transaction to be finished and gives the resulting {@link GraphCode} afterward. No thread is
+     * blocked while waiting.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @param waitMillis
+     *         The maximum time to wait in milliseconds. In case the transaction is still pending by then, the pending
+     *         {@link GraphCode} is given.
+     * @return A {@link CompletableFuture} of the {@link GraphCode} behind the transactionId.
+     */
+    public CompletableFuture<GraphCode> awaitGraphCode(final String transactionId, final long waitMillis) {
+        Transaction transaction = transactions.get(transactionId);
+        if (transaction == null || waitMillis <= 0)
+            return CompletableFuture.completedFuture(getGraphCode(transactionId));
+
+        return transaction.getCompletion()
+                .thenApply(graphCode -> Boolean.TRUE)
+                .completeOnTimeout(Boolean.FALSE, waitMillis, TimeUnit.MILLISECONDS)
+                .thenApply(finished -> getGraphCode(transactionId));
+    }
+
+    /**
+     * Registers a listener for the events of the given transaction. Events which already took place are replayed. In
+     * case the transaction has been handed over to the {@link ResultStore} already, only the FINISHED event is
+     * replayed.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @param listener
+     *         Receives each {@link TransactionEvent} together with the {@link GraphCode} of the transaction.
+     * @return <code>true</code> in case the transaction is known. Otherwise <code>false</code>.
+     */
+    public boolean subscribe(final String transactionId, final BiConsumer<TransactionEvent, GraphCode> listener) {
+        Transaction transaction = transactions.get(transactionId);
+        if (transaction != null) {
+            transaction.subscribe(listener);
+            return true;
+        }
+        GraphCode stored = getResultStore().get(transactionId);
+        if (stored == null) return false;
+        listener.accept(TransactionEvent.FINISHED, stored);
+        return true;
+    }
+
+    /**
+     * Removes all transactions whose expiration is due. Pending transactions are cancelled at the LLM. Finished
+     * transactions only expire here in case their result could not be stored. Only the expired transactions are
+     * touched, as the expirations are ordered by their deadline.
      *
-     * @param mapping
-     *         The {@link Map} of transactionId and {@link GraphCode}.
      * @param currentTime
      *         The current time milliseconds.
      */
-    private void removeTimeouts(final Map<String, GraphCode> mapping, final long currentTime) {
-        Iterator<Map.Entry<String, GraphCode>> iterator = mapping.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, GraphCode> entry = iterator.next();
-            if (entry.getValue().getStart() + getTimeout() < currentTime) {
-                String transactionId = entry.getKey();
-                iterator.remove();
-                transactionMapping.remove(transactionId);
-                preparedGCPrompts.remove(transactionId);
-                LOGGER.debug("Removed transaction [{}] due to timeout", transactionId);
+    private void removeTimeouts(final long currentTime) {
+        for (Expiration expiration : expirations.advance(currentTime)) {
+            Transaction transaction = expiration.transaction();
+            if (expiration.finished()) {
+                if (transaction.getStage() == Stage.FINISHED && transactions.remove(transaction.getId(), transaction))
+                    LOGGER.debug("Removed finished transaction [{}] due to timeout", transaction.getId());
+            } else if (transaction.advance(Stage.KEYWORD_EXTRACTION, Stage.EXPIRED)
+                    || transaction.advance(Stage.GRAPH_CODE_GENERATION, Stage.EXPIRED)) {
+                transactions.remove(transaction.getId(), transaction);
+                release(transaction);
+                transaction.cancelLLMFuture();
+                transaction.getCompletion().complete(GraphCode.getNotAvailable());
+                transaction.fire(TransactionEvent.REMOVED);
+                LOGGER.debug("Removed transaction [{}] due to timeout", transaction.getId());
             }
         }
+    }
 
+    /**
+     * Schedules the removal of a transaction. The removal only takes place in case the transaction is still in the
+     * given state by then.
+     *
+     * @param transaction
+     *         The {@link Transaction}.
+     * @param finished
+     *         Whether the finished or the pending transaction is to be removed.
+     * @param deadline
+     *         The time in milliseconds the transaction expires.
+     */
+    private void scheduleExpiration(final Transaction transaction, final boolean finished, final long deadline) {
+        expirations.schedule(new Expiration(transaction, finished), deadline);
     }
 
     /**
-     * Iterates through all pending keyword transactions and checks whether they have been handled yet. In case a
-     * transaction is finished the following GC prompt is send to the LLM.
+     * Completes the transaction by updating its {@link GraphCode}, in case it is still in the expected stage. The
+     * graph code is updated before the transaction is marked as finished, so that readers never see a half updated
+     * one.
+     *
+     * @param transaction
+     *         The {@link Transaction}.
+     * @param expected
+     *         The {@link Stage} the transaction is expected to be in.
+     * @param update
+     *         Sets the result of the {@link GraphCode}.
      */
-    private void checkKeywordTransactions() {
-        Iterator<Map.Entry<String, GraphCode>> iterator = pendingKeywordTransactions.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, GraphCode> entry = iterator.next();
-            String transactionId = entry.getKey();
-            GraphCode graphCode = entry.getValue();
+    private void complete(final Transaction transaction, final Stage expected, final Consumer<GraphCode> update) {
+        if (!transaction.advance(expected, Stage.COMPLETING)) return;
+        try {
+            update.accept(transaction.getGraphCode());
+        } finally {
+            transaction.advance(Stage.COMPLETING, Stage.FINISHED);
+            finish(transaction);
+        }
+    }
 
-            String response = graphCode.getModel().getLLM().getResponse(transactionMapping.get(transactionId));
-            if (!StringUtils.hasText(response)) continue;
+    /**
+     * Hands the finished transaction over to the {@link ResultStore} and notifies its listeners. The transaction is
+     * removed from the heap afterward. In case the result cannot be stored, the transaction is kept until the
+     * retention has passed instead.
+     *
+     * @param transaction
+     *         The {@link Transaction} in stage FINISHED.
+     */
+    private void finish(final Transaction transaction) {
+        release(transaction);
+        boolean stored;
+        try {
+            getResultStore().put(transaction.getId(), transaction.getGraphCode());
+            stored = true;
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not store the result of transaction [{}]", transaction.getId(), e);
+            scheduleExpiration(transaction, true, System.currentTimeMillis() + getRetention());
+            stored = false;
+        }
 
-            LOGGER.trace("Found response for keyword transaction [{}]: {}", transactionId, response);
+        transaction.getCompletion().complete(transaction.getGraphCode());
+        transaction.fire(TransactionEvent.FINISHED);
+        if (stored) transactions.remove(transaction.getId(), transaction);
+    }
 
-            transactionMapping.remove(transactionId);
+    /**
+     * Frees the slot of the transaction at its model, in case it has been admitted.
+     *
+     * @param transaction
+     *         The finished or removed {@link Transaction}.
+     */
+    private void release(final Transaction transaction) {
+        ModelDispatcher dispatcher = transaction.takeAdmission();
+        if (dispatcher != null) dispatcher.release();
+    }
 
-            KeywordResponse responseParsed = gson.fromJson(response, KeywordResponse.class);
+    /**
+     * Handles the completion of a keyword transaction. In case the keywords have been extracted successfully the
+     * following GC prompt is send to the LLM.
+     *
+     * @param transaction
+     *         The {@link Transaction} in stage KEYWORD_EXTRACTION.
+     * @param prompt
+     *         The executed keyword prompt.
+     * @param response
+     *         The LLMs response. <code>null</code> in case of an error.
+     * @param throwable
+     *         The error that occurred while executing the prompt. <code>null</code> in case of success.
+     */
+    private void handleKeywordResponse(final Transaction transaction, final String prompt, final String response,
+                                       final Throwable throwable) {
+        // the transaction might have been removed due to timeout in the meantime
+        if (transaction.getStage() != Stage.KEYWORD_EXTRACTION) return;
+        final String transactionId = transaction.getId();
+
+        if (throwable != null) {
+            handleFailure(transaction, Stage.KEYWORD_EXTRACTION, throwable);
+            return;
+        }
 
-            if (StringUtils.hasText(responseParsed.error())) {
+        LOGGER.trace("Found response for keyword transaction [{}]: {}", transactionId, response);
+
+        KeywordResponse responseParsed;
+        try {
+            responseParsed = parseResponse(response, KeywordResponse.class);
+        } catch (RuntimeException e) {
+            handleFailure(transaction, Stage.KEYWORD_EXTRACTION, e);
+            return;
+        }
+
+        if (StringUtils.hasText(responseParsed.error())) {
+            complete(transaction, Stage.KEYWORD_EXTRACTION, graphCode -> {
                 graphCode.error(responseParsed.error(), responseParsed.description());
-                preparedGCPrompts.remove(transactionId);
-                finishedGraphCodes.put(transactionId, graphCode);
                 LOGGER.debug("Found errors during keyword extraction [{}]: {}", transactionId, graphCode);
-            } else {
-                LOGGER.debug("Keyword extraction [{}] found keywords: {}", transactionId, responseParsed.dictionary());
-                PromptBuilder builder = preparedGCPrompts.remove(transactionId);
-                builder.replace(Replacement.KEYWORDS, gson.toJson(responseParsed.dictionary()));
-                addGCPrompt(builder.toString(), graphCode, transactionId);
+            });
+        } else {
+            LOGGER.debug("Keyword extraction [{}] found keywords: {}", transactionId, responseParsed.dictionary());
+            keywordCache.put(transaction.getGraphCode().getModel(), prompt, responseParsed.dictionary());
+            try {
+                handOver(transaction, responseParsed.dictionary());
+            } catch (RuntimeException e) {
+                handleFailure(transaction, Stage.GRAPH_CODE_GENERATION, e);
             }
-
-            iterator.remove();
         }
     }
 
-    private GraphCode checkPendingGraphCodeTransaction(final String transactionId) {
-        GraphCode graphCode = pendingGraphCodeTransactions.get(transactionId);
-        if (graphCode == null) return null;
+    /**
+     * Completes the keyword stage of a transaction by inserting the keywords into the prepared GC prompt and sending
+     * it to the LLM.
+     *
+     * @param transaction
+     *         The {@link Transaction} in stage KEYWORD_EXTRACTION.
+     * @param keywords
+     *         The extracted keywords.
+     */
+    private void handOver(final Transaction transaction, final List<String> keywords) {
+        if (!transaction.advance(Stage.KEYWORD_EXTRACTION, Stage.GRAPH_CODE_GENERATION)) return;
+        transaction.fire(TransactionEvent.KEYWORDS_EXTRACTED);
 
-        String response = graphCode.getModel().getLLM().getResponse(transactionMapping.get(transactionId));
-        if (!StringUtils.hasText(response)) return graphCode;
+        PromptBuilder preparedGCPrompt = transaction.takePreparedGCPrompt();
+        preparedGCPrompt.replace(Replacement.KEYWORDS, gson.toJson(keywords));
+        submitGCPrompt(transaction, preparedGCPrompt.toString());
+    }
+
+    /**
+     * Handles the completion of a graph code transaction by parsing the LLMs response into the pending
+     * {@link GraphCode}.
+     *
+     * @param transaction
+     *         The {@link Transaction} in stage GRAPH_CODE_GENERATION.
+     * @param response
+     *         The LLMs response. <code>null</code> in case of an error.
+     * @param throwable
+     *         The error that occurred while executing the prompt. <code>null</code> in case of success.
+     */
+    private void handleGraphCodeResponse(final Transaction transaction, final String response,
+                                         final Throwable throwable) {
+        // the transaction might have been removed due to timeout in the meantime
+        if (transaction.getStage() != Stage.GRAPH_CODE_GENERATION) return;
+        final String transactionId = transaction.getId();
+
+        if (throwable != null) {
+            handleFailure(transaction, Stage.GRAPH_CODE_GENERATION, throwable);
+            return;
+        }
 
         LOGGER.trace("Found response for graph code transaction [{}]: {}", transactionId, response);
 
+        GraphCode responseParsed;
         try {
-            GraphCode responseParsed = gson.fromJson(response, GraphCode.class);
+            responseParsed = parseResponse(response, GraphCode.class);
+        } catch (RuntimeException e) {
+            handleFailure(transaction, Stage.GRAPH_CODE_GENERATION, e);
+            return;
+        }
+
+        complete(transaction, Stage.GRAPH_CODE_GENERATION, graphCode -> {
             if (StringUtils.hasText(responseParsed.getError())) {
                 graphCode.error(responseParsed.getError(), responseParsed.getDescription());
                 LOGGER.debug("Found errors during graph code generation [{}]: {}", transactionId, graphCode);
@@ -267,20 +619,140 @@ public class AsyncLLMService {
                 graphCode.finished(responseParsed.getDictionary(), responseParsed.getMatrix(), responseParsed.getDescription());
                 LOGGER.debug("Graph code generation [{}] finished: {}", transactionId, graphCode);
             }
-        } finally {
-            transactionMapping.remove(transactionId);
-            pendingGraphCodeTransactions.remove(transactionId);
+        });
+    }
+
+    /**
+     * Parses a response of the LLM into the given type.
+     *
+     * @param response
+     *         The LLMs response.
+     * @param type
+     *         The type to be parsed into.
+     * @return The parsed response.
+     * @throws com.google.gson.JsonParseException
+     *         in case the response is no JSON of the given type.
+     * @throws IllegalStateException
+     *         in case the response is empty.
+     */
+    private <T> T parseResponse(final String response, final Class<T> type) {
+        T parsed = gson.fromJson(response, type);
+        if (parsed == null) throw new IllegalStateException("The language model gave an empty response.");
+        return parsed;
+    }
+
+    /**
+     * Determines whether a response of the LLM can be handled, i.e. it is a JSON object as parsed by
+     * {@link #handleKeywordResponse} and {@link #handleGraphCodeResponse}. Used by the {@link Hedger} to let only
+     * valid responses win.
+     *
+     * @param response
+     *         The LLMs response.
+     * @return <code>true</code> in case the response can be parsed.
+     */
+    boolean isValidResponse(final String response) {
+        try {
+            parseResponse(response, JsonObject.class);
+            return true;
+        } catch (RuntimeException e) {
+            return false;
         }
-        return graphCode;
     }
 
     /**
-     * Provides the timeout for transaction removal in milliseconds.
+     * Marks the {@link GraphCode} of the transaction as failed.
+     *
+     * @param transaction
+     *         The {@link Transaction}.
+     * @param expected
+     *         The {@link Stage} the transaction is expected to be in.
+     * @param throwable
+     *         The cause of the failure.
+     */
+    private void handleFailure(final Transaction transaction, final Stage expected, final Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+        LOGGER.warn("Transaction [{}] failed", transaction.getId(), cause);
+        complete(transaction, expected, graphCode -> graphCode.error(ERROR_LLM, cause.getMessage()));
+    }
+
+    /**
+     * Provides the timeout for the removal of pending transactions in milliseconds, measured from their start.
      *
      * @return Milliseconds of timeout.
      */
     protected int getTimeout() {
-        return TIMEOUT;
+        return (int) LLMProperties.getLong("TRANSACTION_PENDING_TIMEOUT_MS", TIMEOUT);
+    }
+
+    /**
+     * Provides the time finished graph codes remain readable in milliseconds, measured from their completion.
+     *
+     * @return Milliseconds of retention.
+     */
+    protected int getRetention() {
+        return (int) LLMProperties.getLong("RESULT_STORE_RETENTION_MS", TIMEOUT);
+    }
+
+    /**
+     * Provides the store of the finished graph codes.
+     *
+     * @return The {@link ResultStore}.
+     */
+    protected ResultStore getResultStore() {
+        return resultStore;
+    }
+
+    /**
+     * Provides the {@link ModelDispatcher} limiting the work of the given model.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance.
+     * @return The {@link ModelDispatcher}.
+     */
+    protected ModelDispatcher getDispatcher(final ModelLiterals model) {
+        return dispatchers.get(model);
+    }
+
+    /**
+     * Provides the {@link Hedger} racing slow prompts against a secondary model.
+     *
+     * @return The {@link Hedger}.
+     */
+    protected Hedger getHedger() {
+        return hedger;
+    }
+
+    /**
+     * Provides the cache of extracted keywords.
+     *
+     * @return The {@link KeywordCache}.
+     */
+    protected KeywordCache getKeywordCache() {
+        return keywordCache;
+    }
+
+    /**
+     * Provides the {@link Executor} handling the responses of the LLMs. Every response is handled on its own virtual
+     * thread, so that parsing a response and handing over the following prompt neither blocks the thread completing
+     * the LLMs future nor other transactions.
+     *
+     * @return The {@link Executor} of the stage handoffs.
+     */
+    protected Executor getExecutor() {
+        return handoffExecutor;
+    }
+
+    /**
+     * The scheduled removal of a transaction.
+     *
+     * @param transaction
+     *         The {@link Transaction}.
+     * @param finished
+     *         Whether the finished or the pending transaction is to be removed.
+     */
+    private record Expiration(Transaction transaction, boolean finished) {
+
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * Consumes the lines of a streamed chat completion (server-sent events) and feeds the content deltas into an
+ * {@link IncrementalJsonReader}. As soon as the JSON object of the response is closed, the result is completed and
+ * the remaining stream is cancelled.
+ */
+public class ChatCompletionStreamSubscriber implements Flow.Subscriber<String> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChatCompletionStreamSubscriber.class);
+    private static final String DATA_PREFIX = "data:";
+    private static final String DONE = "[DONE]";
+
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+    private final IncrementalJsonReader reader = new IncrementalJsonReader();
+    private volatile Flow.Subscription subscription;
+
+    public ChatCompletionStreamSubscriber() {
+        // stop consuming the stream in case the result is not required anymore
+        result.whenComplete((response, throwable) -> cancel());
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (result.isDone()) subscription.cancel();
+        else subscription.request(1);
+    }
+
+    @Override
+    public void onNext(final String line) {
+        try {
+            handleLine(line);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        if (!result.isDone()) subscription.request(1);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        // the stream ended without a closed JSON object, so everything received is taken as response
+        result.complete(reader.getJson());
+    }
+
+    /**
+     * Gives the future which completes with the JSON text of the response.
+     *
+     * @return The {@link CompletableFuture} of the response.
+     */
+    public CompletableFuture<String> getResult() {
+        return result;
+    }
+
+    /**
+     * Handles a single line of the event stream. Comments and empty lines are skipped.
+     *
+     * @param line
+     *         The received line.
+     */
+    private void handleLine(final String line) {
+        if (!line.startsWith(DATA_PREFIX)) return;
+
+        String data = line.substring(DATA_PREFIX.length()).trim();
+        if (DONE.equals(data)) {
+            onComplete();
+            return;
+        }
+
+        JsonObject event = JsonParser.parseString(data).getAsJsonObject();
+        if (event.has("error"))
+            throw new IllegalStateException("Streamed completion failed: " + event.get("error"));
+
+        JsonArray choices = event.getAsJsonArray("choices");
+        if (choices == null || choices.isEmpty()) return;
+        JsonObject delta = choices.get(0).getAsJsonObject().getAsJsonObject("delta");
+        if (delta == null) return;
+        JsonElement content = delta.get("content");
+        if (content == null || content.isJsonNull()) return;
+
+        if (reader.feed(content.getAsString())) {
+            LOGGER.debug("Closing stream early as the JSON response is complete");
+            result.complete(reader.getJson());
+        }
+    }
+
+    /**
+     * Cancels the underlying stream.
+     */
+    private void cancel() {
+        Flow.Subscription current = subscription;
+        if (current != null) current.cancel();
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,162 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Stops handing prompts over to a backend which keeps failing. After the configured number of consecutive transient
+ * failures the circuit opens and prompts are rejected right away. Once the open time has passed, a single trial prompt
+ * is let through: its success closes the circuit again, its failure opens it for another period.
+ */
+class CircuitBreaker {
+
+    /**
+     * The states of a {@link CircuitBreaker}.
+     */
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trialRunning;
+
+    /**
+     * Creates a new {@link CircuitBreaker}.
+     *
+     * @param failureThreshold
+     *         The number of consecutive transient failures opening the circuit. 0 disables the circuit breaker.
+     * @param openMillis
+     *         The time in milliseconds the circuit stays open before a trial prompt is let through.
+     */
+    CircuitBreaker(final int failureThreshold, final long openMillis) {
+        this.failureThreshold = Math.max(0, failureThreshold);
+        this.openMillis = Math.max(0, openMillis);
+    }
+
+    /**
+     * Creates a {@link CircuitBreaker} with the configuration of the llm.properties. The defaults
+     * CIRCUIT_FAILURE_THRESHOLD and CIRCUIT_OPEN_MS can be overridden per model, e.g. by
+     * QWEN3_1_7_B_CIRCUIT_FAILURE_THRESHOLD.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance to be guarded.
+     * @return The configured {@link CircuitBreaker}.
+     */
+    static CircuitBreaker fromProperties(final ModelLiterals model) {
+        long failureThreshold = LLMProperties.getLong("CIRCUIT_FAILURE_THRESHOLD", 5);
+        long openMillis = LLMProperties.getLong("CIRCUIT_OPEN_MS", 30000);
+        return new CircuitBreaker(
+                (int) LLMProperties.getLong(model.name() + "_CIRCUIT_FAILURE_THRESHOLD", failureThreshold),
+                LLMProperties.getLong(model.name() + "_CIRCUIT_OPEN_MS", openMillis));
+    }
+
+    /**
+     * Determines whether a failure indicates that the backend is unavailable for the moment, so that the prompt may
+     * succeed on another attempt. These are connection failures and timeouts as well as the HTTP status codes 429 and
+     * 5xx. The whole chain of causes is checked, as the LLMs wrap the original exceptions.
+     *
+     * @param throwable
+     *         The failure of a prompt.
+     * @return <code>true</code> in case the failure is transient.
+     */
+    static boolean isTransient(final Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CancellationException) return false;
+            if (cause instanceof HttpStatusException e)
+                return e.getStatusCode() == 429 || e.getStatusCode() >= 500;
+            if (cause instanceof IOException) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether prompts are rejected right away.
+     *
+     * @param now
+     *         The current time in milliseconds.
+     * @return <code>true</code> in case the circuit is open and no trial prompt may be started yet.
+     */
+    synchronized boolean isOpen(final long now) {
+        return state == State.OPEN && now < openedAt + openMillis || state == State.HALF_OPEN && trialRunning;
+    }
+
+    /**
+     * Asks for permission to hand a prompt over to the backend. Each permitted prompt has to be reported by
+     * {@link #success()}, {@link #failure(Throwable, long)} or {@link #cancelled()}.
+     *
+     * @param now
+     *         The current time in milliseconds.
+     * @return <code>true</code> in case the prompt may be started.
+     */
+    synchronized boolean tryAcquire(final long now) {
+        if (state == State.OPEN) {
+            if (now < openedAt + openMillis) return false;
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialRunning) return false;
+            trialRunning = true;
+        }
+        return true;
+    }
+
+    /**
+     * Reports a successful prompt, which closes the circuit.
+     */
+    synchronized void success() {
+        state = State.CLOSED;
+        failures = 0;
+        trialRunning = false;
+    }
+
+    /**
+     * Reports a failed prompt. Only transient failures count towards opening the circuit. Any other failure, e.g. a
+     * rejected prompt or an unparsable response, says nothing about the health of the backend and is neutral: the
+     * state and the count of failures are kept, only a trial prompt is released.
+     *
+     * @param throwable
+     *         The failure of the prompt.
+     * @param now
+     *         The current time in milliseconds.
+     */
+    synchronized void failure(final Throwable throwable, final long now) {
+        if (!isTransient(throwable)) {
+            trialRunning = false;
+            return;
+        }
+        if (state == State.HALF_OPEN || failureThreshold > 0 && ++failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = now;
+            failures = 0;
+        }
+        trialRunning = false;
+    }
+
+    /**
+     * Reports a prompt which has been cancelled before its outcome was known. A cancelled trial prompt lets the next
+     * prompt through.
+     */
+    synchronized void cancelled() {
+        trialRunning = false;
+    }
+
+    /**
+     * Gives the state of the circuit.
+     *
+     * @param now
+     *         The current time in milliseconds.
+     * @return The {@link State}. An open circuit whose open time has passed is reported as half-open.
+     */
+    synchronized State getState(final long now) {
+        return state == State.OPEN && now >= openedAt + openMillis ? State.HALF_OPEN : state;
+    }
+
+}
\ No newline at end of file
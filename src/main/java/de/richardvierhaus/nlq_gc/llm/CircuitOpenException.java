@@ -0,0 +1,22 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+
+/**
+ * Signals that a prompt has not been handed over to a model, as the {@link CircuitBreaker} of the model is open after
+ * repeated failures.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    private final ModelLiterals model;
+
+    public CircuitOpenException(final ModelLiterals model) {
+        super(String.format("The model %s is not available at the moment.", model));
+        this.model = model;
+    }
+
+    public ModelLiterals getModel() {
+        return model;
+    }
+
+}
\ No newline at end of file
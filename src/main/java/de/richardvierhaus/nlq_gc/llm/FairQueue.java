@@ -0,0 +1,282 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A weighted fair queue keyed by user. Every user has an own FIFO lane and the lanes are served by start-time fair
+ * queuing: each item is tagged with the virtual time its user would be served at, if every user received a share of
+ * the capacity proportional to its weight. The item with the lowest tag is served next, so that a user submitting lots
+ * of work only delays its own items while light users are served right away. Users running as many items as their
+ * concurrency cap allows are skipped until one of their items has finished. The caps are kept by {@link UserCaps},
+ * which may be shared between several queues.
+ * <p>
+ * The queue is not thread-safe.
+ *
+ * @param <T>
+ *         The type of the queued items.
+ */
+class FairQueue<T> {
+
+    private static final String ANONYMOUS = "";
+
+    private final double defaultWeight;
+    private final Map<String, Double> weights;
+    private final UserCaps caps;
+    private final Map<String, Lane<T>> lanes = new HashMap<>();
+    private double virtualTime;
+    private int size;
+
+    /**
+     * Creates a new {@link FairQueue} without specific weights or caps of single users.
+     *
+     * @param defaultWeight
+     *         The weight of each user.
+     * @param defaultMaxInFlight
+     *         The maximum number of running items per user. 0 disables the cap.
+     */
+    FairQueue(final double defaultWeight, final int defaultMaxInFlight) {
+        this(defaultWeight, defaultMaxInFlight, Map.of(), Map.of());
+    }
+
+    /**
+     * Creates a new {@link FairQueue}.
+     *
+     * @param defaultWeight
+     *         The weight of users without specific weight.
+     * @param defaultMaxInFlight
+     *         The maximum number of running items of users without specific cap. 0 disables the cap.
+     * @param weights
+     *         The specific weights per user.
+     * @param maxInFlights
+     *         The specific caps per user. 0 disables the cap.
+     */
+    FairQueue(final double defaultWeight, final int defaultMaxInFlight, final Map<String, Double> weights,
+              final Map<String, Integer> maxInFlights) {
+        this(defaultWeight, weights, new UserCaps(defaultMaxInFlight, maxInFlights));
+    }
+
+    /**
+     * Creates a new {@link FairQueue}.
+     *
+     * @param defaultWeight
+     *         The weight of users without specific weight.
+     * @param weights
+     *         The specific weights per user.
+     * @param caps
+     *         The {@link UserCaps} counting and capping the running items of the users.
+     */
+    FairQueue(final double defaultWeight, final Map<String, Double> weights, final UserCaps caps) {
+        this.defaultWeight = defaultWeight > 0 ? defaultWeight : 1;
+        this.weights = Map.copyOf(weights);
+        this.caps = caps;
+    }
+
+    /**
+     * Creates a {@link FairQueue} with the weights configured in the llm.properties. USER_WEIGHT is the default, which
+     * can be overridden per user, e.g. by USER_WEIGHT.alice=4.
+     *
+     * @param caps
+     *         The {@link UserCaps} counting and capping the running items of the users.
+     * @return The configured {@link FairQueue}.
+     */
+    static <T> FairQueue<T> fromProperties(final UserCaps caps) {
+        Map<String, Double> weights = new HashMap<>();
+        for (String key : LLMProperties.get().stringPropertyNames()) {
+            if (key.startsWith("USER_WEIGHT."))
+                weights.put(key.substring("USER_WEIGHT.".length()), LLMProperties.getDouble(key, 1));
+        }
+        return new FairQueue<>(LLMProperties.getDouble("USER_WEIGHT", 1), weights, caps);
+    }
+
+    /**
+     * Appends an item to the lane of the given user.
+     *
+     * @param user
+     *         The identification of the user. Items without user share an anonymous lane.
+     * @param item
+     *         The item to be queued.
+     */
+    void add(final String user, final T item) {
+        Lane<T> lane = lanes.computeIfAbsent(key(user), this::createLane);
+        lane.items.add(new Entry<>(item, lane.nextTag(virtualTime)));
+        size++;
+    }
+
+    /**
+     * Gives the item to be served next without removing it.
+     *
+     * @return The queued item with the lowest tag whose user is below its cap or <code>null</code> in case there is
+     * none.
+     */
+    T peek() {
+        Lane<T> lane = nextLane();
+        return lane == null ? null : lane.items.peek().item;
+    }
+
+    /**
+     * Removes the item returned by {@link #peek()} and counts it as running for its user until
+     * {@link #finished(String)} is called.
+     *
+     * @return The removed item or <code>null</code> in case there is none.
+     */
+    T poll() {
+        Lane<T> lane = nextLane();
+        if (lane == null) return null;
+        Entry<T> entry = lane.items.poll();
+        size--;
+        virtualTime = Math.max(virtualTime, entry.tag);
+        lane.inFlight++;
+        caps.start(lane.user);
+        return entry.item;
+    }
+
+    /**
+     * Determines whether an item of the given user may bypass the queue, as none of its items is queued and its cap
+     * allows another running item.
+     *
+     * @param user
+     *         The identification of the user.
+     * @return <code>true</code> in case the item may be started.
+     */
+    boolean mayStart(final String user) {
+        Lane<T> lane = lanes.get(key(user));
+        return (lane == null || lane.items.isEmpty()) && !caps.isCapped(key(user));
+    }
+
+    /**
+     * Counts an item which bypasses the queue as running for its user. The item is charged like a queued one, so that
+     * bypassing the queue does not grant a user more than its share.
+     *
+     * @param user
+     *         The identification of the user.
+     */
+    void start(final String user) {
+        Lane<T> lane = lanes.computeIfAbsent(key(user), this::createLane);
+        virtualTime = Math.max(virtualTime, lane.nextTag(virtualTime));
+        lane.inFlight++;
+        caps.start(lane.user);
+    }
+
+    /**
+     * Signals that a running item of the given user has finished.
+     *
+     * @param user
+     *         The identification of the user.
+     */
+    void finished(final String user) {
+        String key = key(user);
+        Lane<T> lane = lanes.get(key);
+        if (lane == null) return;
+        lane.inFlight = Math.max(0, lane.inFlight - 1);
+        caps.finished(key);
+        removeIfIdle(key, lane);
+    }
+
+    /**
+     * Removes a queued item, e.g. because it has been cancelled.
+     *
+     * @param user
+     *         The identification of the user.
+     * @param item
+     *         The item to be removed.
+     * @return <code>true</code> in case the item has been queued.
+     */
+    boolean remove(final String user, final T item) {
+        String key = key(user);
+        Lane<T> lane = lanes.get(key);
+        if (lane == null || !lane.items.removeIf(entry -> entry.item == item)) return false;
+        size--;
+        removeIfIdle(key, lane);
+        return true;
+    }
+
+    /**
+     * Gives the number of queued items.
+     *
+     * @return The number of items.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Determines whether no item is queued.
+     *
+     * @return <code>true</code> in case the queue is empty.
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gives the number of running items of the given user, including the ones of queues sharing the {@link UserCaps}.
+     *
+     * @param user
+     *         The identification of the user.
+     * @return The number of items.
+     */
+    int getInFlight(final String user) {
+        return caps.getInFlight(key(user));
+    }
+
+    private Lane<T> nextLane() {
+        Lane<T> next = null;
+        for (Lane<T> lane : lanes.values()) {
+            if (lane.items.isEmpty() || caps.isCapped(lane.user)) continue;
+            if (next == null || lane.items.peek().tag < next.items.peek().tag) next = lane;
+        }
+        return next;
+    }
+
+    private Lane<T> createLane(final String user) {
+        return new Lane<>(user, weights.getOrDefault(user, defaultWeight));
+    }
+
+    /**
+     * Drops lanes without queued or running items. Their tags are not required anymore, as a returning user starts
+     * at the current virtual time in any case.
+     */
+    private void removeIfIdle(final String key, final Lane<T> lane) {
+        if (lane.items.isEmpty() && lane.inFlight == 0) lanes.remove(key, lane);
+    }
+
+    private static String key(final String user) {
+        return user == null ? ANONYMOUS : user;
+    }
+
+    private record Entry<T>(T item, double tag) {
+
+    }
+
+    /**
+     * The queued and running items of a single user.
+     */
+    private static final class Lane<T> {
+
+        private final Deque<Entry<T>> items = new ArrayDeque<>();
+        private final String user;
+        private final double weight;
+        private double lastFinish;
+        private int inFlight; // running items of this queue, the lane is kept as long as there are any
+
+        private Lane(final String user, final double weight) {
+            this.user = user;
+            this.weight = weight > 0 ? weight : 1;
+        }
+
+        /**
+         * Tags the next item of the user with its start time and advances the users' finish time by the share of
+         * the item.
+         */
+        private double nextTag(final double virtualTime) {
+            double start = Math.max(virtualTime, lastFinish);
+            lastFinish = start + 1 / weight;
+            return start;
+        }
+
+    }
+
+}
\ No newline at end of file
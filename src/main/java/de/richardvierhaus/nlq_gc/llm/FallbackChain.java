@@ -0,0 +1,158 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Fails over to other models in case a prompt fails. Each model may have a chain of fallback models, which are tried
+ * one after another until a response has been received. As an open circuit rejects prompts right away, an unavailable
+ * model is skipped within milliseconds. The first model has admitted the transaction already, each attempt of a
+ * fallback model is admitted at its {@link ModelDispatcher} and skipped in case the model is working at its limit.
+ * Cancelling the returned future cancels the running attempt.
+ */
+class FallbackChain implements PromptCoalescer.Upstream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FallbackChain.class);
+
+    private final PromptCoalescer.Upstream upstream;
+    private final Function<ModelLiterals, ModelDispatcher> dispatchers;
+    private final Map<ModelLiterals, List<ModelLiterals>> chains;
+
+    /**
+     * Creates a new {@link FallbackChain}.
+     *
+     * @param upstream
+     *         The {@link PromptCoalescer.Upstream} executing each attempt.
+     * @param dispatchers
+     *         Provides the {@link ModelDispatcher} of each model, admitting the attempts of the fallback models.
+     * @param fallbacks
+     *         The models tried in order, in case a prompt of a model fails. Models without fallbacks fail directly.
+     */
+    FallbackChain(final PromptCoalescer.Upstream upstream, final Function<ModelLiterals, ModelDispatcher> dispatchers,
+                  final Map<ModelLiterals, List<ModelLiterals>> fallbacks) {
+        this.upstream = upstream;
+        this.dispatchers = dispatchers;
+        this.chains = new EnumMap<>(ModelLiterals.class);
+        fallbacks.forEach((model, models) -> {
+            List<ModelLiterals> chain = new ArrayList<>();
+            chain.add(model);
+            for (ModelLiterals fallback : models)
+                if (!chain.contains(fallback)) chain.add(fallback);
+            chains.put(model, List.copyOf(chain));
+        });
+    }
+
+    /**
+     * Creates a {@link FallbackChain} with the configuration of the llm.properties. The fallback models are configured
+     * per model as comma-separated list, e.g. by QWEN3_1_7_B_FALLBACK_MODELS=QWEN_TURBO,QWEN3_14B.
+     *
+     * @param upstream
+     *         The {@link PromptCoalescer.Upstream} executing each attempt.
+     * @param dispatchers
+     *         Provides the {@link ModelDispatcher} of each model, admitting the attempts of the fallback models.
+     * @return The configured {@link FallbackChain}.
+     */
+    static FallbackChain fromProperties(final PromptCoalescer.Upstream upstream,
+                                        final Function<ModelLiterals, ModelDispatcher> dispatchers) {
+        Map<ModelLiterals, List<ModelLiterals>> fallbacks = new EnumMap<>(ModelLiterals.class);
+        for (ModelLiterals model : ModelLiterals.values()) {
+            String value = LLMProperties.get().getProperty(model.name() + "_FALLBACK_MODELS");
+            if (value == null || value.isBlank()) continue;
+            List<ModelLiterals> models = new ArrayList<>();
+            for (String fallback : value.split(",")) {
+                try {
+                    models.add(ModelLiterals.valueOf(fallback.trim()));
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warn("Unknown fallback model {} of model {}", fallback, model);
+                }
+            }
+            fallbacks.put(model, models);
+        }
+        return new FallbackChain(upstream, dispatchers, fallbacks);
+    }
+
+    /**
+     * Executes the prompt with the given model and its fallback models in order, until one of them answered.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance to be used first.
+     * @param user
+     *         The identification of the user the prompt is executed for.
+     * @param priority
+     *         The {@link Priority} of the prompt.
+     * @param prompt
+     *         The prompt to be executed.
+     * @return A {@link CompletableFuture} completing with the first response. It fails with the failure of the last
+     * model, in case all models failed.
+     */
+    @Override
+    public CompletableFuture<String> submit(final ModelLiterals model, final String user, final Priority priority,
+                                            final String prompt) {
+        List<ModelLiterals> chain = chains.get(model);
+        if (chain == null) return upstream.submit(model, user, priority, prompt);
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        attempt(chain, 0, user, priority, prompt, result);
+        return result;
+    }
+
+    /**
+     * Gives the models tried for a prompt of the given model.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance.
+     * @return The model followed by its fallback models.
+     */
+    List<ModelLiterals> getChain(final ModelLiterals model) {
+        return chains.getOrDefault(model, List.of(model));
+    }
+
+    /**
+     * Executes the prompt with the model at the given position of the chain. A failed or rejected attempt is followed
+     * by the next model, unless the result has been cancelled. The admission of a fallback model is released once its
+     * attempt is finished.
+     */
+    private void attempt(final List<ModelLiterals> chain, final int index, final String user,
+                         final Priority priority, final String prompt, final CompletableFuture<String> result) {
+        ModelLiterals model = chain.get(index);
+        ModelDispatcher dispatcher = index == 0 ? null : dispatchers.apply(model);
+        CompletableFuture<String> future;
+        if (dispatcher != null && !dispatcher.acquire()) {
+            future = CompletableFuture.failedFuture(new AdmissionRejectedException(model,
+                    dispatcher.estimateRetryAfter()));
+        } else {
+            try {
+                future = upstream.submit(model, user, priority, prompt);
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            if (dispatcher != null) future.whenComplete((response, throwable) -> dispatcher.release());
+        }
+
+        final CompletableFuture<String> attempt = future;
+        result.whenComplete((response, throwable) -> {
+            if (result.isCancelled()) attempt.cancel(false);
+        });
+        attempt.whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                result.complete(response);
+            } else if (result.isDone() || index + 1 >= chain.size()) {
+                result.completeExceptionally(throwable);
+            } else {
+                LOGGER.warn("Prompt of model {} failed, falling back to model {}: {}", model, chain.get(index + 1),
+                        throwable.getMessage());
+                attempt(chain, index + 1, user, priority, prompt, result);
+            }
+        });
+    }
+
+}
\ No newline at end of file
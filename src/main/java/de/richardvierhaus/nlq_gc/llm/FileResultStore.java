@@ -0,0 +1,521 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.GraphCode;
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link ResultStore} appending the results as binary records to a file. Only the position of each record is kept
+ * on the heap, so that the heap stays flat regardless of the number and size of the results waiting to be read.
+ * Records of expired or replaced results are reclaimed by rewriting the file once they make up the larger part of it.
+ * The expirations are ordered by their deadline, so that compacting only touches the expired results. The live records
+ * are copied without holding the lock of the store, which is only taken to swap the files and the index.
+ * After a restart the positions are recovered by scanning the file. A record torn by a crash at its end is truncated,
+ * a corrupt record within the file is skipped up to the next intact one.
+ * <p>
+ * Records are written to the operating system right away, so they survive a crash of the application. Unless sync is
+ * enabled, they are not forced to the disk, so the results stored last may be lost on a power failure.
+ * <p>
+ * Each record consists of the length and the CRC32 checksum of its payload, followed by the payload itself: the
+ * transaction id, the expiration time and the values of the {@link GraphCode}.
+ */
+public class FileResultStore implements ResultStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileResultStore.class);
+    private static final int HEADER_BYTES = 8;
+    private static final long MIN_COMPACTION_BYTES = 1048576; // files below 1 MiB are not worth compacting
+
+    private final Path path;
+    private final long retentionMillis;
+    private final long minCompactionBytes;
+    private final boolean sync;
+    private final Map<String, Location> index = new HashMap<>();
+    private final PriorityQueue<Expiration> expirations =
+            new PriorityQueue<>(Comparator.comparingLong(Expiration::expires));
+    private FileChannel channel;
+    private long liveBytes;
+    private boolean compacting;
+
+    /**
+     * Opens the file of the store and recovers the results which have not expired yet.
+     *
+     * @param path
+     *         The {@link Path} of the file. It is created in case it does not exist.
+     * @param retentionMillis
+     *         The time in milliseconds a result is kept after it has been stored.
+     * @throws UncheckedIOException
+     *         in case the file cannot be opened.
+     */
+    public FileResultStore(final Path path, final long retentionMillis) {
+        this(path, retentionMillis, false);
+    }
+
+    /**
+     * Opens the file of the store and recovers the results which have not expired yet.
+     *
+     * @param path
+     *         The {@link Path} of the file. It is created in case it does not exist.
+     * @param retentionMillis
+     *         The time in milliseconds a result is kept after it has been stored.
+     * @param sync
+     *         Whether each result is forced to the disk before {@link #put(String, GraphCode)} returns.
+     * @throws UncheckedIOException
+     *         in case the file cannot be opened.
+     */
+    public FileResultStore(final Path path, final long retentionMillis, final boolean sync) {
+        this(path, retentionMillis, MIN_COMPACTION_BYTES, sync);
+    }
+
+    /**
+     * Opens the file of the store and recovers the results which have not expired yet.
+     *
+     * @param path
+     *         The {@link Path} of the file. It is created in case it does not exist.
+     * @param retentionMillis
+     *         The time in milliseconds a result is kept after it has been stored.
+     * @param minCompactionBytes
+     *         The minimum number of reclaimable bytes for the file to be compacted.
+     * @param sync
+     *         Whether each result is forced to the disk before {@link #put(String, GraphCode)} returns.
+     * @throws UncheckedIOException
+     *         in case the file cannot be opened.
+     */
+    FileResultStore(final Path path, final long retentionMillis, final long minCompactionBytes, final boolean sync) {
+        this.path = path;
+        this.retentionMillis = retentionMillis;
+        this.minCompactionBytes = minCompactionBytes;
+        this.sync = sync;
+        try {
+            if (path.getParent() != null) Files.createDirectories(path.getParent());
+            channel = open(path);
+            recover(System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open result store " + path, e);
+        }
+    }
+
+    @Override
+    public synchronized void put(final String transactionId, final GraphCode graphCode) {
+        long expires = System.currentTimeMillis() + retentionMillis;
+        byte[] record = encode(transactionId, expires, graphCode);
+        try {
+            long offset = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) channel.write(buffer, offset + buffer.position());
+            if (sync) channel.force(false);
+
+            index(transactionId, new Location(offset, record.length, expires));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not store result of transaction " + transactionId, e);
+        }
+    }
+
+    @Override
+    public synchronized GraphCode get(final String transactionId) {
+        Location location = index.get(transactionId);
+        if (location == null || location.expires() < System.currentTimeMillis()) return null;
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(location.length());
+            read(buffer, location.offset());
+            return decode(buffer.array()).graphCode();
+        } catch (IOException e) {
+            LOGGER.error("Could not read result of transaction [{}]", transactionId, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void compact(final long currentTime) {
+        List<Map.Entry<String, Location>> live;
+        long end;
+        synchronized (this) {
+            while (!expirations.isEmpty() && expirations.peek().expires() < currentTime) {
+                Expiration expiration = expirations.poll();
+                Location location = index.get(expiration.transactionId());
+                // the result might have been replaced by one expiring later
+                if (location != null && location.expires() == expiration.expires()) {
+                    index.remove(expiration.transactionId());
+                    liveBytes -= location.length();
+                }
+            }
+
+            try {
+                end = channel.size();
+            } catch (IOException e) {
+                LOGGER.error("Could not compact result store {}", path, e);
+                return;
+            }
+            long garbage = end - liveBytes;
+            if (compacting || garbage < minCompactionBytes || garbage <= liveBytes) return;
+            compacting = true;
+            live = new ArrayList<>(index.entrySet());
+        }
+
+        try {
+            rewrite(live, end);
+        } catch (IOException e) {
+            LOGGER.error("Could not compact result store {}", path, e);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close result store {}", path, e);
+        }
+    }
+
+    /**
+     * Gives the size of the file including the records which have not been reclaimed yet.
+     *
+     * @return The size in bytes.
+     */
+    synchronized long getFileSize() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Copies the live records into a new file and replaces the current file with it. The records are copied and
+     * forced to disk without holding the lock, as the file only grows in the meantime. Under the lock the records
+     * appended since then are copied as well, before the files and the index are swapped.
+     *
+     * @param live
+     *         The live records at the start of the compaction.
+     * @param end
+     *         The size of the file at the start of the compaction.
+     */
+    private void rewrite(final List<Map.Entry<String, Location>> live, final long end) throws IOException {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        live.sort(Map.Entry.comparingByValue(Comparator.comparingLong(Location::offset)));
+
+        Map<Location, Location> moved = new HashMap<>();
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            FileChannel source;
+            synchronized (this) {
+                source = channel;
+            }
+            long offset = 0;
+            for (Map.Entry<String, Location> entry : live) {
+                Location location = entry.getValue();
+                transfer(source, location.offset(), location.length(), target);
+                moved.put(location, new Location(offset, location.length(), location.expires()));
+                offset += location.length();
+            }
+            target.force(true);
+
+            synchronized (this) {
+                // records appended in the meantime are moved behind the copied ones
+                long appended = channel.size() - end;
+                transfer(channel, end, appended, target);
+
+                Map<String, Location> swapped = new HashMap<>();
+                for (Map.Entry<String, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    swapped.put(entry.getKey(), location.offset() >= end
+                            ? new Location(offset + location.offset() - end, location.length(), location.expires())
+                            : moved.get(location));
+                }
+
+                channel.close();
+                Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel = open(path);
+                index.clear();
+                index.putAll(swapped);
+                LOGGER.debug("Compacted result store {} to {} bytes", path, offset + appended);
+            }
+        }
+    }
+
+    /**
+     * Copies a range of bytes from one file to another.
+     */
+    private static void transfer(final FileChannel source, final long position, final long length,
+                                 final FileChannel target) throws IOException {
+        long copied = 0;
+        while (copied < length) copied += source.transferTo(position + copied, length - copied, target);
+    }
+
+    /**
+     * Adds the location of a result to the index and schedules its expiration.
+     */
+    private void index(final String transactionId, final Location location) {
+        Location former = index.put(transactionId, location);
+        if (former != null) liveBytes -= former.length();
+        liveBytes += location.length();
+        expirations.add(new Expiration(transactionId, location.expires()));
+    }
+
+    /**
+     * Rebuilds the index by scanning the file. A corrupt record is skipped up to the next intact record, so that the
+     * records behind it are kept. Only in case no intact record follows, the file is truncated at the corrupt one, as
+     * it has been torn by a crash while being appended.
+     *
+     * @param currentTime
+     *         The current time milliseconds. Results expired by then are skipped.
+     */
+    private void recover(final long currentTime) throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        while (offset < size) {
+            byte[] record = readRecord(offset, size);
+            if (record == null) {
+                long next = findRecord(offset + 1, size);
+                if (next < 0) {
+                    LOGGER.warn("Truncating {} bytes of an incomplete record at offset {} of result store {}",
+                            size - offset, offset, path);
+                    channel.truncate(offset);
+                    break;
+                }
+                LOGGER.warn("Skipping {} corrupt bytes at offset {} of result store {}", next - offset, offset, path);
+                offset = next;
+                continue;
+            }
+
+            try {
+                Record decoded = decode(record);
+                Location former = index.remove(decoded.transactionId());
+                if (former != null) liveBytes -= former.length();
+                if (decoded.expires() >= currentTime)
+                    index(decoded.transactionId(), new Location(offset, record.length, decoded.expires()));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Skipping unreadable record at offset {} of result store {}: {}", offset, path,
+                        e.getMessage());
+            }
+            offset += record.length;
+        }
+        LOGGER.info("Recovered {} results from result store {}", index.size(), path);
+    }
+
+    /**
+     * Searches the next intact record, starting at the given offset.
+     *
+     * @param offset
+     *         The offset to start searching at.
+     * @param size
+     *         The size of the file.
+     * @return The offset of the next intact record or <code>-1</code> in case there is none.
+     */
+    private long findRecord(final long offset, final long size) throws IOException {
+        for (long candidate = offset; candidate + HEADER_BYTES <= size; candidate++)
+            if (readRecord(candidate, size) != null) return candidate;
+        return -1;
+    }
+
+    /**
+     * Reads the record at the given offset including its header. The length of the record is checked against the
+     * remaining bytes of the file before the record is read.
+     *
+     * @param offset
+     *         The offset of the record.
+     * @param size
+     *         The size of the file.
+     * @return The record or <code>null</code> in case there is no intact record at the offset.
+     */
+    private byte[] readRecord(final long offset, final long size) throws IOException {
+        if (size - offset < HEADER_BYTES) return null;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        read(header, offset);
+        int length = header.getInt(0);
+        if (length < 0 || length > size - offset - HEADER_BYTES) return null;
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + length);
+        read(record, offset);
+        return isIntact(record.array()) ? record.array() : null;
+    }
+
+    /**
+     * Fills the given buffer with the bytes of the file at the given offset.
+     */
+    private void read(final ByteBuffer buffer, final long offset) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, offset + buffer.position()) < 0) throw new EOFException();
+    }
+
+    /**
+     * Verifies the checksum of a record.
+     *
+     * @param record
+     *         The record including its header.
+     * @return <code>true</code> in case the payload matches the checksum of the header.
+     */
+    static boolean isIntact(final byte[] record) {
+        ByteBuffer header = ByteBuffer.wrap(record);
+        int length = header.getInt();
+        int checksum = header.getInt();
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_BYTES, length);
+        return (int) crc.getValue() == checksum;
+    }
+
+    private static FileChannel open(final Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Encodes a result as record.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @param expires
+     *         The time in milliseconds the result expires.
+     * @param graphCode
+     *         The completed {@link GraphCode}.
+     * @return The record including its header.
+     */
+    static byte[] encode(final String transactionId, final long expires, final GraphCode graphCode) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeLong(0); // placeholder of the header
+            writeString(output, transactionId);
+            output.writeLong(expires);
+            output.writeByte(graphCode.getState().ordinal());
+            writeString(output, graphCode.getModel() == null ? null : graphCode.getModel().name());
+            output.writeLong(graphCode.getStart());
+
+            List<String> dictionary = graphCode.getDictionary();
+            output.writeInt(dictionary == null ? -1 : dictionary.size());
+            if (dictionary != null) for (String term : dictionary) writeString(output, term);
+
+            int[][] matrix = graphCode.getMatrix();
+            output.writeInt(matrix == null ? -1 : matrix.length);
+            if (matrix != null) for (int[] row : matrix) {
+                output.writeInt(row.length);
+                for (int value : row) output.writeInt(value);
+            }
+
+            writeString(output, graphCode.getError());
+            writeString(output, graphCode.getDescription());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by in-memory streams
+        }
+
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_BYTES, record.length - HEADER_BYTES);
+        ByteBuffer.wrap(record).putInt(record.length - HEADER_BYTES).putInt((int) crc.getValue());
+        return record;
+    }
+
+    /**
+     * Decodes a record including its header.
+     *
+     * @param record
+     *         The record.
+     * @return The decoded {@link Record}.
+     */
+    static Record decode(final byte[] record) throws IOException {
+        InputStream stream = new ByteArrayInputStream(record, HEADER_BYTES, record.length - HEADER_BYTES);
+        try (DataInputStream input = new DataInputStream(stream)) {
+            String transactionId = readString(input);
+            long expires = input.readLong();
+            State state = State.values()[input.readByte()];
+            String model = readString(input);
+            long start = input.readLong();
+
+            int terms = input.readInt();
+            List<String> dictionary = terms < 0 ? null : new ArrayList<>(terms);
+            for (int i = 0; i < terms; i++) dictionary.add(readString(input));
+
+            int rows = input.readInt();
+            int[][] matrix = rows < 0 ? null : new int[rows][];
+            for (int i = 0; i < rows; i++) {
+                matrix[i] = new int[input.readInt()];
+                for (int j = 0; j < matrix[i].length; j++) matrix[i][j] = input.readInt();
+            }
+
+            String error = readString(input);
+            String description = readString(input);
+            return new Record(transactionId, expires, GraphCode.restore(state, model == null ? null
+                    : ModelLiterals.valueOf(model), start, dictionary, matrix, error, description));
+        }
+    }
+
+    private static void writeString(final DataOutputStream output, final String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(final DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The position of a record within the file.
+     *
+     * @param offset
+     *         The offset of the record in bytes.
+     * @param length
+     *         The length of the record including its header.
+     * @param expires
+     *         The time in milliseconds the result expires.
+     */
+    private record Location(long offset, int length, long expires) {
+
+    }
+
+    /**
+     * The scheduled expiration of a result.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @param expires
+     *         The time in milliseconds the result expires.
+     */
+    private record Expiration(String transactionId, long expires) {
+
+    }
+
+    /**
+     * A decoded record.
+     */
+    record Record(String transactionId, long expires, GraphCode graphCode) {
+
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,288 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Caps the tail latency of the LLMs by hedging. A prompt which is still running after the 95th percentile latency of
+ * its model is sent to the configured secondary model as well. The first valid response is taken and the other prompt
+ * is cancelled, an invalid response counts as a failure of its prompt. Each model may only hedge a bounded share of its
+ * prompts: every prompt deposits the maximum ratio into a budget and every hedge withdraws one from it. Bulk prompts
+ * are never hedged.
+ */
+public class Hedger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Hedger.class);
+    private static final double PERCENTILE = 0.95;
+    private static final int BURST_PROMPTS = 100;
+
+    private final Function<ModelLiterals, ModelDispatcher> dispatchers;
+    private final Map<ModelLiterals, ModelLiterals> secondaries;
+    private final double maxRatio;
+    private final int minSamples;
+    private final long minDelayMillis;
+    private final Predicate<String> validator;
+    private final Map<ModelLiterals, Budget> budgets = new EnumMap<>(ModelLiterals.class);
+
+    /**
+     * Creates a new {@link Hedger}.
+     *
+     * @param dispatchers
+     *         Provides the {@link ModelDispatcher} of each model.
+     * @param secondaries
+     *         The model each model hedges its prompts with. Models without secondary are not hedged.
+     * @param maxRatio
+     *         The maximum share of the prompts of a model which may be hedged. The budget holds the hedges of at most
+     *         100 prompts, so that hedges cannot pile up in quiet times.
+     * @param minSamples
+     *         The minimum number of recorded latencies before a model is hedged.
+     * @param minDelayMillis
+     *         The minimum time in milliseconds before a prompt is hedged.
+     * @param validator
+     *         Determines whether a response can be handled. Only valid responses win the race.
+     */
+    Hedger(final Function<ModelLiterals, ModelDispatcher> dispatchers,
+           final Map<ModelLiterals, ModelLiterals> secondaries, final double maxRatio, final int minSamples,
+           final long minDelayMillis, final Predicate<String> validator) {
+        this.dispatchers = dispatchers;
+        this.secondaries = secondaries.isEmpty() ? new EnumMap<>(ModelLiterals.class) : new EnumMap<>(secondaries);
+        this.maxRatio = Math.max(0, Math.min(1, maxRatio));
+        this.minSamples = Math.max(1, minSamples);
+        this.minDelayMillis = Math.max(0, minDelayMillis);
+        this.validator = validator;
+        for (ModelLiterals model : ModelLiterals.values()) budgets.put(model, new Budget());
+    }
+
+    /**
+     * Creates a {@link Hedger} with the configuration of the llm.properties. The secondary model is configured per
+     * model, e.g. by QWEN3_1_7_B_HEDGE_MODEL=QWEN_TURBO. HEDGE_MAX_RATIO, HEDGE_MIN_SAMPLES and HEDGE_MIN_DELAY_MS
+     * apply to all models.
+     *
+     * @param dispatchers
+     *         Provides the {@link ModelDispatcher} of each model.
+     * @param validator
+     *         Determines whether a response can be handled. Only valid responses win the race.
+     * @return The configured {@link Hedger}.
+     */
+    static Hedger fromProperties(final Function<ModelLiterals, ModelDispatcher> dispatchers,
+                                 final Predicate<String> validator) {
+        Map<ModelLiterals, ModelLiterals> secondaries = new EnumMap<>(ModelLiterals.class);
+        for (ModelLiterals model : ModelLiterals.values()) {
+            String secondary = LLMProperties.get().getProperty(model.name() + "_HEDGE_MODEL");
+            if (secondary == null || secondary.isBlank()) continue;
+            try {
+                secondaries.put(model, ModelLiterals.valueOf(secondary.trim()));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Unknown hedge model {} of model {}", secondary, model);
+            }
+        }
+        return new Hedger(dispatchers, secondaries, LLMProperties.getDouble("HEDGE_MAX_RATIO", 0.05),
+                (int) LLMProperties.getLong("HEDGE_MIN_SAMPLES", 20), LLMProperties.getLong("HEDGE_MIN_DELAY_MS", 1000),
+                validator);
+    }
+
+    /**
+     * Hands the prompt over to the {@link ModelDispatcher} of the model and hedges it with the secondary model, in
+     * case it takes longer than usual. Cancelling the returned future cancels all running prompts.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance to be used.
+     * @param user
+     *         The identification of the user the prompt is executed for.
+     * @param priority
+     *         The {@link Priority} of the prompt.
+     * @param prompt
+     *         The prompt to be executed.
+     * @return A {@link CompletableFuture} completing with the first valid response. In case no prompt gave a valid
+     * response, it completes with the last invalid response or fails with the last failure.
+     */
+    public CompletableFuture<String> submit(final ModelLiterals model, final String user, final Priority priority,
+                                            final String prompt) {
+        Budget budget = budgets.get(model);
+        budget.deposit(maxRatio);
+        CompletableFuture<String> primary = dispatchers.apply(model).submit(user, priority, prompt);
+
+        ModelLiterals secondary = secondaries.get(model);
+        long delay = getDelay(model);
+        if (secondary == null || secondary == model || priority == Priority.BULK || delay < 0) return primary;
+
+        Race race = new Race(budget, primary);
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                .execute(() -> race.hedge(secondary, user, priority, prompt));
+        return race.result;
+    }
+
+    /**
+     * Gives the number of prompts and hedges per model.
+     *
+     * @return A {@link Map} of {@link ModelLiterals} and {@link Statistics}.
+     */
+    public Map<ModelLiterals, Statistics> getStatistics() {
+        Map<ModelLiterals, Statistics> result = new EnumMap<>(ModelLiterals.class);
+        budgets.forEach((model, budget) -> {
+            Statistics statistics = budget.getStatistics();
+            if (statistics.prompts() > 0) result.put(model, statistics);
+        });
+        return result;
+    }
+
+    /**
+     * Gives the time a prompt of the given model runs before it is hedged.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance.
+     * @return The time in milliseconds or <code>-1</code> in case too few latencies are known.
+     */
+    long getDelay(final ModelLiterals model) {
+        LatencyTracker latency = dispatchers.apply(model).getLatency();
+        if (latency.size() < minSamples) return -1;
+        return Math.max(minDelayMillis, latency.percentile(PERCENTILE));
+    }
+
+    /**
+     * The number of prompts and hedges of a model.
+     *
+     * @param prompts
+     *         The number of prompts.
+     * @param hedges
+     *         The number of hedged prompts.
+     * @param hedgeWins
+     *         The number of prompts answered by the secondary model first.
+     * @param budgetExhausted
+     *         The number of prompts which were not hedged, as the budget had been used up.
+     * @param hedgeRatio
+     *         The share of hedged prompts.
+     */
+    public record Statistics(long prompts, long hedges, long hedgeWins, long budgetExhausted, double hedgeRatio) {
+
+    }
+
+    /**
+     * The hedging budget and the statistics of a single model.
+     */
+    private static final class Budget {
+
+        private double tokens;
+        private long prompts;
+        private long hedges;
+        private long hedgeWins;
+        private long budgetExhausted;
+
+        private synchronized void deposit(final double maxRatio) {
+            prompts++;
+            tokens = Math.min(Math.max(1, maxRatio * BURST_PROMPTS), tokens + maxRatio);
+        }
+
+        private synchronized boolean withdraw() {
+            if (tokens < 1) {
+                budgetExhausted++;
+                return false;
+            }
+            tokens--;
+            hedges++;
+            return true;
+        }
+
+        private synchronized void won() {
+            hedgeWins++;
+        }
+
+        private synchronized Statistics getStatistics() {
+            return new Statistics(prompts, hedges, hedgeWins, budgetExhausted,
+                    prompts == 0 ? 0 : (double) hedges / prompts);
+        }
+
+    }
+
+    /**
+     * A prompt racing against its hedge.
+     */
+    private final class Race {
+
+        private final Budget budget;
+        private final CompletableFuture<String> primary;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private CompletableFuture<String> hedge;
+        private int running = 1;
+        private String invalidResponse;
+
+        private Race(final Budget budget, final CompletableFuture<String> primary) {
+            this.budget = budget;
+            this.primary = primary;
+            primary.whenComplete((response, throwable) -> completed(response, throwable, false));
+            result.whenComplete((response, throwable) -> {
+                if (result.isCancelled()) cancelAll();
+            });
+        }
+
+        /**
+         * Sends the prompt to the secondary model, in case it is still running and the budget allows it. Secondary
+         * models with queued prompts are not hedged with, as they would not answer faster. The hedge is admitted at
+         * the secondary model like a transaction and skipped in case the model is working at its limit, the admission
+         * is released once the hedge is finished or cancelled.
+         */
+        private synchronized void hedge(final ModelLiterals secondary, final String user, final Priority priority,
+                                        final String prompt) {
+            if (result.isDone()) return;
+            ModelDispatcher dispatcher = dispatchers.apply(secondary);
+            if (dispatcher.getQueued() > 0 || !dispatcher.acquire()) return;
+            if (!budget.withdraw()) {
+                dispatcher.release();
+                return;
+            }
+
+            LOGGER.debug("Hedging prompt with model {}", secondary);
+            try {
+                hedge = dispatcher.submit(user, priority, prompt);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Hedge with model {} has been rejected", secondary, e);
+                dispatcher.release();
+                return;
+            }
+            running++;
+            hedge.whenComplete((response, throwable) -> {
+                dispatcher.release();
+                completed(response, throwable, true);
+            });
+        }
+
+        /**
+         * Takes the first valid response and cancels the other prompt. An invalid response counts as a loss, so the
+         * race waits for the other prompt. After all prompts lost, the last invalid response is handed out, so that
+         * the caller reports it as usual, or the last failure otherwise.
+         */
+        private synchronized void completed(final String response, final Throwable throwable, final boolean hedged) {
+            if (result.isDone()) return;
+            if (throwable == null && validator.test(response)) {
+                if (hedged) budget.won();
+                cancelAll(); // the loser is cancelled before the result is handed out
+                result.complete(response);
+                return;
+            }
+
+            if (throwable == null) {
+                LOGGER.debug("Invalid response of {} prompt", hedged ? "hedged" : "primary");
+                invalidResponse = response;
+            }
+            if (--running > 0) return;
+            if (invalidResponse != null) result.complete(invalidResponse);
+            else result.completeExceptionally(throwable);
+        }
+
+        private synchronized void cancelAll() {
+            if (!primary.isDone()) primary.cancel(false);
+            if (hedge != null && !hedge.isDone()) hedge.cancel(false);
+        }
+
+    }
+
+}
\ No newline at end of file
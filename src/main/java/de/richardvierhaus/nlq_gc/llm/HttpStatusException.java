@@ -0,0 +1,21 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import java.io.IOException;
+
+/**
+ * Signals that an external service answered a request with an unexpected HTTP status code.
+ */
+public class HttpStatusException extends IOException {
+
+    private final int statusCode;
+
+    public HttpStatusException(final String method, final int statusCode) {
+        super(String.format("HTTP %s failed with code %d", method, statusCode));
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,112 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import java.util.Set;
+
+/**
+ * Reads the text of a streamed LLM response chunk by chunk and detects the moment the JSON object of the response is
+ * closed. Only objects following a ```json code fence or having one of the top-level keys of the expected responses
+ * are taken, so that braces in the chain of thought in front of the response do not end the stream early. Braces
+ * inside of JSON strings are ignored. In case no such object is found, the whole stream has to be read.
+ */
+public class IncrementalJsonReader {
+
+    private static final String FENCE = "```json";
+    private static final Set<String> EXPECTED_KEYS = Set.of("dictionary", "matrix", "keywords", "error");
+
+    private final StringBuilder content = new StringBuilder();
+    private int position = 0;
+    private int start = -1;
+    private int depth = 0;
+    private int keyStart = -1;
+    private String lastString;
+    private boolean inString = false;
+    private boolean escaped = false;
+    private boolean fenced = false;
+    private boolean expected = false;
+    private boolean complete = false;
+
+    /**
+     * Appends the next chunk of the response.
+     *
+     * @param chunk
+     *         The text received since the last call.
+     * @return <code>true</code> in case the JSON object of the response has been closed. Further chunks are ignored.
+     */
+    public boolean feed(final CharSequence chunk) {
+        if (complete) return true;
+        content.append(chunk);
+
+        for (; position < content.length() && !complete; position++) {
+            char c = content.charAt(position);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                    if (depth == 1) lastString = content.substring(keyStart + 1, position);
+                }
+            } else if (isFenceEnd(position)) {
+                // the response starts behind the code fence, even if a brace in front of it has not been closed
+                depth = 0;
+                fenced = true;
+            } else if (depth == 0) {
+                // skip everything in front of a JSON object
+                if (c != '{') continue;
+                start = position;
+                depth = 1;
+                expected = fenced;
+            } else if (c == '"') {
+                inString = true;
+                keyStart = position;
+            } else if (c == ':') {
+                if (depth == 1 && EXPECTED_KEYS.contains(lastString)) expected = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                complete = depth == 0 && expected;
+                lastString = null;
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Determines whether the JSON object of the response has been closed.
+     *
+     * @return <code>true</code> in case the JSON object is complete.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Gives the text of the JSON object in case it is complete. Otherwise, the whole content received so far is given
+     * without Markdown code fences.
+     *
+     * @return The JSON text.
+     */
+    public String getJson() {
+        if (complete) return content.substring(start, position);
+        return content.toString().replace("```json", "").replace("```", "").trim();
+    }
+
+    /**
+     * Determines whether a ```json code fence ends at the given index of the content.
+     *
+     * @param index
+     *         The index of the last character of the fence.
+     * @return <code>true</code> in case the fence ends at the index.
+     */
+    private boolean isFenceEnd(final int index) {
+        int offset = index - FENCE.length() + 1;
+        if (offset < 0) return false;
+        for (int i = 0; i < FENCE.length(); i++) {
+            if (content.charAt(offset + i) != FENCE.charAt(i)) return false;
+        }
+        return true;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,130 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the keywords extracted by the LLMs, so that NLQs with an identical keyword prompt can skip the keyword
+ * extraction. As the keyword prompt contains everything the keywords depend on, it is used as key together with the
+ * model. Hits and misses are counted per {@link PromptKeyword}.
+ */
+public class KeywordCache {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Map<PromptKeyword, AtomicLong[]> statistics = new EnumMap<>(PromptKeyword.class);
+
+    /**
+     * Creates a new {@link KeywordCache}.
+     *
+     * @param maxEntries
+     *         The maximum number of cached keyword lists. <code>0</code> disables the cache.
+     * @param ttlMillis
+     *         The time in milliseconds the keywords are cached.
+     */
+    public KeywordCache(final int maxEntries, final long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, Entry> eldest) {
+                return size() > KeywordCache.this.maxEntries;
+            }
+        };
+        for (PromptKeyword promptKeyword : PromptKeyword.values())
+            statistics.put(promptKeyword, new AtomicLong[]{new AtomicLong(), new AtomicLong()});
+    }
+
+    /**
+     * Gives the cached keywords of the given keyword prompt and counts the lookup as hit or miss.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance to be used.
+     * @param prompt
+     *         The keyword prompt.
+     * @param promptKeyword
+     *         The {@link PromptKeyword} the prompt is built from. <code>null</code> in case it is unknown.
+     * @return The cached keywords or <code>null</code> in case there are none.
+     */
+    public List<String> get(final ModelLiterals model, final String prompt, final PromptKeyword promptKeyword) {
+        List<String> keywords = lookup(new Key(model, prompt));
+        if (promptKeyword != null) statistics.get(promptKeyword)[keywords == null ? 1 : 0].incrementAndGet();
+        return keywords;
+    }
+
+    /**
+     * Caches the keywords extracted for the given keyword prompt.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance used.
+     * @param prompt
+     *         The keyword prompt.
+     * @param keywords
+     *         The extracted keywords.
+     */
+    public synchronized void put(final ModelLiterals model, final String prompt, final List<String> keywords) {
+        if (maxEntries <= 0 || keywords == null) return;
+        entries.put(new Key(model, prompt), new Entry(List.copyOf(keywords), System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * Removes all cached keywords and resets the statistics.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        statistics.values().forEach(counters -> {
+            counters[0].set(0);
+            counters[1].set(0);
+        });
+    }
+
+    /**
+     * Gives the hits and misses of the cache per {@link PromptKeyword}.
+     *
+     * @return A {@link Map} of {@link PromptKeyword} and {@link Statistics}.
+     */
+    public Map<PromptKeyword, Statistics> getStatistics() {
+        Map<PromptKeyword, Statistics> result = new EnumMap<>(PromptKeyword.class);
+        statistics.forEach((promptKeyword, counters) ->
+                result.put(promptKeyword, new Statistics(counters[0].get(), counters[1].get())));
+        return result;
+    }
+
+    private synchronized List<String> lookup(final Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (entry.expires() < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.keywords();
+    }
+
+    /**
+     * The hits and misses of the cache.
+     *
+     * @param hits
+     *         The number of lookups answered by the cache.
+     * @param misses
+     *         The number of lookups requiring a keyword extraction.
+     */
+    public record Statistics(long hits, long misses) {
+
+    }
+
+    private record Key(ModelLiterals model, String prompt) {
+
+    }
+
+    private record Entry(List<String> keywords, long expires) {
+
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/llm")
+public class LLMController {
+
+    static final String SIGNATURE_HEADER = "X-Callback-Signature";
+
+    private final Gson gson;
+
+    public LLMController() {
+        this.gson = new Gson();
+    }
+
+    /**
+     * Receives the response of a finished transaction pushed by an external LLM service and completes the
+     * corresponding transaction immediately. The body has to be signed with the shared secret of the LLM, see
+     * {@link PollingLanguageModel#verifyCallback(String, String)}.
+     *
+     * @param backend
+     *         The key of the LLM as specified in {@link ModelLiterals}.
+     * @param signature
+     *         The HMAC-SHA256 signature of the body.
+     * @param body
+     *         A JSON string containing the fields <code>transaction_id</code> and <code>response</code>.
+     * @throws ResponseStatusException
+     *         with HTTP 401 in case the signature is missing or wrong.
+     */
+    @PostMapping("/callback/{backend}")
+    public void callback(@PathVariable final String backend,
+                         @RequestHeader(value = SIGNATURE_HEADER, required = false) final String signature,
+                         @RequestBody final String body) {
+        LanguageModel llm;
+        try {
+            llm = getLLM(backend);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedOperationException(String.format("The backend %s is not known.", backend));
+        }
+        if (!(llm instanceof PollingLanguageModel pollingLLM))
+            throw new UnsupportedOperationException(String.format("The backend %s does not support callbacks.", backend));
+        if (!pollingLLM.verifyCallback(body, signature))
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "The signature of the callback is not valid.");
+
+        JsonObject callback = gson.fromJson(body, JsonObject.class);
+        if (callback == null || !callback.has("transaction_id") || callback.get("transaction_id").isJsonNull())
+            throw new UnsupportedOperationException("No transaction_id has been provided.");
+        String response = callback.has("response") && !callback.get("response").isJsonNull()
+                ? callback.get("response").getAsString() : null;
+        if (!StringUtils.hasText(response))
+            throw new UnsupportedOperationException("No response has been provided.");
+
+        pollingLLM.complete(callback.get("transaction_id").getAsString(), response);
+    }
+
+    /**
+     * A GET-route which returns the hits and misses of the keyword cache per keyword prompt.
+     *
+     * @return A {@link Map} of {@link PromptKeyword} and {@link KeywordCache.Statistics}.
+     */
+    @GetMapping("/keywordCache")
+    public Map<PromptKeyword, KeywordCache.Statistics> getKeywordCacheStatistics() {
+        return getLLMService().getKeywordCache().getStatistics();
+    }
+
+    /**
+     * A GET-route which returns the number of prompts and hedges per model.
+     *
+     * @return A {@link Map} of {@link ModelLiterals} and {@link Hedger.Statistics}.
+     */
+    @GetMapping("/hedging")
+    public Map<ModelLiterals, Hedger.Statistics> getHedgingStatistics() {
+        return getLLMService().getHedger().getStatistics();
+    }
+
+    /**
+     * A GET-route which returns the state of the circuit breaker per model: <code>CLOSED</code>, <code>OPEN</code> or
+     * <code>HALF_OPEN</code>.
+     *
+     * @return A {@link Map} of {@link ModelLiterals} and the state of their circuit.
+     */
+    @GetMapping("/circuits")
+    public Map<ModelLiterals, String> getCircuitStates() {
+        long now = System.currentTimeMillis();
+        Map<ModelLiterals, String> states = new EnumMap<>(ModelLiterals.class);
+        for (ModelLiterals model : ModelLiterals.values())
+            states.put(model, getLLMService().getDispatcher(model).getCircuitBreaker().getState(now).name());
+        return states;
+    }
+
+    /**
+     * Gives the {@link LanguageModel} behind the given key.
+     *
+     * @param backend
+     *         The key of the LLM as specified in {@link ModelLiterals}.
+     * @return The {@link LanguageModel}.
+     * @throws IllegalArgumentException
+     *         in case the key is not known.
+     */
+    protected LanguageModel getLLM(final String backend) {
+        return ModelLiterals.valueOf(backend).getLLM();
+    }
+
+    protected AsyncLLMService getLLMService() {
+        return AsyncLLMService.getInstance();
+    }
+
+}
\ No newline at end of file
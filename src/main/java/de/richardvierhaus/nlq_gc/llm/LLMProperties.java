@@ -0,0 +1,86 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Provides access to the llm.properties file which stores the parameters of the LLMs and their surrounding
+ * infrastructure.
+ */
+public final class LLMProperties {
+
+    private static volatile Properties properties;
+
+    private LLMProperties() {
+    }
+
+    /**
+     * Provides an {@link Properties} instance of the llm.properties file. The file is only read once.
+     *
+     * @return The {@link Properties}.
+     */
+    public static Properties get() {
+        if (properties == null) {
+            synchronized (LLMProperties.class) {
+                if (properties == null) {
+                    Properties loaded = new Properties();
+                    try (InputStream input = LLMProperties.class.getClassLoader().getResourceAsStream("llm.properties")) {
+                        if (input == null) {
+                            throw new FileNotFoundException("Properties file not found");
+                        }
+                        loaded.load(input);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    properties = loaded;
+                }
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Reads a numeric property.
+     *
+     * @param key
+     *         The properties key.
+     * @param defaultValue
+     *         The value to be used in case the property is not set.
+     * @return The configured value or the default.
+     */
+    public static long getLong(final String key, final long defaultValue) {
+        String value = get().getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    /**
+     * Reads a decimal property.
+     *
+     * @param key
+     *         The properties key.
+     * @param defaultValue
+     *         The value to be used in case the property is not set.
+     * @return The configured value or the default.
+     */
+    public static double getDouble(final String key, final double defaultValue) {
+        String value = get().getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * Reads a boolean property.
+     *
+     * @param key
+     *         The properties key.
+     * @param defaultValue
+     *         The value to be used in case the property is not set.
+     * @return The configured value or the default.
+     */
+    public static boolean getBoolean(final String key, final boolean defaultValue) {
+        String value = get().getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,214 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP transport shared by all {@link LanguageModel}s. It wraps a single {@link HttpClient}, which keeps connections
+ * alive and pools them per host, and uses HTTP/2 multiplexing where the server supports it. Requests carry explicit
+ * timeouts, responses may be gzip compressed and large request bodies can optionally be compressed as well.
+ */
+public class LLMTransport {
+
+    private static volatile LLMTransport INSTANCE;
+    private static final Logger LOGGER = LoggerFactory.getLogger(LLMTransport.class);
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final boolean gzipRequests;
+    private final long gzipMinBytes;
+
+    protected LLMTransport(final Duration connectTimeout, final Duration requestTimeout,
+                           final HttpClient.Version version, final boolean gzipRequests, final long gzipMinBytes) {
+        this.requestTimeout = requestTimeout;
+        this.gzipRequests = gzipRequests;
+        this.gzipMinBytes = gzipMinBytes;
+        this.client = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    public static LLMTransport getInstance() {
+        if (INSTANCE == null) {
+            synchronized (LLMTransport.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new LLMTransport(
+                            Duration.ofMillis(LLMProperties.getLong("TRANSPORT_CONNECT_TIMEOUT_MS", 5000)),
+                            Duration.ofMillis(LLMProperties.getLong("TRANSPORT_REQUEST_TIMEOUT_MS", 30000)),
+                            HttpClient.Version.valueOf(LLMProperties.get().getProperty("TRANSPORT_HTTP_VERSION", "HTTP_2")),
+                            LLMProperties.getBoolean("TRANSPORT_GZIP_REQUESTS", false),
+                            LLMProperties.getLong("TRANSPORT_GZIP_MIN_BYTES", 2048));
+                    LOGGER.info("Created LLMTransport instance");
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Prepares a GET request for the given url.
+     *
+     * @param url
+     *         The requested url route.
+     * @return A {@link HttpRequest.Builder} which can be extended by additional headers.
+     */
+    public HttpRequest.Builder get(final String url) {
+        return newRequest(url).GET();
+    }
+
+    /**
+     * Prepares a POST request with the given JSON body. In case request compression is enabled and the body exceeds the
+     * configured size, it is sent gzip compressed.
+     *
+     * @param url
+     *         The requested url route.
+     * @param jsonBody
+     *         The JSON body to be sent.
+     * @return A {@link HttpRequest.Builder} which can be extended by additional headers.
+     */
+    public HttpRequest.Builder post(final String url, final String jsonBody) {
+        HttpRequest.Builder builder = newRequest(url).header("Content-Type", "application/json");
+        byte[] body = jsonBody.getBytes(StandardCharsets.UTF_8);
+        if (gzipRequests && body.length >= gzipMinBytes) {
+            builder.header("Content-Encoding", "gzip");
+            body = gzip(body);
+        }
+        return builder.POST(HttpRequest.BodyPublishers.ofByteArray(body));
+    }
+
+    /**
+     * Sends the given request and blocks until the response is available.
+     *
+     * @param request
+     *         The {@link HttpRequest} to be sent.
+     * @return The decoded response body.
+     * @throws IOException
+     *         in case the request failed. A {@link HttpStatusException} is thrown if the response code is not 200.
+     * @throws InterruptedException
+     *         in case the calling thread was interrupted while waiting.
+     */
+    public String send(final HttpRequest request) throws IOException, InterruptedException {
+        return readBody(request, client.send(request, HttpResponse.BodyHandlers.ofByteArray()));
+    }
+
+    /**
+     * Sends the given request without blocking the calling thread.
+     *
+     * @param request
+     *         The {@link HttpRequest} to be sent.
+     * @return A {@link CompletableFuture} completing with the decoded response body. It completes exceptionally in
+     * case the request failed or the response code is not 200.
+     */
+    public CompletableFuture<String> sendAsync(final HttpRequest request) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            try {
+                return readBody(request, response);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Sends the given request and hands the lines of the response body over to the given subscriber while they are
+     * received. The response is requested uncompressed, so that every line can be handled as soon as it arrives.
+     *
+     * @param request
+     *         The {@link HttpRequest} to be sent.
+     * @param lineSubscriber
+     *         The {@link Flow.Subscriber} consuming the lines. It is informed about errors by
+     *         {@link Flow.Subscriber#onError(Throwable)}.
+     */
+    public void stream(final HttpRequest request, final Flow.Subscriber<String> lineSubscriber) {
+        HttpRequest streamingRequest = HttpRequest.newBuilder(request, (name, value) -> !name.equalsIgnoreCase("Accept-Encoding"))
+                .header("Accept-Encoding", "identity")
+                .build();
+        client.sendAsync(streamingRequest, responseInfo -> {
+            if (responseInfo.statusCode() == 200)
+                return HttpResponse.BodySubscribers.fromLineSubscriber(lineSubscriber);
+            lineSubscriber.onError(new HttpStatusException(request.method(), responseInfo.statusCode()));
+            return HttpResponse.BodySubscribers.discarding();
+        }).exceptionally(throwable -> {
+            lineSubscriber.onError(throwable instanceof CompletionException && throwable.getCause() != null
+                    ? throwable.getCause() : throwable);
+            return null;
+        });
+    }
+
+    /**
+     * Creates a request builder with the common headers and the configured timeout.
+     *
+     * @param url
+     *         The requested url route.
+     * @return A {@link HttpRequest.Builder}.
+     */
+    private HttpRequest.Builder newRequest(final String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(requestTimeout)
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip");
+    }
+
+    /**
+     * Checks the response code and decodes the body of the response.
+     *
+     * @param request
+     *         The {@link HttpRequest} which has been sent.
+     * @param response
+     *         The {@link HttpResponse} received.
+     * @return The decoded response body.
+     * @throws IOException
+     *         in case the response code is not 200 or the body cannot be decoded.
+     */
+    private String readBody(final HttpRequest request, final HttpResponse<byte[]> response) throws IOException {
+        if (response.statusCode() != 200)
+            throw new HttpStatusException(request.method(), response.statusCode());
+
+        byte[] body = response.body();
+        if (response.headers().firstValue("Content-Encoding").filter("gzip"::equalsIgnoreCase).isPresent()) {
+            try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                body = input.readAllBytes();
+            }
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compresses the given bytes using gzip.
+     *
+     * @param bytes
+     *         The bytes to be compressed.
+     * @return The compressed bytes.
+     */
+    private static byte[] gzip(final byte[] bytes) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+}
\ No newline at end of file
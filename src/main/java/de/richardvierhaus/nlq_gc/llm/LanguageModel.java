@@ -1,31 +1,25 @@
 package de.richardvierhaus.nlq_gc.llm;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 public abstract class LanguageModel {
 
-    private Properties llmProperties;
-
     /**
-     * Takes a given prompt, hands it over to the LLM and returns a transactionId.
+     * Takes a given prompt and hands it over to the LLM without waiting for its execution.
      *
      * @param prompt
      *         The prompt to be executed.
-     * @return A transactionId.
+     * @return A {@link CompletableFuture} which completes with the LLMs response as soon as it is available. Cancelling
+     * the future signals that the response is not required anymore.
      */
-    abstract String handlePrompt(final String prompt);
+    public abstract CompletableFuture<String> submit(final String prompt);
 
     /**
-     * Checks whether the execution of the prompt with the given transactionId is finished and gives the LLMs response.
-     *
-     * @param transactionId
-     *         The transactions' id.
-     * @return The LLMs response in case it is available. Otherwise <code>null</code>.
+     * Stops the threads of the LLM on shutdown of the application. By default, an LLM has no threads of its own.
      */
-    abstract String getResponse(final String transactionId);
+    public void shutdown() {
+    }
 
     /**
      * Provides an {@link Properties} instance of the llm.properties file. Can be used to store models parameters like
@@ -34,18 +28,16 @@ public abstract class LanguageModel {
      * @return The {@link Properties}.
      */
     protected Properties getLLMProperties() {
-        if (llmProperties == null) {
-            llmProperties = new Properties();
-            try (InputStream input = getClass().getClassLoader().getResourceAsStream("llm.properties")) {
-                if (input == null) {
-                    throw new FileNotFoundException("Properties file not found");
-                }
-                llmProperties.load(input);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
-        return llmProperties;
+        return LLMProperties.get();
+    }
+
+    /**
+     * Provides the {@link LLMTransport} shared by all LLMs to communicate with external services.
+     *
+     * @return The {@link LLMTransport}.
+     */
+    protected LLMTransport getTransport() {
+        return LLMTransport.getInstance();
     }
 
 }
\ No newline at end of file
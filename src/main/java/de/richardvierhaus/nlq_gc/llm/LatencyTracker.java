@@ -0,0 +1,63 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples of an LLM in a ring buffer and derives percentiles from them.
+ */
+public class LatencyTracker {
+
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    /**
+     * Creates a new {@link LatencyTracker}.
+     *
+     * @param capacity
+     *         The number of recent samples to be kept.
+     */
+    public LatencyTracker(final int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    /**
+     * Records an observed latency.
+     *
+     * @param latencyMillis
+     *         The latency in milliseconds.
+     */
+    public synchronized void record(final long latencyMillis) {
+        samples[next] = latencyMillis;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * Gives the percentile of the recorded latencies.
+     *
+     * @param percentile
+     *         The percentile between 0 and 1, e.g. 0.95.
+     * @return The latency in milliseconds or <code>-1</code> in case no latency has been recorded yet.
+     */
+    public long percentile(final double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count == 0) return -1;
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Gives the number of samples the percentiles are based on.
+     *
+     * @return The number of samples.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.GraphCode;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link ResultStore} keeping the results on the heap. The results are lost on restart. The expirations are ordered
+ * by their deadline, so that compacting only touches the expired results. The number of results is bounded: beyond it
+ * the results expiring first are dropped.
+ */
+public class MemoryResultStore implements ResultStore {
+
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final long retentionMillis;
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final PriorityQueue<Expiration> expirations =
+            new PriorityQueue<>(Comparator.comparingLong(expiration -> expiration.entry().expires()));
+
+    /**
+     * Creates a new {@link MemoryResultStore}.
+     *
+     * @param retentionMillis
+     *         The time in milliseconds a result is kept after it has been stored.
+     */
+    public MemoryResultStore(final long retentionMillis) {
+        this(retentionMillis, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a new {@link MemoryResultStore}.
+     *
+     * @param retentionMillis
+     *         The time in milliseconds a result is kept after it has been stored.
+     * @param maxEntries
+     *         The maximum number of results kept.
+     */
+    public MemoryResultStore(final long retentionMillis, final int maxEntries) {
+        this.retentionMillis = retentionMillis;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    @Override
+    public void put(final String transactionId, final GraphCode graphCode) {
+        Entry entry = new Entry(graphCode, System.currentTimeMillis() + retentionMillis);
+        entries.put(transactionId, entry);
+        synchronized (expirations) {
+            expirations.add(new Expiration(transactionId, entry));
+            while (entries.size() > maxEntries && !expirations.isEmpty()) {
+                Expiration dropped = expirations.poll();
+                entries.remove(dropped.transactionId(), dropped.entry());
+            }
+        }
+    }
+
+    @Override
+    public GraphCode get(final String transactionId) {
+        Entry entry = entries.get(transactionId);
+        return entry == null || entry.expires() < System.currentTimeMillis() ? null : entry.graphCode();
+    }
+
+    @Override
+    public void compact(final long currentTime) {
+        while (true) {
+            Expiration expiration;
+            synchronized (expirations) {
+                if (expirations.isEmpty() || expirations.peek().entry().expires() >= currentTime) return;
+                expiration = expirations.poll();
+            }
+            // the result might have been replaced by one expiring later
+            entries.remove(expiration.transactionId(), expiration.entry());
+        }
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() {
+        entries.clear();
+        synchronized (expirations) {
+            expirations.clear();
+        }
+    }
+
+    private record Entry(GraphCode graphCode, long expires) {
+
+    }
+
+    private record Expiration(String transactionId, Entry entry) {
+
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,529 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Sits in front of a single LLM and limits the work handed over to it. Transactions have to be admitted before they
+ * start and are rejected as soon as the model holds as many transactions as it may run and queue. The prompts of
+ * admitted transactions are handed over to the LLM as long as fewer than the in-flight limit are running. Further
+ * prompts wait in a {@link FairQueue} per {@link Priority}, which are bounded by the admission limit, as each
+ * transaction runs one prompt at a time. The queues are served strictly by priority and share the capacity between
+ * the users, so that a single heavy user cannot starve the others. Bulk prompts only use spare capacity and leave a
+ * reserve of slots free for the others. Prompts also wait as long as the {@link RateLimiter} of the model has no
+ * capacity left.
+ * <p>
+ * Prompts failing transiently are retried after a jittered backoff, keeping their slot. The {@link CircuitBreaker} of
+ * the model rejects prompts right away as long as the model keeps failing.
+ */
+class ModelDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelDispatcher.class);
+    private static final int DRAIN_SAMPLES = 64;
+    private static final long DRAIN_WINDOW_MILLIS = 60000;
+    private static final long MIN_RETRY_AFTER_SECONDS = 1;
+    private static final long MAX_RETRY_AFTER_SECONDS = 300;
+    private static final int LATENCY_SAMPLES = 256;
+    private static final double RETRY_JITTER = 0.5; // +/- 50% of the backoff
+
+    private final ModelLiterals model;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final int maxBulkInFlight;
+    private final RateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final int maxRetries;
+    private final long retryBaseMillis;
+    private final LatencyTracker latency = new LatencyTracker(LATENCY_SAMPLES);
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final Map<Priority, FairQueue<Pending>> queues = new EnumMap<>(Priority.class);
+    private final long[] releases = new long[DRAIN_SAMPLES];
+    private int releaseCount;
+    private int nextRelease;
+    private int inFlight;
+    private boolean drainScheduled;
+
+    /**
+     * Creates a new {@link ModelDispatcher}.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance the prompts are handed over to.
+     * @param maxInFlight
+     *         The maximum number of prompts running at the LLM at the same time.
+     * @param maxQueued
+     *         The maximum number of admitted transactions exceeding the in-flight limit.
+     */
+    ModelDispatcher(final ModelLiterals model, final int maxInFlight, final int maxQueued) {
+        this(model, maxInFlight, maxQueued, 0, new RateLimiter(0, 0), () -> new FairQueue<>(1, 0));
+    }
+
+    /**
+     * Creates a new {@link ModelDispatcher}.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance the prompts are handed over to.
+     * @param maxInFlight
+     *         The maximum number of prompts running at the LLM at the same time.
+     * @param maxQueued
+     *         The maximum number of admitted transactions exceeding the in-flight limit.
+     * @param bulkReserved
+     *         The number of in-flight slots bulk prompts leave free for interactive and normal prompts. At least one
+     *         bulk prompt may run in any case.
+     * @param rateLimiter
+     *         The {@link RateLimiter} of the model.
+     * @param queueFactory
+     *         Creates the {@link FairQueue}s holding the prompts exceeding the in-flight limit.
+     */
+    ModelDispatcher(final ModelLiterals model, final int maxInFlight, final int maxQueued, final int bulkReserved,
+                    final RateLimiter rateLimiter, final Supplier<FairQueue<Pending>> queueFactory) {
+        this(model, maxInFlight, maxQueued, bulkReserved, rateLimiter, queueFactory, new CircuitBreaker(0, 0), 0, 0);
+    }
+
+    /**
+     * Creates a new {@link ModelDispatcher}.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance the prompts are handed over to.
+     * @param maxInFlight
+     *         The maximum number of prompts running at the LLM at the same time.
+     * @param maxQueued
+     *         The maximum number of admitted transactions exceeding the in-flight limit.
+     * @param bulkReserved
+     *         The number of in-flight slots bulk prompts leave free for interactive and normal prompts. At least one
+     *         bulk prompt may run in any case.
+     * @param rateLimiter
+     *         The {@link RateLimiter} of the model.
+     * @param queueFactory
+     *         Creates the {@link FairQueue}s holding the prompts exceeding the in-flight limit.
+     * @param circuitBreaker
+     *         The {@link CircuitBreaker} of the model.
+     * @param maxRetries
+     *         The maximum number of retries of a prompt failing transiently.
+     * @param retryBaseMillis
+     *         The backoff before the first retry in milliseconds. It doubles with every further retry.
+     */
+    ModelDispatcher(final ModelLiterals model, final int maxInFlight, final int maxQueued, final int bulkReserved,
+                    final RateLimiter rateLimiter, final Supplier<FairQueue<Pending>> queueFactory,
+                    final CircuitBreaker circuitBreaker, final int maxRetries, final long retryBaseMillis) {
+        this.model = model;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxBulkInFlight = Math.max(1, this.maxInFlight - Math.max(0, bulkReserved));
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryBaseMillis = Math.max(0, retryBaseMillis);
+        for (Priority priority : Priority.values()) queues.put(priority, queueFactory.get());
+    }
+
+    /**
+     * Creates a {@link ModelDispatcher} with the limits configured in the llm.properties. The defaults
+     * ADMISSION_MAX_IN_FLIGHT and ADMISSION_MAX_QUEUED can be overridden per model, e.g. by QWEN3_1_7_B_MAX_IN_FLIGHT.
+     * BULK_RESERVED_IN_FLIGHT slots are kept free of bulk prompts and transient failures are retried up to
+     * RETRY_MAX_ATTEMPTS times, starting with a backoff of RETRY_BASE_DELAY_MS. The rate limits are read by
+     * {@link RateLimiter#fromProperties(ModelLiterals)}, the weights of the users by
+     * {@link FairQueue#fromProperties(UserCaps)}, their caps by {@link UserCaps#fromProperties()} and the circuit
+     * breaker by {@link CircuitBreaker#fromProperties(ModelLiterals)}. The queues of all priorities share the caps.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance the prompts are handed over to.
+     * @return The configured {@link ModelDispatcher}.
+     */
+    static ModelDispatcher fromProperties(final ModelLiterals model) {
+        long maxInFlight = LLMProperties.getLong("ADMISSION_MAX_IN_FLIGHT", 8);
+        long maxQueued = LLMProperties.getLong("ADMISSION_MAX_QUEUED", 64);
+        UserCaps caps = UserCaps.fromProperties();
+        return new ModelDispatcher(model, (int) LLMProperties.getLong(model.name() + "_MAX_IN_FLIGHT", maxInFlight),
+                (int) LLMProperties.getLong(model.name() + "_MAX_QUEUED", maxQueued),
+                (int) LLMProperties.getLong("BULK_RESERVED_IN_FLIGHT", 1), RateLimiter.fromProperties(model),
+                () -> FairQueue.fromProperties(caps), CircuitBreaker.fromProperties(model),
+                (int) LLMProperties.getLong("RETRY_MAX_ATTEMPTS", 2), LLMProperties.getLong("RETRY_BASE_DELAY_MS", 250));
+    }
+
+    /**
+     * Admits a new transaction, in case the limits of the model allow it. Each admitted transaction has to be
+     * released exactly once.
+     *
+     * @return <code>true</code> in case the transaction has been admitted.
+     */
+    boolean acquire() {
+        int current;
+        do {
+            current = admitted.get();
+            if (current >= maxInFlight + maxQueued) return false;
+        } while (!admitted.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Releases an admitted transaction after it has been finished or removed.
+     */
+    void release() {
+        admitted.decrementAndGet();
+        synchronized (releases) {
+            releases[nextRelease] = System.currentTimeMillis();
+            nextRelease = (nextRelease + 1) % DRAIN_SAMPLES;
+            releaseCount = Math.min(releaseCount + 1, DRAIN_SAMPLES);
+        }
+    }
+
+    /**
+     * Estimates the time until a rejected transaction would be admitted, based on the number of queued prompts and the
+     * rate transactions have been released at recently.
+     *
+     * @return The estimated time in seconds.
+     */
+    long estimateRetryAfter() {
+        long now = System.currentTimeMillis();
+        int samples = 0;
+        long oldest = now;
+        synchronized (releases) {
+            for (int i = 0; i < releaseCount; i++) {
+                long release = releases[i];
+                if (now - release > DRAIN_WINDOW_MILLIS) continue;
+                samples++;
+                oldest = Math.min(oldest, release);
+            }
+        }
+        if (samples == 0) return MAX_RETRY_AFTER_SECONDS;
+
+        double perSecond = samples * 1000.0 / Math.max(1000, now - oldest);
+        long seconds = (long) Math.ceil((getQueued() + 1) / perSecond);
+        return Math.max(MIN_RETRY_AFTER_SECONDS, Math.min(MAX_RETRY_AFTER_SECONDS, seconds));
+    }
+
+    /**
+     * Hands the prompt over to the LLM or queues it until a running prompt has finished and the rate limit allows it.
+     * Cancelling the returned future removes a queued prompt or cancels the running one. As long as the circuit of
+     * the model is open, the returned future fails right away with a {@link CircuitOpenException}.
+     *
+     * @param user
+     *         The identification of the user the prompt is executed for.
+     * @param priority
+     *         The {@link Priority} of the prompt.
+     * @param prompt
+     *         The prompt to be executed.
+     * @return A {@link CompletableFuture} completing with the LLMs response.
+     */
+    CompletableFuture<String> submit(final String user, final Priority priority, final String prompt) {
+        if (circuitBreaker.isOpen(System.currentTimeMillis()))
+            return CompletableFuture.failedFuture(new CircuitOpenException(model));
+
+        Pending pending = new Pending(user, priority, prompt);
+        FairQueue<Pending> queue = queues.get(pending.priority);
+        boolean queued;
+        synchronized (this) {
+            queued = inFlight >= getMaxInFlight(pending.priority) || isQueuedUpTo(pending.priority)
+                    || !queue.mayStart(user) || !reserve(pending);
+            if (queued) {
+                queue.add(user, pending);
+                pending.future.whenComplete((response, throwable) -> {
+                    if (pending.future.isCancelled()) dequeue(pending);
+                });
+                LOGGER.debug("Queued {} prompt of model {} behind {} others", pending.priority, model,
+                        queue.size() - 1);
+            } else {
+                inFlight++;
+                queue.start(user);
+            }
+        }
+        if (queued) {
+            // slots may be free while the queued prompts wait for the cap of their users
+            drain();
+            return pending.future;
+        }
+
+        try {
+            start(pending);
+        } catch (RuntimeException e) {
+            finished(pending);
+            throw e;
+        }
+        return pending.future;
+    }
+
+    /**
+     * Gives the number of admitted transactions.
+     *
+     * @return The number of transactions.
+     */
+    int getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * Gives the number of prompts running at the LLM.
+     *
+     * @return The number of prompts.
+     */
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Gives the number of prompts waiting for a running one to finish.
+     *
+     * @return The number of prompts.
+     */
+    synchronized int getQueued() {
+        return queues.values().stream().mapToInt(FairQueue::size).sum();
+    }
+
+    /**
+     * Gives the latencies of the prompts which have been answered by the LLM, measured from their start at the LLM.
+     *
+     * @return The {@link LatencyTracker} of the model.
+     */
+    LatencyTracker getLatency() {
+        return latency;
+    }
+
+    /**
+     * Gives the circuit breaker guarding the LLM.
+     *
+     * @return The {@link CircuitBreaker} of the model.
+     */
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Gives the backoff before a retry, which doubles with every retry and is randomized by {@value #RETRY_JITTER},
+     * so that prompts failing together do not hit the LLM together again.
+     *
+     * @param retry
+     *         The number of the retry, starting at 1.
+     * @param baseMillis
+     *         The backoff before the first retry in milliseconds.
+     * @return The backoff in milliseconds.
+     */
+    static long getRetryBackoff(final int retry, final long baseMillis) {
+        double backoff = baseMillis * Math.pow(2, Math.max(0, Math.min(16, retry - 1)));
+        return (long) (backoff * ThreadLocalRandom.current().nextDouble(1 - RETRY_JITTER, 1 + RETRY_JITTER));
+    }
+
+    /**
+     * Hands a prompt over to the LLM for the first time.
+     *
+     * @param pending
+     *         The {@link Pending} prompt, already counted as in-flight.
+     * @throws RuntimeException
+     *         in case the LLM rejected the prompt directly.
+     */
+    private void start(final Pending pending) {
+        attempt(pending, 0);
+    }
+
+    /**
+     * Hands a prompt over to the LLM, in case the {@link CircuitBreaker} lets it through, and links the futures. The
+     * latency of successful prompts is recorded. Transient failures are retried after a backoff as long as retries
+     * are left. The slot of the prompt is only freed once it is finished for good.
+     *
+     * @param pending
+     *         The {@link Pending} prompt, already counted as in-flight.
+     * @param retries
+     *         The number of retries so far.
+     * @throws RuntimeException
+     *         in case the LLM rejected the prompt directly.
+     */
+    private void attempt(final Pending pending, final int retries) {
+        if (!circuitBreaker.tryAcquire(System.currentTimeMillis())) {
+            pending.future.completeExceptionally(new CircuitOpenException(model));
+            finished(pending);
+            return;
+        }
+
+        final long started = System.currentTimeMillis();
+        CompletableFuture<String> upstream;
+        try {
+            upstream = model.getLLM().submit(pending.prompt);
+        } catch (RuntimeException e) {
+            circuitBreaker.failure(e, System.currentTimeMillis());
+            throw e;
+        }
+        pending.future.whenComplete((response, throwable) -> {
+            if (pending.future.isCancelled()) upstream.cancel(false);
+        });
+        upstream.whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                circuitBreaker.success();
+                latency.record(System.currentTimeMillis() - started);
+                pending.future.complete(response);
+            } else if (upstream.isCancelled() || pending.future.isDone()) {
+                circuitBreaker.cancelled();
+                pending.future.completeExceptionally(throwable);
+            } else {
+                circuitBreaker.failure(throwable, System.currentTimeMillis());
+                if (retries < maxRetries && CircuitBreaker.isTransient(throwable)) {
+                    long backoff = getRetryBackoff(retries + 1, retryBaseMillis);
+                    LOGGER.info("Prompt of model {} failed transiently, retrying in {} ms", model, backoff);
+                    CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS)
+                            .execute(() -> retry(pending, retries + 1));
+                    return;
+                }
+                pending.future.completeExceptionally(throwable);
+            }
+            finished(pending);
+        });
+    }
+
+    /**
+     * Hands a prompt over to the LLM once more, unless it has been cancelled during the backoff.
+     *
+     * @param pending
+     *         The {@link Pending} prompt, still counted as in-flight.
+     * @param retries
+     *         The number of retries including this one.
+     */
+    private void retry(final Pending pending, final int retries) {
+        if (pending.future.isDone()) {
+            finished(pending);
+            return;
+        }
+        try {
+            attempt(pending, retries);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Retry of prompt of model {} has been rejected", model, e);
+            pending.future.completeExceptionally(e);
+            finished(pending);
+        }
+    }
+
+    /**
+     * Frees the slot of a finished prompt and hands it over to the next queued one.
+     *
+     * @param pending
+     *         The finished {@link Pending} prompt.
+     */
+    private void finished(final Pending pending) {
+        synchronized (this) {
+            inFlight--;
+            queues.get(pending.priority).finished(pending.user);
+        }
+        drain();
+    }
+
+    /**
+     * Starts queued prompts by priority and in the order of their {@link FairQueue} as long as slots are free and the
+     * rate limit allows it. In case the rate limit is exhausted, another attempt is scheduled for the time the
+     * {@link RateLimiter} has refilled.
+     */
+    private void drain() {
+        while (true) {
+            Pending next;
+            synchronized (this) {
+                next = peek();
+                if (next == null || inFlight >= getMaxInFlight(next.priority) || !reserve(next)) return;
+                queues.get(next.priority).poll();
+                inFlight++;
+            }
+
+            try {
+                start(next);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Queued prompt of model {} has been rejected", model, e);
+                next.future.completeExceptionally(e);
+                synchronized (this) {
+                    inFlight--;
+                    queues.get(next.priority).finished(next.user);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the prompt from the {@link RateLimiter}. In case its capacity is exhausted, a drain is scheduled for the
+     * time it has refilled.
+     *
+     * @param pending
+     *         The {@link Pending} prompt.
+     * @return <code>true</code> in case the prompt may be started.
+     */
+    private synchronized boolean reserve(final Pending pending) {
+        long wait = rateLimiter.tryAcquire(pending.tokens, System.currentTimeMillis());
+        if (wait == 0) return true;
+        if (!drainScheduled) {
+            drainScheduled = true;
+            LOGGER.debug("Rate limit of model {} reached, next prompt starts in {} ms", model, wait);
+            CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS).execute(() -> {
+                synchronized (this) {
+                    drainScheduled = false;
+                }
+                drain();
+            });
+        }
+        return false;
+    }
+
+    /**
+     * Gives the prompt to be started next. Cancelled prompts are dropped on the way.
+     *
+     * @return The queued {@link Pending} prompt of the highest priority whose user is below its cap or
+     * <code>null</code> in case there is none.
+     */
+    private synchronized Pending peek() {
+        for (FairQueue<Pending> queue : queues.values()) {
+            Pending next = queue.peek();
+            while (next != null && next.future.isDone()) { // cancelled while queued
+                queue.remove(next.user, next);
+                next = queue.peek();
+            }
+            if (next != null) return next;
+        }
+        return null;
+    }
+
+    /**
+     * Determines whether prompts of the given or a higher priority are waiting.
+     *
+     * @param priority
+     *         The {@link Priority} of a new prompt.
+     * @return <code>true</code> in case a new prompt has to queue up behind others.
+     */
+    private boolean isQueuedUpTo(final Priority priority) {
+        for (Priority queued : Priority.values()) {
+            if (!queues.get(queued).isEmpty()) return true;
+            if (queued == priority) return false;
+        }
+        return false;
+    }
+
+    private int getMaxInFlight(final Priority priority) {
+        return priority == Priority.BULK ? maxBulkInFlight : maxInFlight;
+    }
+
+    private synchronized void dequeue(final Pending pending) {
+        queues.get(pending.priority).remove(pending.user, pending);
+    }
+
+    /**
+     * A prompt together with the future handed out to the caller.
+     */
+    static final class Pending {
+
+        private final String user;
+        private final Priority priority;
+        private final String prompt;
+        private final long tokens;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private Pending(final String user, final Priority priority, final String prompt) {
+            this.user = user;
+            this.priority = priority == null ? Priority.getDefault() : priority;
+            this.prompt = prompt;
+            this.tokens = RateLimiter.estimateTokens(prompt);
+        }
+
+    }
+
+}
\ No newline at end of file
@@ -5,44 +5,37 @@ import com.google.gson.JsonParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class OpenRouterLLM extends LanguageModel {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OpenRouterLLM.class);
     private static final String API_KEY = System.getenv("OPENROUTER_API_KEY");
+    private static final String URL = "https://openrouter.ai/api/v1/chat/completions";
 
-    private static final Map<String, OpenRouterLLM> INSTANCES = new HashMap<>();
+    private static final Map<String, OpenRouterLLM> INSTANCES = new ConcurrentHashMap<>();
 
     private final String model;
 
-    private final Map<String, String> transactions = new HashMap<>();
-
     private OpenRouterLLM(final String model) {
         this.model = model;
     }
 
     public static OpenRouterLLM getInstance(final String model) {
-        if (!INSTANCES.containsKey(model)) {
-            INSTANCES.put(model, new OpenRouterLLM(model));
-        }
-        return INSTANCES.get(model);
+        return INSTANCES.computeIfAbsent(model, OpenRouterLLM::new);
     }
 
     @Override
-    public String handlePrompt(final String prompt) {
+    public CompletableFuture<String> submit(final String prompt) {
         String jsonBody = String.format("""
                 {
                   "model": "%s",
+                  "stream": %b,
                   "messages": [
                     {
                       "role": "user",
@@ -50,40 +43,66 @@ public class OpenRouterLLM extends LanguageModel {
                     }
                   ]
                 }
-                """, model, URLEncoder.encode(prompt, StandardCharsets.UTF_8));
-
-        try (HttpClient client = HttpClient.newHttpClient()) {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create("https://openrouter.ai/api/v1/chat/completions"))
-                    .timeout(Duration.ofSeconds(30))
-                    .header("Authorization", "Bearer " + API_KEY)
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                    .build();
-
-            // run http request
-            long start = System.currentTimeMillis();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            LOGGER.debug("Handling prompt took {} ms", System.currentTimeMillis() - start);
-
-            // collect response content
-            JsonElement responseJSON = JsonParser.parseString(response.body());
-            String responseParsed = responseJSON.getAsJsonObject().getAsJsonArray("choices").get(0).getAsJsonObject()
-                    .getAsJsonObject("message").get("content").getAsString();
-            responseParsed = responseParsed.replace("```json", "").replace("```", "").trim();
-            LOGGER.debug(responseParsed);
-
-            String transactionID = UUID.randomUUID().toString();
-            transactions.put(transactionID, responseParsed);
-            return transactionID;
-        } catch (Exception e) {
-            throw new RuntimeException("Error in handlePrompt: " + e.getMessage(), e);
-        }
+                """, model, isStreaming(), URLEncoder.encode(prompt, StandardCharsets.UTF_8));
+
+        HttpRequest.Builder request = getTransport().post(URL, jsonBody)
+                .header("Authorization", "Bearer " + API_KEY);
+
+        return isStreaming() ? submitStreaming(request) : submitBlocking(request);
     }
 
-    @Override
-    public String getResponse(final String transactionId) {
-        return transactions.remove(transactionId);
+    /**
+     * Waits for the whole chat completion and extracts the JSON response of it.
+     *
+     * @param request
+     *         The prepared {@link HttpRequest.Builder}.
+     * @return A {@link CompletableFuture} completing with the LLMs response.
+     */
+    private CompletableFuture<String> submitBlocking(final HttpRequest.Builder request) {
+        // run http request without blocking the calling thread
+        long start = System.currentTimeMillis();
+        return getTransport().sendAsync(request.build())
+                .thenApply(response -> {
+                    LOGGER.debug("Handling prompt took {} ms", System.currentTimeMillis() - start);
+
+                    // collect response content
+                    JsonElement responseJSON = JsonParser.parseString(response);
+                    String responseParsed = responseJSON.getAsJsonObject().getAsJsonArray("choices").get(0).getAsJsonObject()
+                            .getAsJsonObject("message").get("content").getAsString();
+                    responseParsed = responseParsed.replace("```json", "").replace("```", "").trim();
+                    LOGGER.debug(responseParsed);
+                    return responseParsed;
+                });
+    }
+
+    /**
+     * Consumes the chat completion as event stream and completes as soon as the JSON response is closed. The rest of
+     * the stream is cancelled.
+     *
+     * @param request
+     *         The prepared {@link HttpRequest.Builder}.
+     * @return A {@link CompletableFuture} completing with the LLMs response.
+     */
+    private CompletableFuture<String> submitStreaming(final HttpRequest.Builder request) {
+        ChatCompletionStreamSubscriber subscriber = new ChatCompletionStreamSubscriber();
+        long start = System.currentTimeMillis();
+        getTransport().stream(request.setHeader("Accept", "text/event-stream").build(), subscriber);
+        // the result itself is handed out, so that cancelling it also cancels the stream
+        CompletableFuture<String> result = subscriber.getResult();
+        result.whenComplete((response, throwable) -> {
+            LOGGER.debug("Handling streamed prompt took {} ms", System.currentTimeMillis() - start);
+            LOGGER.debug(response);
+        });
+        return result;
+    }
+
+    /**
+     * Determines whether chat completions are consumed as event stream.
+     *
+     * @return <code>true</code> in case streaming is enabled.
+     */
+    protected boolean isStreaming() {
+        return LLMProperties.getBoolean("OPENROUTER_STREAM", true);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,478 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base class for LLMs which do not answer a prompt directly but hand out a transactionId which has to be polled until
+ * the response is available. The polling is handled internally, so that callers only deal with the
+ * {@link CompletableFuture} given by {@link #submit(String)}.
+ * <p>
+ * Every transaction is polled on its own schedule. The first poll is placed at the typical latency observed for
+ * prompts of similar length, afterwards the delay grows exponentially with some jitter. Due transactions are collected
+ * by a {@link TimingWheel} and checked together.
+ */
+public abstract class PollingLanguageModel extends LanguageModel {
+
+    private static final int TICK_MILLIS = 100; // resolution of the poll scheduling
+    private static final int WHEEL_SIZE = 512; // slots of the timing wheel, one round takes about 51 seconds
+    private static final long DEFAULT_FIRST_POLL = 1500; // first poll as long as no latency has been observed
+    private static final long MIN_POLL_DELAY = 500;
+    private static final long MAX_POLL_DELAY = 10000;
+    private static final long MAX_FIRST_POLL = 60000;
+    private static final double BACKOFF_FACTOR = 2;
+    private static final double JITTER = 0.2; // +/- 20% of the delay
+    private static final int SIZE_BUCKETS = 5; // prompts < 1k, < 2k, < 4k, < 8k and >= 8k characters
+    private static final int MIN_SAMPLES = 5; // samples required to trust the latency of a bucket
+    private static final int MAX_POLL_FAILURES = 3; // consecutive failed polls before a transaction is given up
+    private static final int EARLY_RESPONSE_TIMEOUT = 60000; // 1 minute to wait for the transactionId of a pushed response
+    private static final int MAX_EARLY_RESPONSES = 1000; // the oldest pushed responses are dropped beyond this number
+    private static final String SIGNATURE_ALGORITHM = "HmacSHA256";
+    private static final String SIGNATURE_PREFIX = "sha256=";
+    private static final Logger LOGGER = LoggerFactory.getLogger(PollingLanguageModel.class);
+
+    private final Map<String, PendingTransaction> pendingTransactions = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, EarlyResponse> earlyResponses = new LinkedHashMap<>(); // in order of receipt
+    private final TimingWheel<String> pollSchedule = new TimingWheel<>(TICK_MILLIS, WHEEL_SIZE);
+    private final LatencyTracker latency = new LatencyTracker(256);
+    private final LatencyTracker[] latencyBySize = new LatencyTracker[SIZE_BUCKETS];
+    private volatile ExecutorService executor;
+    private volatile ScheduledExecutorService scheduler;
+
+    protected PollingLanguageModel() {
+        for (int i = 0; i < SIZE_BUCKETS; i++) latencyBySize[i] = new LatencyTracker(64);
+    }
+
+    /**
+     * Takes a given prompt, hands it over to the LLM and returns a transactionId.
+     *
+     * @param prompt
+     *         The prompt to be executed.
+     * @return A transactionId.
+     */
+    abstract String handlePrompt(final String prompt);
+
+    /**
+     * Checks whether the execution of the prompt with the given transactionId is finished and gives the LLMs response.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @return The LLMs response in case it is available. Otherwise <code>null</code>.
+     */
+    abstract String getResponse(final String transactionId);
+
+    /**
+     * Checks multiple transactions at once. By default, every transaction is checked on its own. LLMs supporting a
+     * batch route should override this method to check all transactions with a single request.
+     *
+     * @param transactionIds
+     *         The ids of the transactions to be checked.
+     * @return A {@link Map} of transactionId and response containing the finished transactions only.
+     * @throws RuntimeException
+     *         in case not a single transaction could be checked.
+     */
+    Map<String, String> getResponses(final Collection<String> transactionIds) {
+        Map<String, String> responses = new HashMap<>();
+        RuntimeException failure = null;
+        int failures = 0;
+        for (String transactionId : transactionIds) {
+            try {
+                String response = getResponse(transactionId);
+                if (StringUtils.hasText(response)) responses.put(transactionId, response);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Polling transaction [{}] failed", transactionId, e);
+                failure = e;
+                failures++;
+            }
+        }
+        if (failure != null && failures == transactionIds.size()) throw failure;
+        return responses;
+    }
+
+    @Override
+    public CompletableFuture<String> submit(final String prompt) {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        final long submitted = System.currentTimeMillis();
+        getExecutor().execute(() -> {
+            try {
+                String transactionId = handlePrompt(prompt);
+                if (!future.isDone()) {
+                    pendingTransactions.put(transactionId, new PendingTransaction(future, prompt.length(), submitted));
+                    pollSchedule.schedule(transactionId, submitted + estimateFirstPoll(prompt.length()));
+                    startScheduler();
+
+                    // the response might have been pushed before the transactionId was known
+                    EarlyResponse earlyResponse = takeEarlyResponse(transactionId);
+                    if (earlyResponse != null) complete(transactionId, earlyResponse.response());
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Completes a pending transaction with a response pushed by the LLM service. Polling remains as fallback in case
+     * a push gets lost.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @param response
+     *         The LLMs response.
+     * @return <code>true</code> in case a pending transaction has been completed. <code>false</code> in case the
+     * transaction is not known (yet).
+     */
+    public boolean complete(final String transactionId, final String response) {
+        if (!StringUtils.hasText(response)) return false;
+
+        PendingTransaction transaction = pendingTransactions.remove(transactionId);
+        if (transaction == null) {
+            putEarlyResponse(transactionId, new EarlyResponse(response, System.currentTimeMillis()));
+            LOGGER.debug("Received response for unknown transaction [{}]", transactionId);
+
+            // the transaction might have been registered in the meantime
+            transaction = pendingTransactions.get(transactionId);
+            if (transaction == null || takeEarlyResponse(transactionId) == null) return false;
+            pendingTransactions.remove(transactionId, transaction);
+        }
+        LOGGER.debug("Received pushed response for transaction [{}]", transactionId);
+        return finish(transaction, response);
+    }
+
+    /**
+     * Gives the shared secret pushed responses are signed with. By default, LLMs do not accept pushed responses.
+     *
+     * @return The secret or <code>null</code> in case pushed responses are not accepted.
+     */
+    protected String getCallbackSecret() {
+        return null;
+    }
+
+    /**
+     * Verifies that a pushed response has been sent by the LLM service. The service signs the raw body by HMAC-SHA256
+     * with the shared secret and sends the hex encoded signature, optionally prefixed by <code>sha256=</code>.
+     *
+     * @param body
+     *         The raw body of the pushed response.
+     * @param signature
+     *         The signature sent along with the body.
+     * @return <code>true</code> in case the signature matches. <code>false</code> in case no secret is configured.
+     */
+    public boolean verifyCallback(final String body, final String signature) {
+        String secret = getCallbackSecret();
+        if (!StringUtils.hasText(secret) || body == null || !StringUtils.hasText(signature)) return false;
+
+        String hex = signature.strip();
+        if (hex.regionMatches(true, 0, SIGNATURE_PREFIX, 0, SIGNATURE_PREFIX.length()))
+            hex = hex.substring(SIGNATURE_PREFIX.length());
+        try {
+            Mac mac = Mac.getInstance(SIGNATURE_ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), SIGNATURE_ALGORITHM));
+            byte[] expected = mac.doFinal(body.getBytes(StandardCharsets.UTF_8));
+            return MessageDigest.isEqual(expected, HexFormat.of().parseHex(hex));
+        } catch (IllegalArgumentException e) {
+            return false; // not a hex encoded signature
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not verify signature", e);
+        }
+    }
+
+    /**
+     * Keeps a response pushed before its transactionId is known. Once {@value #MAX_EARLY_RESPONSES} responses are
+     * waiting, the oldest one is dropped, so that a flood of unknown transactions cannot fill the heap.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @param earlyResponse
+     *         The {@link EarlyResponse}.
+     */
+    private void putEarlyResponse(final String transactionId, final EarlyResponse earlyResponse) {
+        synchronized (earlyResponses) {
+            earlyResponses.remove(transactionId);
+            earlyResponses.put(transactionId, earlyResponse);
+            Iterator<String> oldest = earlyResponses.keySet().iterator();
+            while (earlyResponses.size() > MAX_EARLY_RESPONSES) {
+                LOGGER.warn("Dropped pushed response for unknown transaction [{}]", oldest.next());
+                oldest.remove();
+            }
+        }
+    }
+
+    private EarlyResponse takeEarlyResponse(final String transactionId) {
+        synchronized (earlyResponses) {
+            return earlyResponses.remove(transactionId);
+        }
+    }
+
+    /**
+     * Drops the pushed responses whose transactionId has not become known in time. As the responses are kept in the
+     * order of their receipt, only the expired ones are visited.
+     *
+     * @param currentTime
+     *         The current time in milliseconds.
+     */
+    private void expireEarlyResponses(final long currentTime) {
+        synchronized (earlyResponses) {
+            Iterator<EarlyResponse> iterator = earlyResponses.values().iterator();
+            while (iterator.hasNext() && iterator.next().received() + EARLY_RESPONSE_TIMEOUT < currentTime)
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Gives the number of pushed responses whose transactionId is not known yet.
+     *
+     * @return The number of responses.
+     */
+    int getEarlyResponseCount() {
+        synchronized (earlyResponses) {
+            return earlyResponses.size();
+        }
+    }
+
+    /**
+     * Stops the polling scheduler and the virtual threads handing prompts over to the LLM. Both are started again by
+     * the next prompt.
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(10, TimeUnit.SECONDS)) executor.shutdownNow();
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        LOGGER.info("Stopped polling scheduler for {}", getClass().getSimpleName());
+    }
+
+    /**
+     * Provides the executor running the calls of the LLM on virtual threads. It is created in case it is not running
+     * yet.
+     *
+     * @return The {@link ExecutorService}.
+     */
+    private ExecutorService getExecutor() {
+        ExecutorService current = executor;
+        if (current != null) return current;
+        synchronized (this) {
+            if (executor == null) executor = Executors.newVirtualThreadPerTaskExecutor();
+            return executor;
+        }
+    }
+
+    /**
+     * Starts the polling scheduler in case it is not running yet.
+     */
+    private void startScheduler() {
+        if (scheduler == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    scheduler = Executors.newSingleThreadScheduledExecutor(
+                            Thread.ofPlatform().name(getClass().getSimpleName() + "-poller").daemon().factory());
+                    scheduler.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+                    LOGGER.info("Started polling scheduler for {}", getClass().getSimpleName());
+                }
+            }
+        }
+    }
+
+    /**
+     * The scheduled task advancing the poll schedule. The due transactions are checked on a virtual thread, so that a
+     * slow LLM service does not delay the schedule of other transactions. Errors are caught, as an uncaught exception
+     * would stop the scheduler for good.
+     */
+    private void tick() {
+        try {
+            long currentTime = System.currentTimeMillis();
+            expireEarlyResponses(currentTime);
+
+            List<String> due = new ArrayList<>();
+            for (String transactionId : pollSchedule.advance(currentTime)) {
+                PendingTransaction transaction = pendingTransactions.get(transactionId);
+                if (transaction == null) continue;
+                if (transaction.future().isDone()) pendingTransactions.remove(transactionId, transaction);
+                else due.add(transactionId);
+            }
+            if (!due.isEmpty()) getExecutor().execute(() -> pollTransactions(due));
+        } catch (RuntimeException e) {
+            LOGGER.error("Error while scheduling polls", e);
+        }
+    }
+
+    /**
+     * Checks the given transactions with a single call of {@link #getResponses(Collection)} and completes the ones
+     * whose response is available. The others are scheduled for their next poll. Transactions whose polls failed
+     * {@value #MAX_POLL_FAILURES} times in a row are failed, so that an unavailable LLM service is noticed long before
+     * the transactions time out.
+     *
+     * @param transactionIds
+     *         The ids of the due transactions.
+     */
+    private void pollTransactions(final List<String> transactionIds) {
+        Map<String, String> responses;
+        RuntimeException failure = null;
+        try {
+            responses = getResponses(transactionIds);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Polling {} transactions failed", transactionIds.size(), e);
+            responses = Map.of();
+            failure = e;
+        }
+
+        long currentTime = System.currentTimeMillis();
+        for (String transactionId : transactionIds) {
+            String response = responses.get(transactionId);
+            PendingTransaction transaction = StringUtils.hasText(response)
+                    ? pendingTransactions.remove(transactionId)
+                    : pendingTransactions.get(transactionId);
+            if (transaction == null) continue;
+
+            if (StringUtils.hasText(response)) {
+                finish(transaction, response);
+            } else if (failure != null && ++transaction.failures >= MAX_POLL_FAILURES) {
+                pendingTransactions.remove(transactionId, transaction);
+                transaction.future().completeExceptionally(failure);
+            } else {
+                if (failure == null) transaction.failures = 0;
+                pollSchedule.schedule(transactionId, currentTime + getBackoff(++transaction.polls));
+            }
+        }
+    }
+
+    /**
+     * Completes the future of the transaction and records the observed latency.
+     *
+     * @param transaction
+     *         The {@link PendingTransaction}.
+     * @param response
+     *         The LLMs response.
+     * @return <code>true</code> in case the future has been completed by this call.
+     */
+    private boolean finish(final PendingTransaction transaction, final String response) {
+        long duration = System.currentTimeMillis() - transaction.submitted();
+        latency.record(duration);
+        latencyBySize[getSizeBucket(transaction.promptLength())].record(duration);
+        return transaction.future().complete(response);
+    }
+
+    /**
+     * Estimates when the response to a prompt of the given length is available, based on the latencies observed for
+     * prompts of similar length. As long as too few latencies have been observed, all prompts or a default are used.
+     *
+     * @param promptLength
+     *         The number of characters of the prompt.
+     * @return The delay of the first poll in milliseconds.
+     */
+    long estimateFirstPoll(final int promptLength) {
+        LatencyTracker bucket = latencyBySize[getSizeBucket(promptLength)];
+        long estimate;
+        if (bucket.size() >= MIN_SAMPLES) estimate = bucket.percentile(0.5);
+        else if (latency.size() >= MIN_SAMPLES) estimate = latency.percentile(0.5);
+        else estimate = DEFAULT_FIRST_POLL;
+        return Math.max(MIN_POLL_DELAY, Math.min(MAX_FIRST_POLL, estimate));
+    }
+
+    /**
+     * Gives the delay until the next poll of a transaction whose response was not available yet. The delay doubles
+     * with every poll and is randomized by {@value #JITTER}, so that transactions submitted together spread out.
+     *
+     * @param polls
+     *         The number of polls so far.
+     * @return The delay in milliseconds.
+     */
+    static long getBackoff(final int polls) {
+        double delay = Math.min(MAX_POLL_DELAY, MIN_POLL_DELAY * Math.pow(BACKOFF_FACTOR, Math.max(0, polls - 1)));
+        return (long) (delay * ThreadLocalRandom.current().nextDouble(1 - JITTER, 1 + JITTER));
+    }
+
+    /**
+     * Gives the latencies of all responses of this LLM.
+     *
+     * @return The {@link LatencyTracker}.
+     */
+    public LatencyTracker getLatency() {
+        return latency;
+    }
+
+    private static int getSizeBucket(final int promptLength) {
+        return Math.min(SIZE_BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(promptLength >> 10));
+    }
+
+    /**
+     * A transaction waiting for its response. As a transaction is not scheduled again before its poll is finished,
+     * the number of polls and failures is never accessed concurrently.
+     */
+    private static final class PendingTransaction {
+
+        private final CompletableFuture<String> future;
+        private final int promptLength;
+        private final long submitted;
+        private int polls;
+        private int failures;
+
+        private PendingTransaction(final CompletableFuture<String> future, final int promptLength,
+                                   final long submitted) {
+            this.future = future;
+            this.promptLength = promptLength;
+            this.submitted = submitted;
+        }
+
+        private CompletableFuture<String> future() {
+            return future;
+        }
+
+        private int promptLength() {
+            return promptLength;
+        }
+
+        private long submitted() {
+            return submitted;
+        }
+
+    }
+
+    /**
+     * A response pushed before the corresponding transaction has been registered.
+     *
+     * @param response
+     *         The LLMs response.
+     * @param received
+     *         The time in milliseconds the response has been received.
+     */
+    private record EarlyResponse(String response, long received) {
+
+    }
+
+}
\ No newline at end of file
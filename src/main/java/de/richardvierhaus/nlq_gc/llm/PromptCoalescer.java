@@ -0,0 +1,188 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands prompts over to the LLMs while making sure that identical prompts running at the same time are executed only
+ * once. Every caller receives its own future of the shared response, so that cancelling one of them does not affect
+ * the others. The prompt is only cancelled at the LLM after all callers cancelled their futures.
+ */
+class PromptCoalescer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PromptCoalescer.class);
+
+    private final Map<Key, Flight> flights = new ConcurrentHashMap<>();
+    private final Upstream upstream;
+
+    /**
+     * Creates a {@link PromptCoalescer} handing the prompts over to the LLMs directly.
+     */
+    PromptCoalescer() {
+        this((model, user, priority, prompt) -> model.getLLM().submit(prompt));
+    }
+
+    /**
+     * Creates a {@link PromptCoalescer}.
+     *
+     * @param upstream
+     *         The {@link Upstream} executing the prompts.
+     */
+    PromptCoalescer(final Upstream upstream) {
+        this.upstream = upstream;
+    }
+
+    /**
+     * Executes the given prompt or joins the execution of an identical prompt which is still running. A joined
+     * execution remains accounted to the user who started it and keeps its priority.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance to be used.
+     * @param user
+     *         The identification of the user the prompt is executed for.
+     * @param priority
+     *         The {@link Priority} of the prompt.
+     * @param prompt
+     *         The prompt to be executed.
+     * @return A {@link CompletableFuture} completing with the LLMs response.
+     */
+    CompletableFuture<String> submit(final ModelLiterals model, final String user, final Priority priority,
+                                     final String prompt) {
+        final Key key = new Key(model, prompt);
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight == null) {
+                Flight created = new Flight(key, user, priority);
+                flight = flights.putIfAbsent(key, created);
+                if (flight == null) {
+                    flight = created;
+                    created.start();
+                }
+            } else {
+                LOGGER.debug("Joining running prompt of model {}", model);
+            }
+
+            CompletableFuture<String> result = flight.attach();
+            if (result != null) return result;
+            // the flight has been cancelled in the meantime
+            flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Gives the number of prompts currently executed.
+     *
+     * @return The number of running prompts.
+     */
+    int size() {
+        return flights.size();
+    }
+
+    /**
+     * Executes a prompt which is not coalesced with a running one.
+     */
+    @FunctionalInterface
+    interface Upstream {
+
+        /**
+         * Executes the prompt with the given model.
+         *
+         * @param model
+         *         The {@link ModelLiterals} instance to be used.
+         * @param user
+         *         The identification of the user the prompt is executed for.
+         * @param priority
+         *         The {@link Priority} of the prompt.
+         * @param prompt
+         *         The prompt to be executed.
+         * @return A {@link CompletableFuture} completing with the LLMs response.
+         */
+        CompletableFuture<String> submit(ModelLiterals model, String user, Priority priority, String prompt);
+
+    }
+
+    private record Key(ModelLiterals model, String prompt) {
+
+    }
+
+    /**
+     * The execution of a single prompt shared by all callers attached to it.
+     */
+    private final class Flight {
+
+        private final Key key;
+        private final String user;
+        private final Priority priority;
+        private final CompletableFuture<String> response = new CompletableFuture<>();
+        private CompletableFuture<String> llmFuture;
+        private int attached;
+        private boolean cancelled;
+
+        private Flight(final Key key, final String user, final Priority priority) {
+            this.key = key;
+            this.user = user;
+            this.priority = priority;
+        }
+
+        /**
+         * Hands the prompt over to the LLM. In case the LLM rejects it directly, the exception is rethrown.
+         */
+        private void start() {
+            CompletableFuture<String> future;
+            try {
+                future = upstream.submit(key.model(), user, priority, key.prompt());
+            } catch (RuntimeException e) {
+                flights.remove(key, this);
+                response.completeExceptionally(e);
+                throw e;
+            }
+            synchronized (this) {
+                llmFuture = future;
+                if (cancelled) future.cancel(false);
+            }
+            future.whenComplete((result, throwable) -> {
+                flights.remove(key, this);
+                if (throwable != null) response.completeExceptionally(throwable);
+                else response.complete(result);
+            });
+        }
+
+        /**
+         * Attaches a caller to the prompt.
+         *
+         * @return The callers' future of the response or <code>null</code> in case the prompt has been cancelled.
+         */
+        private synchronized CompletableFuture<String> attach() {
+            if (cancelled) return null;
+            attached++;
+
+            CompletableFuture<String> result = new CompletableFuture<>();
+            response.whenComplete((value, throwable) -> {
+                if (throwable != null) result.completeExceptionally(throwable);
+                else result.complete(value);
+            });
+            result.whenComplete((value, throwable) -> {
+                if (result.isCancelled()) detach();
+            });
+            return result;
+        }
+
+        /**
+         * Detaches a caller which cancelled its future. The prompt is cancelled as soon as no caller is left.
+         */
+        private synchronized void detach() {
+            if (--attached > 0 || response.isDone()) return;
+            cancelled = true;
+            flights.remove(key, this);
+            if (llmFuture != null) llmFuture.cancel(false);
+        }
+
+    }
+
+}
\ No newline at end of file
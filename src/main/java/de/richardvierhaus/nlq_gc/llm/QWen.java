@@ -4,17 +4,16 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpRequest;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
-public class QWen extends LanguageModel {
+public class QWen extends PollingLanguageModel {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QWen.class);
 
@@ -22,6 +21,11 @@ public class QWen extends LanguageModel {
 
     private final String handleUrl = getLLMProperties().getProperty("QWEN_HANDLE");
     private final String responseUrl = getLLMProperties().getProperty("QWEN_RESPONSE");
+    private final String responsesUrl = getLLMProperties().getProperty("QWEN_RESPONSES");
+    private final String callbackUrl = getLLMProperties().getProperty("QWEN_CALLBACK");
+    private final String callbackSecret = StringUtils.hasText(getLLMProperties().getProperty("QWEN_CALLBACK_SECRET"))
+            ? getLLMProperties().getProperty("QWEN_CALLBACK_SECRET") : System.getenv("QWEN_CALLBACK_SECRET");
+    private volatile boolean batchSupported = true;
     private final Gson gson = new Gson();
 
     private QWen() {
@@ -42,25 +46,14 @@ public class QWen extends LanguageModel {
         try {
             LOGGER.trace("Transmitting following prompt to QWen:\n{}", prompt);
 
-            HttpURLConnection conn = getHttpURLConnection(handleUrl);
-
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setDoOutput(true);
-
             JsonObject requestJson = new JsonObject();
             requestJson.addProperty("prompt", prompt);
+            // pushed responses are only accepted with a signature, see verifyCallback
+            if (StringUtils.hasText(callbackUrl) && StringUtils.hasText(getCallbackSecret()))
+                requestJson.addProperty("callback_url", callbackUrl);
 
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = gson.toJson(requestJson).getBytes(StandardCharsets.UTF_8);
-                os.write(input);
-            }
-
-            if (conn.getResponseCode() != 200) {
-                throw new IOException("HTTP POST failed with code " + conn.getResponseCode());
-            }
-
-            String response = readResponse(conn);
+            HttpRequest request = getTransport().post(handleUrl, gson.toJson(requestJson)).build();
+            String response = getTransport().send(request);
             LOGGER.info("Received response to /handle: {}", response);
             JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
             return jsonResponse.get("transaction_id").getAsString();
@@ -70,19 +63,24 @@ public class QWen extends LanguageModel {
         }
     }
 
+    /**
+     * Gives the secret the QWen API signs pushed responses with. It is configured by QWEN_CALLBACK_SECRET in the
+     * llm.properties or the environment.
+     *
+     * @return The secret or <code>null</code> in case it is not configured.
+     */
+    @Override
+    protected String getCallbackSecret() {
+        return callbackSecret;
+    }
+
     @Override
     public String getResponse(final String transactionId) {
         try {
-            HttpURLConnection conn = getHttpURLConnection(responseUrl + "?transaction_id=" + URLEncoder.encode(transactionId, StandardCharsets.UTF_8));
-
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("Accept", "application/json");
-
-            if (conn.getResponseCode() != 200) {
-                throw new IOException("HTTP GET failed with code " + conn.getResponseCode());
-            }
-
-            String response = readResponse(conn);
+            HttpRequest request = getTransport()
+                    .get(responseUrl + "?transaction_id=" + URLEncoder.encode(transactionId, StandardCharsets.UTF_8))
+                    .build();
+            String response = getTransport().send(request);
             LOGGER.info("Received response to /response: {}", response);
             JsonObject jsonResponse = gson.fromJson(response, JsonObject.class);
             return jsonResponse.get("response").isJsonNull() ? null : jsonResponse.get("response").getAsString();
@@ -93,36 +91,40 @@ public class QWen extends LanguageModel {
     }
 
     /**
-     * Provides a {@link HttpURLConnection} for a given url.
+     * Checks all given transactions with a single request to the batch route of the QWen API. In case the route is not
+     * configured or not provided by the API, every transaction is checked on its own.
      *
-     * @param url
-     *         The requested url route.
-     * @return A {@link HttpURLConnection} for the given url.
-     * @throws IOException
-     *         if an I/O exception occurs during connection opening.
+     * @param transactionIds
+     *         The ids of the transactions to be checked.
+     * @return A {@link Map} of transactionId and response containing the finished transactions only.
      */
-    protected HttpURLConnection getHttpURLConnection(final String url) throws IOException {
-        return (HttpURLConnection) URI.create(url).toURL().openConnection();
-    }
+    @Override
+    public Map<String, String> getResponses(final Collection<String> transactionIds) {
+        if (!batchSupported || !StringUtils.hasText(responsesUrl)) return super.getResponses(transactionIds);
 
-    /**
-     * Reads the response of a {@link HttpURLConnection} and returns it as String.
-     *
-     * @param conn
-     *         The {@link HttpURLConnection}.
-     * @return The extracted text.
-     * @throws IOException
-     *         in case the connection cannot be read.
-     */
-    private String readResponse(final HttpURLConnection conn) throws IOException {
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-            StringBuilder result = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                result.append(line.trim());
-            }
-            return result.toString();
+        try {
+            JsonObject requestJson = new JsonObject();
+            requestJson.add("transaction_ids", gson.toJsonTree(transactionIds));
+
+            HttpRequest request = getTransport().post(responsesUrl, gson.toJson(requestJson)).build();
+            String response = getTransport().send(request);
+            LOGGER.info("Received response to /responses for {} transactions", transactionIds.size());
+            JsonObject jsonResponse = gson.fromJson(response, JsonObject.class).getAsJsonObject("responses");
+
+            Map<String, String> responses = new HashMap<>();
+            jsonResponse.entrySet().stream()
+                    .filter(entry -> !entry.getValue().isJsonNull())
+                    .forEach(entry -> responses.put(entry.getKey(), entry.getValue().getAsString()));
+            return responses;
+
+        } catch (HttpStatusException e) {
+            if (e.getStatusCode() != 404 && e.getStatusCode() != 405)
+                throw new RuntimeException("Error in getResponses: " + e.getMessage(), e);
+            LOGGER.warn("QWen API does not provide {}, falling back to single requests", responsesUrl);
+            batchSupported = false;
+            return super.getResponses(transactionIds);
+        } catch (Exception e) {
+            throw new RuntimeException("Error in getResponses: " + e.getMessage(), e);
         }
     }
 
@@ -0,0 +1,120 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+
+/**
+ * Token buckets limiting the requests and the prompt tokens handed over to a single LLM per minute. The buckets refill
+ * continuously and hold at most the amount refilled within the burst window, so that a model can be kept busy at
+ * exactly its quota without exceeding it.
+ */
+class RateLimiter {
+
+    private static final long MINUTE_MILLIS = 60000;
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final double requestsPerMilli;
+    private final double tokensPerMilli;
+    private final double requestCapacity;
+    private final double tokenCapacity;
+    private double requests;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Creates a new {@link RateLimiter} allowing a burst of a whole minute.
+     *
+     * @param requestsPerMinute
+     *         The maximum number of requests per minute. 0 disables the limit.
+     * @param tokensPerMinute
+     *         The maximum number of prompt tokens per minute. 0 disables the limit.
+     */
+    RateLimiter(final long requestsPerMinute, final long tokensPerMinute) {
+        this(requestsPerMinute, tokensPerMinute, MINUTE_MILLIS, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a new {@link RateLimiter}.
+     *
+     * @param requestsPerMinute
+     *         The maximum number of requests per minute. 0 disables the limit.
+     * @param tokensPerMinute
+     *         The maximum number of prompt tokens per minute. 0 disables the limit.
+     * @param burstMillis
+     *         The buckets hold the amount refilled within this window.
+     * @param now
+     *         The current time in milliseconds. The buckets start full.
+     */
+    RateLimiter(final long requestsPerMinute, final long tokensPerMinute, final long burstMillis, final long now) {
+        this.requestsPerMilli = Math.max(0, requestsPerMinute) / (double) MINUTE_MILLIS;
+        this.tokensPerMilli = Math.max(0, tokensPerMinute) / (double) MINUTE_MILLIS;
+        // a single request has to fit into the bucket
+        this.requestCapacity = Math.max(1, requestsPerMilli * burstMillis);
+        this.tokenCapacity = tokensPerMilli * burstMillis;
+        this.requests = requestCapacity;
+        this.tokens = tokenCapacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Creates a {@link RateLimiter} with the limits configured in the llm.properties, e.g. by
+     * QWEN3_235B_FREE_REQUESTS_PER_MINUTE and QWEN3_235B_FREE_TOKENS_PER_MINUTE. Models without configuration are not
+     * limited.
+     *
+     * @param model
+     *         The {@link ModelLiterals} instance to be limited.
+     * @return The configured {@link RateLimiter}.
+     */
+    static RateLimiter fromProperties(final ModelLiterals model) {
+        return new RateLimiter(LLMProperties.getLong(model.name() + "_REQUESTS_PER_MINUTE", 0),
+                LLMProperties.getLong(model.name() + "_TOKENS_PER_MINUTE", 0));
+    }
+
+    /**
+     * Estimates the number of tokens of a prompt. The tokenizers of the models are not available, so roughly four
+     * characters are counted as one token.
+     *
+     * @param prompt
+     *         The prompt.
+     * @return The estimated number of tokens.
+     */
+    static long estimateTokens(final String prompt) {
+        return (prompt.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Takes a request with the given number of tokens from the buckets in case both hold enough. Otherwise nothing is
+     * taken.
+     *
+     * @param promptTokens
+     *         The number of tokens of the prompt.
+     * @param now
+     *         The current time in milliseconds.
+     * @return 0 in case the request has been taken. Otherwise the time in milliseconds until the buckets will have
+     * refilled enough.
+     */
+    synchronized long tryAcquire(final long promptTokens, final long now) {
+        refill(now);
+        // prompts exceeding the whole bucket would never be started otherwise
+        double tokenCost = Math.min(promptTokens, tokenCapacity);
+        boolean requestLimited = requestsPerMilli > 0 && requests < 1;
+        boolean tokenLimited = tokensPerMilli > 0 && tokens < tokenCost;
+        if (!requestLimited && !tokenLimited) {
+            if (requestsPerMilli > 0) requests -= 1;
+            if (tokensPerMilli > 0) tokens -= tokenCost;
+            return 0;
+        }
+
+        long wait = 0;
+        if (requestLimited) wait = (long) Math.ceil((1 - requests) / requestsPerMilli);
+        if (tokenLimited) wait = Math.max(wait, (long) Math.ceil((tokenCost - tokens) / tokensPerMilli));
+        return Math.max(1, wait);
+    }
+
+    private void refill(final long now) {
+        long elapsed = Math.max(0, now - lastRefill);
+        lastRefill = Math.max(lastRefill, now);
+        requests = Math.min(requestCapacity, requests + elapsed * requestsPerMilli);
+        tokens = Math.min(tokenCapacity, tokens + elapsed * tokensPerMilli);
+    }
+
+}
\ No newline at end of file
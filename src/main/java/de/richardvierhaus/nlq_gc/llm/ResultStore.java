@@ -0,0 +1,51 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.GraphCode;
+
+/**
+ * Keeps the completed graph codes of transactions readable for a retention window. Reads do not consume the results,
+ * so that clients can safely retry. Storing a result twice for the same transaction replaces the former one.
+ */
+public interface ResultStore extends AutoCloseable {
+
+    /**
+     * Stores the completed graph code of a transaction.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @param graphCode
+     *         The {@link GraphCode} of state FINISHED or ERROR.
+     */
+    void put(String transactionId, GraphCode graphCode);
+
+    /**
+     * Looks up the stored graph code of a transaction.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @return The {@link GraphCode} or <code>null</code> in case there is none or it has expired.
+     */
+    GraphCode get(String transactionId);
+
+    /**
+     * Removes the expired results and reclaims the space they occupied.
+     *
+     * @param currentTime
+     *         The current time milliseconds.
+     */
+    void compact(long currentTime);
+
+    /**
+     * Gives the number of stored results, including expired ones which have not been compacted yet.
+     *
+     * @return The number of results.
+     */
+    int size();
+
+    /**
+     * Releases the resources of the store.
+     */
+    @Override
+    void close();
+
+}
\ No newline at end of file
@@ -0,0 +1,96 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A hashed timing wheel which schedules items for a deadline. Scheduling is O(1) and advancing the wheel only touches
+ * the slots of the elapsed ticks, so that large numbers of scheduled items remain cheap as long as they are not due.
+ *
+ * @param <T>
+ *         The type of the scheduled items.
+ */
+public class TimingWheel<T> {
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final List<List<Entry<T>>> slots;
+    private long currentTick;
+    private int size;
+
+    /**
+     * Creates a new {@link TimingWheel} starting at the current time.
+     *
+     * @param tickMillis
+     *         The resolution of the wheel in milliseconds.
+     * @param wheelSize
+     *         The number of slots. Deadlines further away than one round share slots with closer ones.
+     */
+    public TimingWheel(final long tickMillis, final int wheelSize) {
+        this(tickMillis, wheelSize, System.currentTimeMillis());
+    }
+
+    protected TimingWheel(final long tickMillis, final int wheelSize, final long startMillis) {
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        this.slots = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) slots.add(new ArrayList<>());
+    }
+
+    /**
+     * Schedules the given item. Deadlines in the past are due with the next tick.
+     *
+     * @param item
+     *         The item to be scheduled.
+     * @param deadline
+     *         The time in milliseconds the item is due.
+     */
+    public synchronized void schedule(final T item, final long deadline) {
+        long tick = Math.max(currentTick + 1, Math.ceilDiv(deadline - startMillis, tickMillis));
+        slots.get((int) (tick % slots.size())).add(new Entry<>(item, tick));
+        size++;
+    }
+
+    /**
+     * Advances the wheel to the given time and removes all items which are due.
+     *
+     * @param now
+     *         The current time in milliseconds.
+     * @return A {@link List} of the due items ordered by slot.
+     */
+    public synchronized List<T> advance(final long now) {
+        long targetTick = (now - startMillis) / tickMillis;
+        if (targetTick <= currentTick) return List.of();
+
+        List<T> due = new ArrayList<>();
+        long steps = Math.min(targetTick - currentTick, slots.size());
+        for (long i = 1; i <= steps; i++) {
+            Iterator<Entry<T>> iterator = slots.get((int) ((currentTick + i) % slots.size())).iterator();
+            while (iterator.hasNext()) {
+                Entry<T> entry = iterator.next();
+                if (entry.tick() <= targetTick) {
+                    due.add(entry.item());
+                    iterator.remove();
+                }
+            }
+        }
+        currentTick = targetTick;
+        size -= due.size();
+        return due;
+    }
+
+    /**
+     * Gives the number of scheduled items.
+     *
+     * @return The number of items which are not due yet.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private record Entry<T>(T item, long tick) {
+
+    }
+
+}
\ No newline at end of file
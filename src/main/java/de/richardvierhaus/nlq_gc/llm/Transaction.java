@@ -0,0 +1,202 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.GraphCode;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import de.richardvierhaus.nlq_gc.enums.Stage;
+import de.richardvierhaus.nlq_gc.enums.TransactionEvent;
+import de.richardvierhaus.nlq_gc.nlq.PromptBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * The state of a single NLQ transaction in {@link AsyncLLMService}. A transaction is advanced through its
+ * {@link Stage}s by atomic transitions, so that exactly one party (response handler or timeout) takes over each
+ * step.
+ */
+class Transaction {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Transaction.class);
+
+    private final String id;
+    private final String user;
+    private final Priority priority;
+    private final GraphCode graphCode;
+    private final AtomicReference<Stage> stage;
+    private final CompletableFuture<GraphCode> completion = new CompletableFuture<>();
+    private final AtomicReference<ModelDispatcher> admission = new AtomicReference<>();
+    private volatile PromptBuilder preparedGCPrompt;
+    private volatile CompletableFuture<String> llmFuture;
+    private final List<TransactionEvent> events = new ArrayList<>(TransactionEvent.values().length);
+    private final List<BiConsumer<TransactionEvent, GraphCode>> listeners = new ArrayList<>(1);
+
+    /**
+     * Creates a new {@link Transaction}.
+     *
+     * @param id
+     *         The transactions' id.
+     * @param graphCode
+     *         The pending {@link GraphCode}.
+     * @param stage
+     *         The initial {@link Stage}.
+     * @param preparedGCPrompt
+     *         A {@link PromptBuilder} instance that is only missing keywords to be replaced. <code>null</code> in case
+     *         the transaction starts with graph code generation.
+     * @param user
+     *         The identification of the user the transaction is executed for.
+     * @param priority
+     *         The {@link Priority} of the prompts of the transaction.
+     */
+    Transaction(final String id, final GraphCode graphCode, final Stage stage, final PromptBuilder preparedGCPrompt,
+                final String user, final Priority priority) {
+        this.id = id;
+        this.user = user;
+        this.priority = priority;
+        this.graphCode = graphCode;
+        this.stage = new AtomicReference<>(stage);
+        this.preparedGCPrompt = preparedGCPrompt;
+    }
+
+    /**
+     * Moves the transaction to the next stage in case it is still in the expected one.
+     *
+     * @param expected
+     *         The {@link Stage} the transaction is expected to be in.
+     * @param next
+     *         The following {@link Stage}.
+     * @return <code>true</code> in case the transition took place.
+     */
+    boolean advance(final Stage expected, final Stage next) {
+        return stage.compareAndSet(expected, next);
+    }
+
+    /**
+     * Marks the transaction as admitted by its model.
+     *
+     * @param dispatcher
+     *         The {@link ModelDispatcher} which admitted the transaction.
+     */
+    void setAdmission(final ModelDispatcher dispatcher) {
+        admission.set(dispatcher);
+    }
+
+    /**
+     * Takes the admission of the transaction, so that it is released exactly once.
+     *
+     * @return The {@link ModelDispatcher} which admitted the transaction or <code>null</code> in case it has not been
+     * admitted or has been released before.
+     */
+    ModelDispatcher takeAdmission() {
+        return admission.getAndSet(null);
+    }
+
+    /**
+     * Takes the prepared GC prompt out of the transaction, as it is only used once.
+     *
+     * @return The {@link PromptBuilder} of the GC prompt.
+     */
+    PromptBuilder takePreparedGCPrompt() {
+        PromptBuilder prompt = preparedGCPrompt;
+        preparedGCPrompt = null;
+        return prompt;
+    }
+
+    /**
+     * Remembers the future of the running LLM prompt. In case the transaction expired in the meantime, the future is
+     * cancelled directly.
+     *
+     * @param llmFuture
+     *         The {@link CompletableFuture} of the LLMs response.
+     */
+    void setLLMFuture(final CompletableFuture<String> llmFuture) {
+        this.llmFuture = llmFuture;
+        if (getStage() == Stage.EXPIRED) cancelLLMFuture();
+    }
+
+    /**
+     * Cancels the running LLM prompt, as its response is not required anymore.
+     */
+    void cancelLLMFuture() {
+        CompletableFuture<String> future = llmFuture;
+        llmFuture = null;
+        if (future != null) future.cancel(false);
+    }
+
+    /**
+     * Gives a future which completes as soon as the transaction is finished or removed.
+     *
+     * @return The {@link CompletableFuture} of the {@link GraphCode}. It holds the NOT_AVAILABLE graph code in case
+     * the transaction has been removed before finishing.
+     */
+    CompletableFuture<GraphCode> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Registers a listener for the events of this transaction. The events which already took place are replayed
+     * directly, so that the listener receives all events in order.
+     *
+     * @param listener
+     *         Receives each {@link TransactionEvent} together with the {@link GraphCode} of the transaction.
+     */
+    synchronized void subscribe(final BiConsumer<TransactionEvent, GraphCode> listener) {
+        events.forEach(event -> notify(listener, event));
+        if (events.isEmpty() || !events.getLast().isFinal()) listeners.add(listener);
+    }
+
+    /**
+     * Notifies all listeners about the given event. Listeners are dropped after the final event.
+     *
+     * @param event
+     *         The {@link TransactionEvent} that took place.
+     */
+    synchronized void fire(final TransactionEvent event) {
+        events.add(event);
+        listeners.forEach(listener -> notify(listener, event));
+        if (event.isFinal()) listeners.clear();
+    }
+
+    /**
+     * Notifies a single listener. Failing listeners do not affect the transaction.
+     *
+     * @param listener
+     *         The listener to be notified.
+     * @param event
+     *         The {@link TransactionEvent} that took place.
+     */
+    private void notify(final BiConsumer<TransactionEvent, GraphCode> listener, final TransactionEvent event) {
+        try {
+            listener.accept(event, graphCode);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Listener of transaction [{}] failed on event {}", id, event, e);
+        }
+    }
+
+    // Getter
+
+    String getId() {
+        return id;
+    }
+
+    String getUser() {
+        return user;
+    }
+
+    Priority getPriority() {
+        return priority;
+    }
+
+    GraphCode getGraphCode() {
+        return graphCode;
+    }
+
+    Stage getStage() {
+        return stage.get();
+    }
+
+}
\ No newline at end of file
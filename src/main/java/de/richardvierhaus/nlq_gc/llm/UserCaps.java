@@ -0,0 +1,89 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the running items per user and caps their number. A single instance is shared by the {@link FairQueue}s of
+ * all priorities of a model, so that a user cannot exceed its cap by spreading its items over the priorities.
+ * <p>
+ * The caps are not thread-safe.
+ */
+class UserCaps {
+
+    private final int defaultMaxInFlight;
+    private final Map<String, Integer> maxInFlights;
+    private final Map<String, Integer> inFlight = new HashMap<>();
+
+    /**
+     * Creates new {@link UserCaps}.
+     *
+     * @param defaultMaxInFlight
+     *         The maximum number of running items of users without specific cap. 0 disables the cap.
+     * @param maxInFlights
+     *         The specific caps per user. 0 disables the cap.
+     */
+    UserCaps(final int defaultMaxInFlight, final Map<String, Integer> maxInFlights) {
+        this.defaultMaxInFlight = Math.max(0, defaultMaxInFlight);
+        this.maxInFlights = Map.copyOf(maxInFlights);
+    }
+
+    /**
+     * Creates {@link UserCaps} with the caps configured in the llm.properties. USER_MAX_IN_FLIGHT is the default,
+     * which can be overridden per user, e.g. by USER_MAX_IN_FLIGHT.alice=2.
+     *
+     * @return The configured {@link UserCaps}.
+     */
+    static UserCaps fromProperties() {
+        Map<String, Integer> maxInFlights = new HashMap<>();
+        for (String key : LLMProperties.get().stringPropertyNames()) {
+            if (key.startsWith("USER_MAX_IN_FLIGHT."))
+                maxInFlights.put(key.substring("USER_MAX_IN_FLIGHT.".length()), (int) LLMProperties.getLong(key, 0));
+        }
+        return new UserCaps((int) LLMProperties.getLong("USER_MAX_IN_FLIGHT", 0), maxInFlights);
+    }
+
+    /**
+     * Determines whether the given user runs as many items as its cap allows.
+     *
+     * @param user
+     *         The identification of the user.
+     * @return <code>true</code> in case no further item of the user may be started.
+     */
+    boolean isCapped(final String user) {
+        int maxInFlight = maxInFlights.getOrDefault(user, defaultMaxInFlight);
+        return maxInFlight > 0 && getInFlight(user) >= maxInFlight;
+    }
+
+    /**
+     * Counts a started item of the given user.
+     *
+     * @param user
+     *         The identification of the user.
+     */
+    void start(final String user) {
+        inFlight.merge(user, 1, Integer::sum);
+    }
+
+    /**
+     * Signals that a running item of the given user has finished.
+     *
+     * @param user
+     *         The identification of the user.
+     */
+    void finished(final String user) {
+        inFlight.computeIfPresent(user, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Gives the number of running items of the given user.
+     *
+     * @param user
+     *         The identification of the user.
+     * @return The number of items.
+     */
+    int getInFlight(final String user) {
+        return inFlight.getOrDefault(user, 0);
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,358 @@
+package de.richardvierhaus.nlq_gc.nlq;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import de.richardvierhaus.nlq_gc.GraphCode;
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import de.richardvierhaus.nlq_gc.enums.PromptGraphCode;
+import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
+import de.richardvierhaus.nlq_gc.enums.State;
+import de.richardvierhaus.nlq_gc.llm.AdmissionRejectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs NLQs with known graph codes through the {@link NLQService} for every combination of prompts and models and
+ * measures the latency, the size of the prompts and the accuracy of the resulting graph codes. The NLQs are submitted
+ * with {@link Priority#BULK}, so that an evaluation does not slow down interactive users.
+ */
+public class Evaluation {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Evaluation.class);
+    private static final String DEFAULT_USER = "evaluation";
+
+    private final NLQService service;
+    private final int concurrency;
+    private final long timeoutMillis;
+    private final Gson gson;
+
+    /**
+     * Creates a new {@link Evaluation}.
+     *
+     * @param service
+     *         The {@link NLQService} the NLQs are handled by.
+     * @param concurrency
+     *         The maximum number of NLQs handled at the same time.
+     * @param timeoutMillis
+     *         The maximum time to wait for a single graph code in milliseconds.
+     */
+    public Evaluation(final NLQService service, final int concurrency, final long timeoutMillis) {
+        if (concurrency < 1)
+            throw new UnsupportedOperationException("The concurrency has to be at least 1.");
+        this.service = service;
+        this.concurrency = concurrency;
+        this.timeoutMillis = timeoutMillis;
+        this.gson = new Gson();
+    }
+
+    /**
+     * Reads the NLQs to be evaluated. Each line of the file is a JSON object containing the query and the expected
+     * graph code, e.g. <code>{"query": "...", "user": "...", "dictionary": ["..."], "matrix": [[1]]}</code>. The user
+     * is optional.
+     *
+     * @param path
+     *         The path of the JSONL file.
+     * @return The {@link Item}s in the order of the file.
+     * @throws IOException
+     *         in case the file cannot be read.
+     */
+    public static List<Item> readItems(final Path path) throws IOException {
+        Gson gson = new Gson();
+        List<Item> items = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) continue;
+            Item item = gson.fromJson(line, Item.class);
+            if (item.query() == null || item.dictionary() == null || item.matrix() == null)
+                throw new UnsupportedOperationException(
+                        String.format("Line %d lacks the query or the expected graph code.", items.size() + 1));
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * Handles every NLQ with every combination and writes each result as a line of JSON to the output file as soon as
+     * it is available.
+     *
+     * @param items
+     *         The {@link Item}s to be evaluated.
+     * @param combinations
+     *         The {@link Combination}s of prompts and models to be evaluated.
+     * @param output
+     *         The path of the JSONL file the results are written to.
+     * @return The {@link Result}s in the order of their completion.
+     * @throws IOException
+     *         in case the output file cannot be written.
+     * @throws InterruptedException
+     *         in case the evaluation has been interrupted.
+     */
+    public List<Result> run(final List<Item> items, final List<Combination> combinations, final Path output)
+            throws IOException, InterruptedException {
+        List<Result> results = new ArrayList<>();
+        Semaphore permits = new Semaphore(concurrency);
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            for (Combination combination : combinations) {
+                LOGGER.info("Evaluating {} NLQs with {}", items.size(), combination);
+                for (int index = 0; index < items.size(); index++) {
+                    permits.acquire();
+                    submit(index, items.get(index), combination).whenComplete((result, throwable) -> {
+                        try {
+                            if (throwable != null) {
+                                LOGGER.warn("Evaluation of a NLQ failed", throwable);
+                                return;
+                            }
+                            synchronized (results) {
+                                results.add(result);
+                                write(writer, result);
+                            }
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                }
+            }
+            // all NLQs have finished once every permit is back
+            permits.acquire(concurrency);
+        }
+        return results;
+    }
+
+    /**
+     * Builds a table with a row per combination, containing the share of valid graph codes, the mean and 95th
+     * percentile latency, the mean prompt size and the mean scores.
+     *
+     * @param results
+     *         The {@link Result}s of a run.
+     * @return The formatted table.
+     */
+    public static String summarize(final List<Result> results) {
+        Map<Combination, List<Result>> byCombination = new LinkedHashMap<>();
+        results.stream()
+                .sorted(Comparator.comparing((Result result) -> result.combination().model())
+                        .thenComparing(result -> result.combination().promptGraphCode())
+                        .thenComparing(result -> result.combination().promptKeyword(),
+                                Comparator.nullsFirst(Comparator.naturalOrder())))
+                .forEach(result -> byCombination.computeIfAbsent(result.combination(), c -> new ArrayList<>())
+                        .add(result));
+
+        String format = "%-24s %-16s %-22s %6s %7s %9s %9s %9s %6s %6s%n";
+        StringBuilder table = new StringBuilder(String.format(Locale.ROOT, format, "PROMPT_GRAPH_CODE",
+                "PROMPT_KEYWORD", "MODEL", "ITEMS", "VALID", "MEAN_MS", "P95_MS", "CHARS", "DICT", "MATRIX"));
+        byCombination.forEach((combination, group) -> {
+            long[] latencies = group.stream().mapToLong(Result::latencyMillis).sorted().toArray();
+            table.append(String.format(Locale.ROOT, format, combination.promptGraphCode(),
+                    combination.promptKeyword() == null ? "-" : combination.promptKeyword(), combination.model(),
+                    group.size(),
+                    String.format(Locale.ROOT, "%.1f%%",
+                            100.0 * group.stream().filter(Result::isValid).count() / group.size()),
+                    Math.round(group.stream().mapToLong(Result::latencyMillis).average().orElse(0)),
+                    latencies[Math.max(0, (int) Math.ceil(latencies.length * 0.95) - 1)],
+                    Math.round(group.stream().mapToInt(Result::promptLength).average().orElse(0)),
+                    String.format(Locale.ROOT, "%.3f",
+                            group.stream().mapToDouble(Result::dictionaryScore).average().orElse(0)),
+                    String.format(Locale.ROOT, "%.3f",
+                            group.stream().mapToDouble(Result::matrixScore).average().orElse(0))));
+        });
+        return table.toString();
+    }
+
+    /**
+     * Scores the dictionary of a graph code by the Jaccard similarity of its terms to the expected ones. Terms are
+     * compared regardless of case and surrounding whitespace.
+     *
+     * @param expected
+     *         The expected dictionary.
+     * @param actual
+     *         The dictionary of the resulting graph code.
+     * @return A score between 0 and 1.
+     */
+    static double scoreDictionary(final List<String> expected, final List<String> actual) {
+        List<String> expectedTerms = expected.stream().map(Evaluation::normalize).distinct().toList();
+        List<String> actualTerms = actual == null ? List.of() : actual.stream().map(Evaluation::normalize).distinct()
+                .toList();
+        if (expectedTerms.isEmpty() && actualTerms.isEmpty()) return 1;
+        long intersection = actualTerms.stream().filter(expectedTerms::contains).count();
+        return (double) intersection / (expectedTerms.size() + actualTerms.size() - intersection);
+    }
+
+    /**
+     * Scores the matrix of a graph code by the share of cells of the expected matrix which are met. The cells are
+     * compared by the terms of their row and column, so that the order of the dictionary does not matter. Cells of
+     * terms missing in the resulting graph code count as 0.
+     *
+     * @param expectedDictionary
+     *         The expected dictionary.
+     * @param expectedMatrix
+     *         The expected matrix.
+     * @param actualDictionary
+     *         The dictionary of the resulting graph code.
+     * @param actualMatrix
+     *         The matrix of the resulting graph code.
+     * @return A score between 0 and 1.
+     */
+    static double scoreMatrix(final List<String> expectedDictionary, final int[][] expectedMatrix,
+                              final List<String> actualDictionary, final int[][] actualMatrix) {
+        if (expectedDictionary.isEmpty()) return 1;
+        Map<String, Integer> actualIndices = new HashMap<>();
+        if (actualDictionary != null && actualMatrix != null)
+            for (int i = 0; i < actualDictionary.size(); i++)
+                actualIndices.putIfAbsent(normalize(actualDictionary.get(i)), i);
+
+        int matches = 0;
+        int size = expectedDictionary.size();
+        for (int row = 0; row < size; row++) {
+            Integer actualRow = actualIndices.get(normalize(expectedDictionary.get(row)));
+            for (int column = 0; column < size; column++) {
+                Integer actualColumn = actualIndices.get(normalize(expectedDictionary.get(column)));
+                int actual = actualRow == null || actualColumn == null ? 0
+                        : getCell(actualMatrix, actualRow, actualColumn);
+                if (getCell(expectedMatrix, row, column) == actual) matches++;
+            }
+        }
+        return (double) matches / (size * size);
+    }
+
+    /**
+     * Submits a NLQ and scores its graph code once it is available. Rejections due to the load of the model are
+     * retried after the given time.
+     */
+    private CompletableFuture<Result> submit(final int index, final Item item, final Combination combination)
+            throws InterruptedException {
+        NLQ nlq = new NLQ(item.query(), item.user() == null ? DEFAULT_USER : item.user(),
+                combination.promptKeyword(), combination.promptGraphCode(), combination.model(), Priority.BULK);
+        int promptLength = service.getPromptLength(nlq);
+        while (true) {
+            long start = System.currentTimeMillis();
+            try {
+                String transactionId = service.handleNLQ(nlq.query(), nlq.user(), nlq.promptKeyword(),
+                        nlq.promptGraphCode(), nlq.model(), nlq.priority());
+                return service.awaitGraphCode(transactionId, timeoutMillis)
+                        .thenApply(graphCode -> score(index, item, combination, graphCode,
+                                System.currentTimeMillis() - start, promptLength));
+            } catch (AdmissionRejectedException e) {
+                LOGGER.info("Model {} is busy, retrying in {} seconds", combination.model(),
+                        e.getRetryAfterSeconds());
+                Thread.sleep(e.getRetryAfterSeconds() * 1000);
+            }
+        }
+    }
+
+    private static Result score(final int index, final Item item, final Combination combination,
+                                final GraphCode graphCode, final long latencyMillis, final int promptLength) {
+        if (graphCode.getState() != State.FINISHED) {
+            String error = graphCode.getState() == State.PENDING ? "Timeout" : graphCode.getError();
+            return new Result(index, item.query(), combination, graphCode.getState(), latencyMillis, promptLength,
+                    0, 0, error);
+        }
+        return new Result(index, item.query(), combination, graphCode.getState(), latencyMillis, promptLength,
+                scoreDictionary(item.dictionary(), graphCode.getDictionary()),
+                scoreMatrix(item.dictionary(), item.matrix(), graphCode.getDictionary(), graphCode.getMatrix()),
+                null);
+    }
+
+    private void write(final BufferedWriter writer, final Result result) {
+        JsonObject json = new JsonObject();
+        json.addProperty("index", result.index());
+        json.addProperty("query", result.query());
+        json.addProperty("promptGraphCode", result.combination().promptGraphCode().name());
+        if (result.combination().promptKeyword() != null)
+            json.addProperty("promptKeyword", result.combination().promptKeyword().name());
+        json.addProperty("model", result.combination().model().name());
+        json.addProperty("state", result.state().name());
+        json.addProperty("latencyMillis", result.latencyMillis());
+        json.addProperty("promptLength", result.promptLength());
+        json.addProperty("dictionaryScore", result.dictionaryScore());
+        json.addProperty("matrixScore", result.matrixScore());
+        if (result.error() != null) json.addProperty("error", result.error());
+        try {
+            writer.write(gson.toJson(json));
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int getCell(final int[][] matrix, final int row, final int column) {
+        if (row >= matrix.length || column >= matrix[row].length) return 0;
+        return matrix[row][column];
+    }
+
+    private static String normalize(final String term) {
+        return term == null ? "" : term.strip().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A NLQ together with its expected graph code.
+     */
+    public record Item(String query, String user, List<String> dictionary, int[][] matrix) {
+
+    }
+
+    /**
+     * A combination of prompts and a model to be evaluated. The keyword prompt is only set, if the graph code prompt
+     * requires keywords.
+     */
+    public record Combination(PromptGraphCode promptGraphCode, PromptKeyword promptKeyword, ModelLiterals model) {
+
+        /**
+         * Builds all combinations of the given prompts and models. Keyword prompts are only combined with graph code
+         * prompts requiring keywords.
+         *
+         * @param promptGraphCodes
+         *         The {@link PromptGraphCode}s to be evaluated.
+         * @param promptKeywords
+         *         The {@link PromptKeyword}s to be evaluated.
+         * @param models
+         *         The {@link ModelLiterals} to be evaluated.
+         * @return The {@link Combination}s.
+         */
+        public static List<Combination> of(final List<PromptGraphCode> promptGraphCodes,
+                                           final List<PromptKeyword> promptKeywords,
+                                           final List<ModelLiterals> models) {
+            List<Combination> combinations = new ArrayList<>();
+            for (ModelLiterals model : models) {
+                for (PromptGraphCode promptGraphCode : promptGraphCodes) {
+                    if (!promptGraphCode.requiresKeywords()) {
+                        combinations.add(new Combination(promptGraphCode, null, model));
+                        continue;
+                    }
+                    for (PromptKeyword promptKeyword : promptKeywords)
+                        combinations.add(new Combination(promptGraphCode, promptKeyword, model));
+                }
+            }
+            return combinations;
+        }
+
+    }
+
+    /**
+     * The outcome of a single NLQ with a single combination.
+     */
+    public record Result(int index, String query, Combination combination, State state, long latencyMillis,
+                         int promptLength, double dictionaryScore, double matrixScore, String error) {
+
+        public boolean isValid() {
+            return state == State.FINISHED;
+        }
+
+    }
+
+}
\ No newline at end of file
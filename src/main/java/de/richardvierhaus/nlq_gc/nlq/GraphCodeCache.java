@@ -0,0 +1,197 @@
+package de.richardvierhaus.nlq_gc.nlq;
+
+import de.richardvierhaus.nlq_gc.GraphCode;
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.PromptGraphCode;
+import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
+import de.richardvierhaus.nlq_gc.enums.Replacement;
+import de.richardvierhaus.nlq_gc.enums.State;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Caches finished graph codes of NLQs, so that identical NLQs are not sent to the LLM again. The cache is bounded by
+ * the number of entries and their estimated size in bytes. The least recently used entries are evicted first and
+ * entries expire after a fixed time.
+ */
+public class GraphCodeCache {
+
+    private static final int ENTRY_OVERHEAD = 256; // estimated bytes of key, entry and graph code objects
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final boolean normalizeQuery;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * Creates a new {@link GraphCodeCache}.
+     *
+     * @param maxEntries
+     *         The maximum number of cached graph codes. <code>0</code> disables the cache.
+     * @param maxBytes
+     *         The maximum estimated size of all cached graph codes in bytes.
+     * @param ttlMillis
+     *         The time in milliseconds a graph code is cached.
+     * @param normalizeQuery
+     *         Whether queries differing only in whitespace and case are treated as identical.
+     */
+    public GraphCodeCache(final int maxEntries, final long maxBytes, final long ttlMillis,
+                          final boolean normalizeQuery) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        this.normalizeQuery = normalizeQuery;
+    }
+
+    /**
+     * Builds the key of an NLQ. The user is only part of the key in case one of the prompts contains it.
+     *
+     * @param query
+     *         The NLQ.
+     * @param user
+     *         The identification of the user.
+     * @param promptKeyword
+     *         The {@link PromptKeyword} to be used. <code>null</code> in case no keywords are extracted.
+     * @param promptGraphCode
+     *         The {@link PromptGraphCode} to be used.
+     * @param model
+     *         The {@link ModelLiterals} instance to be used.
+     * @param encodingVersion
+     *         The version of the encoding mappings the prompts are built with.
+     * @return The {@link Key} of the NLQ.
+     */
+    public Key createKey(final String query, final String user, final PromptKeyword promptKeyword,
+                         final PromptGraphCode promptGraphCode, final ModelLiterals model,
+                         final long encodingVersion) {
+        return new Key(normalizeQuery ? normalize(query) : query, requiresUser(promptKeyword, promptGraphCode) ? user : null,
+                promptKeyword, promptGraphCode, model, encodingVersion);
+    }
+
+    /**
+     * Gives the cached graph code of the given key.
+     *
+     * @param key
+     *         The {@link Key} of the NLQ.
+     * @return The cached {@link GraphCode} or <code>null</code> in case there is none.
+     */
+    public synchronized GraphCode get(final Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (entry.expires() < System.currentTimeMillis()) {
+            remove(key);
+            return null;
+        }
+        return entry.graphCode();
+    }
+
+    /**
+     * Caches the given graph code. Only successfully finished graph codes are cached.
+     *
+     * @param key
+     *         The {@link Key} of the NLQ.
+     * @param graphCode
+     *         The finished {@link GraphCode}.
+     */
+    public synchronized void put(final Key key, final GraphCode graphCode) {
+        if (maxEntries <= 0 || graphCode.getState() != State.FINISHED) return;
+
+        long weight = estimateBytes(key, graphCode);
+        if (weight > maxBytes) return;
+
+        remove(key);
+        entries.put(key, new Entry(graphCode, weight, System.currentTimeMillis() + ttlMillis));
+        bytes += weight;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+            bytes -= iterator.next().bytes();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all cached graph codes.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Gives the number of cached graph codes.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gives the estimated size of all cached graph codes.
+     *
+     * @return The size in bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private void remove(final Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) bytes -= entry.bytes();
+    }
+
+    /**
+     * Folds the case of the query and collapses whitespace.
+     *
+     * @param query
+     *         The NLQ.
+     * @return The normalized query.
+     */
+    static String normalize(final String query) {
+        return query.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean requiresUser(final PromptKeyword promptKeyword, final PromptGraphCode promptGraphCode) {
+        return promptGraphCode.getRequiredReplacements().contains(Replacement.USER)
+                || promptKeyword != null && promptKeyword.getRequiredReplacements().contains(Replacement.USER);
+    }
+
+    /**
+     * Estimates the memory required by an entry.
+     *
+     * @param key
+     *         The {@link Key} of the entry.
+     * @param graphCode
+     *         The cached {@link GraphCode}.
+     * @return The estimated size in bytes.
+     */
+    private static long estimateBytes(final Key key, final GraphCode graphCode) {
+        long weight = ENTRY_OVERHEAD + 2L * key.query().length();
+        if (key.user() != null) weight += 2L * key.user().length();
+        List<String> dictionary = graphCode.getDictionary();
+        if (dictionary != null) for (String term : dictionary) weight += 48 + 2L * term.length();
+        int[][] matrix = graphCode.getMatrix();
+        if (matrix != null) for (int[] row : matrix) weight += 16 + 4L * row.length;
+        if (graphCode.getDescription() != null) weight += 2L * graphCode.getDescription().length();
+        return weight;
+    }
+
+    /**
+     * Identifies an NLQ by everything its prompts are built from.
+     */
+    public record Key(String query, String user, PromptKeyword promptKeyword, PromptGraphCode promptGraphCode,
+                      ModelLiterals model, long encodingVersion) {
+
+    }
+
+    private record Entry(GraphCode graphCode, long bytes, long expires) {
+
+    }
+
+}
\ No newline at end of file
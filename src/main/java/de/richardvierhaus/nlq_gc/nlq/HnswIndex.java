@@ -0,0 +1,280 @@
+package de.richardvierhaus.nlq_gc.nlq;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * An approximate nearest neighbour index based on a hierarchical navigable small world graph. The vectors are
+ * expected to be normalized, so that the dot product equals their cosine similarity. Removed vectors are only marked
+ * as deleted and keep serving as routing points until the index is rebuilt.
+ *
+ * @param <T>
+ *         The type of the values stored together with the vectors.
+ */
+class HnswIndex<T> {
+
+    private static final int M = 16;
+    private static final int MAX_M0 = 2 * M;
+    private static final int EF_CONSTRUCTION = 100;
+    private static final int EF_SEARCH = 50;
+    private static final double LEVEL_MULTIPLIER = 1 / Math.log(M);
+
+    private final Random random;
+    private List<Node<T>> nodes = new ArrayList<>();
+    private Node<T> entryPoint;
+    private int deleted;
+    private int oldest;
+
+    HnswIndex() {
+        this(new Random());
+    }
+
+    /**
+     * Creates a new {@link HnswIndex}.
+     *
+     * @param random
+     *         The {@link Random} used to draw the levels of new nodes.
+     */
+    HnswIndex(final Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Adds a vector to the index.
+     *
+     * @param vector
+     *         The normalized vector.
+     * @param value
+     *         The value stored together with the vector.
+     * @return The id of the new node, valid until the next call of this method.
+     */
+    int add(final float[] vector, final T value) {
+        if (deleted > size()) rebuild();
+
+        int level = (int) (-Math.log(1 - random.nextDouble()) * LEVEL_MULTIPLIER);
+        Node<T> node = new Node<>(nodes.size(), vector, value, level);
+        nodes.add(node);
+        if (entryPoint == null) {
+            entryPoint = node;
+            return node.id;
+        }
+
+        Node<T> closest = entryPoint;
+        for (int lc = entryPoint.level; lc > level; lc--)
+            closest = searchLayer(vector, closest, 1, lc).peek().node();
+
+        for (int lc = Math.min(level, entryPoint.level); lc >= 0; lc--) {
+            PriorityQueue<Candidate<T>> found = searchLayer(vector, closest, EF_CONSTRUCTION, lc);
+            List<Candidate<T>> neighbours = new ArrayList<>(found);
+            neighbours.sort(Comparator.comparingDouble(Candidate<T>::similarity).reversed());
+            closest = neighbours.getFirst().node();
+
+            for (Candidate<T> neighbour : neighbours.subList(0, Math.min(M, neighbours.size()))) {
+                node.connect(lc, neighbour.node().id);
+                connect(neighbour.node(), node, lc);
+            }
+        }
+        if (level > entryPoint.level) entryPoint = node;
+        return node.id;
+    }
+
+    /**
+     * Searches the nearest vectors to the given one, ignoring deleted nodes.
+     *
+     * @param vector
+     *         The normalized query vector.
+     * @param k
+     *         The maximum number of results.
+     * @return The found {@link Result}s ordered by descending similarity.
+     */
+    List<Result<T>> search(final float[] vector, final int k) {
+        List<Result<T>> results = new ArrayList<>();
+        if (entryPoint == null) return results;
+
+        Node<T> closest = entryPoint;
+        for (int lc = entryPoint.level; lc > 0; lc--)
+            closest = searchLayer(vector, closest, 1, lc).peek().node();
+
+        List<Candidate<T>> found = new ArrayList<>(searchLayer(vector, closest, Math.max(EF_SEARCH, k), 0));
+        found.sort(Comparator.comparingDouble(Candidate<T>::similarity).reversed());
+        for (Candidate<T> candidate : found) {
+            if (results.size() == k) break;
+            if (!candidate.node().deleted)
+                results.add(new Result<>(candidate.node().id, candidate.node().value, candidate.similarity()));
+        }
+        return results;
+    }
+
+    /**
+     * Marks the node with the given id as deleted.
+     *
+     * @param id
+     *         The id of the node.
+     */
+    void remove(final int id) {
+        Node<T> node = nodes.get(id);
+        if (node.deleted) return;
+        node.deleted = true;
+        deleted++;
+    }
+
+    /**
+     * Marks the least recently added node as deleted.
+     */
+    void removeOldest() {
+        while (oldest < nodes.size() && nodes.get(oldest).deleted) oldest++;
+        if (oldest < nodes.size()) remove(oldest);
+    }
+
+    /**
+     * Gives the number of nodes which are not deleted.
+     *
+     * @return The number of nodes.
+     */
+    int size() {
+        return nodes.size() - deleted;
+    }
+
+    /**
+     * Rebuilds the graph from the nodes which are not deleted, keeping their order.
+     */
+    private void rebuild() {
+        List<Node<T>> live = nodes.stream().filter(node -> !node.deleted).toList();
+        nodes = new ArrayList<>();
+        entryPoint = null;
+        deleted = 0;
+        oldest = 0;
+        for (Node<T> node : live) add(node.vector, node.value);
+    }
+
+    /**
+     * Adds an edge from the given node and prunes its neighbours to the closest ones in case there are too many.
+     *
+     * @param from
+     *         The {@link Node} the edge starts at.
+     * @param to
+     *         The {@link Node} the edge points to.
+     * @param level
+     *         The level of the edge.
+     */
+    private void connect(final Node<T> from, final Node<T> to, final int level) {
+        from.connect(level, to.id);
+        int maxM = level == 0 ? MAX_M0 : M;
+        if (from.counts[level] <= maxM) return;
+
+        List<Candidate<T>> neighbours = new ArrayList<>();
+        for (int i = 0; i < from.counts[level]; i++) {
+            Node<T> neighbour = nodes.get(from.neighbours[level][i]);
+            neighbours.add(new Candidate<>(neighbour, dot(from.vector, neighbour.vector)));
+        }
+        neighbours.sort(Comparator.comparingDouble(Candidate<T>::similarity).reversed());
+        from.counts[level] = 0;
+        for (int i = 0; i < maxM; i++) from.connect(level, neighbours.get(i).node().id);
+    }
+
+    /**
+     * Greedily searches the nearest nodes on a single level of the graph.
+     *
+     * @param vector
+     *         The normalized query vector.
+     * @param start
+     *         The {@link Node} the search starts at.
+     * @param ef
+     *         The number of nearest nodes to be kept.
+     * @param level
+     *         The level to be searched.
+     * @return The nearest nodes with the least similar one at the head of the queue.
+     */
+    private PriorityQueue<Candidate<T>> searchLayer(final float[] vector, final Node<T> start, final int ef,
+                                                    final int level) {
+        BitSet visited = new BitSet(nodes.size());
+        PriorityQueue<Candidate<T>> candidates =
+                new PriorityQueue<>(Comparator.comparingDouble(Candidate<T>::similarity).reversed());
+        PriorityQueue<Candidate<T>> found = new PriorityQueue<>(Comparator.comparingDouble(Candidate<T>::similarity));
+
+        Candidate<T> first = new Candidate<>(start, dot(vector, start.vector));
+        visited.set(start.id);
+        candidates.add(first);
+        found.add(first);
+
+        while (!candidates.isEmpty()) {
+            Candidate<T> current = candidates.poll();
+            if (current.similarity() < found.peek().similarity() && found.size() >= ef) break;
+
+            Node<T> node = current.node();
+            for (int i = 0; i < node.counts[level]; i++) {
+                int id = node.neighbours[level][i];
+                if (visited.get(id)) continue;
+                visited.set(id);
+
+                Node<T> neighbour = nodes.get(id);
+                float similarity = dot(vector, neighbour.vector);
+                if (found.size() < ef || similarity > found.peek().similarity()) {
+                    Candidate<T> candidate = new Candidate<>(neighbour, similarity);
+                    candidates.add(candidate);
+                    found.add(candidate);
+                    if (found.size() > ef) found.poll();
+                }
+            }
+        }
+        return found;
+    }
+
+    private static float dot(final float[] a, final float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    /**
+     * A vector of the index together with its edges on each level.
+     */
+    private static final class Node<T> {
+
+        private final int id;
+        private final float[] vector;
+        private final T value;
+        private final int level;
+        private final int[][] neighbours;
+        private final int[] counts;
+        private boolean deleted;
+
+        private Node(final int id, final float[] vector, final T value, final int level) {
+            this.id = id;
+            this.vector = vector;
+            this.value = value;
+            this.level = level;
+            this.neighbours = new int[level + 1][];
+            this.counts = new int[level + 1];
+            for (int lc = 0; lc <= level; lc++) neighbours[lc] = new int[(lc == 0 ? MAX_M0 : M) + 1];
+        }
+
+        private void connect(final int level, final int id) {
+            neighbours[level][counts[level]++] = id;
+        }
+
+    }
+
+    private record Candidate<T>(Node<T> node, float similarity) {
+
+    }
+
+    /**
+     * A value found by a search.
+     *
+     * @param id
+     *         The id of the node, valid until the next vector is added.
+     * @param value
+     *         The value stored together with the vector.
+     * @param similarity
+     *         The cosine similarity to the query vector.
+     */
+    record Result<T>(int id, T value, float similarity) {
+
+    }
+
+}
\ No newline at end of file
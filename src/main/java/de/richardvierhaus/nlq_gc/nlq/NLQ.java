@@ -0,0 +1,14 @@
+package de.richardvierhaus.nlq_gc.nlq;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import de.richardvierhaus.nlq_gc.enums.PromptGraphCode;
+import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
+
+/**
+ * A NLQ together with the prompts, the model and the priority it is handled with.
+ */
+public record NLQ(String query, String user, PromptKeyword promptKeyword, PromptGraphCode promptGraphCode,
+                  ModelLiterals model, Priority priority) {
+
+}
\ No newline at end of file
@@ -1,20 +1,41 @@
 package de.richardvierhaus.nlq_gc.nlq;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import de.richardvierhaus.nlq_gc.GraphCode;
 import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
 import de.richardvierhaus.nlq_gc.enums.PromptGraphCode;
 import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
+import de.richardvierhaus.nlq_gc.enums.TransactionEvent;
+import de.richardvierhaus.nlq_gc.llm.AdmissionRejectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("")
 public class NLQController {
 
+    private static final long MAX_WAIT = 25000; // below the default async request timeout of the servlet container
+    private static final long STREAM_TIMEOUT = 300000; // 5 minutes, the timeout of pending transactions
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final Logger LOGGER = LoggerFactory.getLogger(NLQController.class);
     private final NLQService service;
     private final Gson gson;
 
@@ -36,13 +57,166 @@ public class NLQController {
      *         The key of the prompt for graph code generation. If <code>null</code>, a default is taken.
      * @param model
      *         The key of the LLM. If <code>null</code>, a default is taken.
+     * @param priority
+     *         The key of the {@link Priority}, e.g. BULK for background jobs. If <code>null</code>, a default is
+     *         taken.
      * @return A transactionId which can be used to poll the resulting graph code.
+     * @throws AdmissionRejectedException
+     *         in case the model is working at its limit. Answered with HTTP 429.
      */
     @PostMapping("/handleNLQ")
     public String handleNLQ(@RequestParam final String query, @RequestParam final String user,
                             @RequestParam final Optional<String> promptKeyword,
                             @RequestParam final Optional<String> promptGC,
-                            @RequestParam final Optional<String> model) {
+                            @RequestParam final Optional<String> model,
+                            @RequestParam final Optional<String> priority) {
+        final NLQ nlq = parseNLQ(query, user, promptKeyword, promptGC, model, priority);
+        final String transactionId = service.handleNLQ(nlq.query(), nlq.user(), nlq.promptKeyword(),
+                nlq.promptGraphCode(), nlq.model(), nlq.priority());
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("transactionId", transactionId);
+        return gson.toJson(jsonObject);
+    }
+
+    /**
+     * Takes many NLQs at once, e.g. of a re-indexing job. Each NLQ is a JSON object with the fields of
+     * {@link #handleNLQ(String, String, Optional, Optional, Optional, Optional)}, of which only query and user are
+     * required. NLQs rejected due to the load of their model get a transactionId of an erroneous graph code instead
+     * of failing the whole batch.
+     *
+     * @param nlqs
+     *         A JSON array of NLQs.
+     * @return A JSON array of transactionIds in the order of the NLQs.
+     */
+    @PostMapping("/handleNLQ/batch")
+    public String handleNLQs(@RequestBody final String nlqs) {
+        JsonArray array = parseArray(nlqs);
+        List<NLQ> parsed = new ArrayList<>(array.size());
+        for (JsonElement element : array) {
+            if (!element.isJsonObject())
+                throw new UnsupportedOperationException("Each NLQ has to be a JSON object.");
+            JsonObject object = element.getAsJsonObject();
+            parsed.add(parseNLQ(getString(object, "query").orElse(null), getString(object, "user").orElse(null),
+                    getString(object, "promptKeyword"), getString(object, "promptGC"), getString(object, "model"),
+                    getString(object, "priority")));
+        }
+        return gson.toJson(service.handleNLQs(parsed));
+    }
+
+    /**
+     * Checks whether the execution of the prompt with the given transactionId is finished and gives the resulting graph
+     * code.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @return The graph code.
+     */
+    @GetMapping("/graphCode")
+    public GraphCode getGraphCode(@RequestParam final String transactionId) {
+        if (!StringUtils.hasText(transactionId))
+            throw new UnsupportedOperationException("No transactionId has been provided.");
+        return service.getGraphCode(transactionId);
+    }
+
+    /**
+     * Gives the graph codes of many transactions at once, pending ones included.
+     *
+     * @param transactionIds
+     *         A JSON array of transactionIds.
+     * @return The graph codes in the order of the transactionIds.
+     */
+    @PostMapping("/graphCode/batch")
+    public List<GraphCode> getGraphCodes(@RequestBody final String transactionIds) {
+        JsonArray array = parseArray(transactionIds);
+        List<String> parsed = new ArrayList<>(array.size());
+        for (JsonElement element : array) {
+            if (!element.isJsonPrimitive() || !StringUtils.hasText(element.getAsString()))
+                throw new UnsupportedOperationException("Each transactionId has to be a non-empty string.");
+            parsed.add(element.getAsString());
+        }
+        return service.getGraphCodes(parsed);
+    }
+
+    /**
+     * Waits for the execution of the prompt with the given transactionId to be finished and gives the resulting graph
+     * code. The request is answered as soon as the graph code is finished or the waiting time is over, whichever comes
+     * first.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @param wait
+     *         The maximum time to wait in milliseconds. Values above 25 seconds are reduced.
+     * @return The graph code.
+     */
+    @GetMapping(value = "/graphCode", params = "wait")
+    public CompletableFuture<GraphCode> awaitGraphCode(@RequestParam final String transactionId,
+                                                       @RequestParam final long wait) {
+        if (!StringUtils.hasText(transactionId))
+            throw new UnsupportedOperationException("No transactionId has been provided.");
+        if (wait < 0)
+            throw new UnsupportedOperationException("The waiting time must not be negative.");
+        return service.awaitGraphCode(transactionId, Math.min(wait, MAX_WAIT));
+    }
+
+    /**
+     * Streams the progress of the transaction with the given transactionId as server-sent events. Each event is named
+     * after the {@link TransactionEvent} and contains the current graph code. The stream is closed after the event
+     * FINISHED or REMOVED.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @return The {@link SseEmitter} of the stream.
+     */
+    @GetMapping("/graphCode/stream")
+    public SseEmitter streamGraphCode(@RequestParam final String transactionId) {
+        if (!StringUtils.hasText(transactionId))
+            throw new UnsupportedOperationException("No transactionId has been provided.");
+
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT);
+        if (!service.subscribe(transactionId, (event, graphCode) -> send(emitter, event, graphCode)))
+            send(emitter, TransactionEvent.REMOVED, GraphCode.getNotAvailable());
+        return emitter;
+    }
+
+    /**
+     * Answers NLQs which have been rejected due to the load of the model with HTTP 429 and the estimated time until a
+     * retry might be accepted.
+     *
+     * @param e
+     *         The {@link AdmissionRejectedException}.
+     * @return The response containing the error.
+     */
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public ResponseEntity<String> handleAdmissionRejected(final AdmissionRejectedException e) {
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("error", e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(gson.toJson(jsonObject));
+    }
+
+    /**
+     * Validates a NLQ and resolves its parameters. Missing or unknown keys are replaced by defaults.
+     *
+     * @param query
+     *         The NLQ.
+     * @param user
+     *         The identification of the user.
+     * @param promptKeyword
+     *         The key of the prompt for keyword extraction.
+     * @param promptGC
+     *         The key of the prompt for graph code generation.
+     * @param model
+     *         The key of the LLM.
+     * @param priority
+     *         The key of the {@link Priority}.
+     * @return The resolved {@link NLQ}.
+     * @throws UnsupportedOperationException
+     *         in case the query or the user is missing.
+     */
+    private NLQ parseNLQ(final String query, final String user, final Optional<String> promptKeyword,
+                         final Optional<String> promptGC, final Optional<String> model,
+                         final Optional<String> priority) {
         if (!StringUtils.hasText(query))
             throw new UnsupportedOperationException("No query has been provided.");
         if (!StringUtils.hasText(user))
@@ -74,25 +248,64 @@ public class NLQController {
             modelLiteral = ModelLiterals.getDefault();
         }
 
-        final String transactionId = service.handleNLQ(query, user, keywordPrompt, gcPrompt, modelLiteral);
-        JsonObject jsonObject = new JsonObject();
-        jsonObject.addProperty("transactionId", transactionId);
-        return gson.toJson(jsonObject);
+        // Preparation of the priority
+        Priority priorityLiteral;
+        try {
+            priorityLiteral = Priority.valueOf(priority.orElse(null));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            priorityLiteral = Priority.getDefault();
+        }
+
+        return new NLQ(query, user, keywordPrompt, gcPrompt, modelLiteral, priorityLiteral);
     }
 
     /**
-     * Checks whether the execution of the prompt with the given transactionId is finished and gives the resulting graph
-     * code.
+     * Parses the body of a batch request.
      *
-     * @param transactionId
-     *         The transactions' id.
-     * @return The graph code.
+     * @param json
+     *         The JSON array.
+     * @return The parsed {@link JsonArray}.
+     * @throws UnsupportedOperationException
+     *         in case the body is no JSON array or exceeds the maximum batch size.
      */
-    @GetMapping("/graphCode")
-    public GraphCode getGraphCode(@RequestParam final String transactionId) {
-        if (!StringUtils.hasText(transactionId))
-            throw new UnsupportedOperationException("No transactionId has been provided.");
-        return service.getGraphCode(transactionId);
+    private JsonArray parseArray(final String json) {
+        JsonArray array;
+        try {
+            array = JsonParser.parseString(json).getAsJsonArray();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new UnsupportedOperationException("The body has to be a JSON array.");
+        }
+        if (array.size() > MAX_BATCH_SIZE)
+            throw new UnsupportedOperationException(
+                    String.format("A batch must not contain more than %d entries.", MAX_BATCH_SIZE));
+        return array;
+    }
+
+    private static Optional<String> getString(final JsonObject object, final String name) {
+        JsonElement element = object.get(name);
+        if (element == null || !element.isJsonPrimitive()) return Optional.empty();
+        return Optional.of(element.getAsString());
+    }
+
+    /**
+     * Sends a single event to the client and closes the stream after the final one.
+     *
+     * @param emitter
+     *         The {@link SseEmitter} of the stream.
+     * @param event
+     *         The {@link TransactionEvent} to be sent.
+     * @param graphCode
+     *         The current {@link GraphCode} of the transaction.
+     */
+    private void send(final SseEmitter emitter, final TransactionEvent event, final GraphCode graphCode) {
+        try {
+            emitter.send(SseEmitter.event().name(event.name()).data(graphCode));
+            if (event.isFinal()) emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            // the client closed the stream
+            LOGGER.debug("Could not send event {}", event, e);
+            emitter.completeWithError(e);
+        }
     }
 
 }
\ No newline at end of file
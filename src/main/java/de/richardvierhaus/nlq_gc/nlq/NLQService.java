@@ -3,22 +3,55 @@ package de.richardvierhaus.nlq_gc.nlq;
 import de.richardvierhaus.nlq_gc.GraphCode;
 import de.richardvierhaus.nlq_gc.encoding.EncodingService;
 import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import de.richardvierhaus.nlq_gc.enums.Prompt;
 import de.richardvierhaus.nlq_gc.enums.PromptGraphCode;
 import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
 import de.richardvierhaus.nlq_gc.enums.Replacement;
+import de.richardvierhaus.nlq_gc.enums.TransactionEvent;
+import de.richardvierhaus.nlq_gc.llm.AdmissionRejectedException;
 import de.richardvierhaus.nlq_gc.llm.AsyncLLMService;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
 @Service
 public class NLQService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(NLQService.class);
+
     private final AsyncLLMService llmService;
+    private final GraphCodeCache cache;
+    private final SemanticCache semanticCache;
     private EncodingService encodingService;
+    private long cachedEncodingVersion;
 
     public NLQService() {
+        this(1000, 16777216, 3600000, true, 0, 3600000, 0.9);
+    }
+
+    @Autowired
+    public NLQService(@Value("${nlq.cache.max-entries:1000}") final int cacheMaxEntries,
+                      @Value("${nlq.cache.max-bytes:16777216}") final long cacheMaxBytes,
+                      @Value("${nlq.cache.ttl-ms:3600000}") final long cacheTtl,
+                      @Value("${nlq.cache.normalize-query:true}") final boolean cacheNormalizeQuery,
+                      @Value("${nlq.semantic-cache.max-entries:0}") final int semanticCacheMaxEntries,
+                      @Value("${nlq.semantic-cache.ttl-ms:3600000}") final long semanticCacheTtl,
+                      @Value("${nlq.semantic-cache.threshold:0.9}") final double semanticCacheThreshold) {
         llmService = AsyncLLMService.getInstance();
+        cache = new GraphCodeCache(cacheMaxEntries, cacheMaxBytes, cacheTtl, cacheNormalizeQuery);
+        semanticCache = new SemanticCache(semanticCacheMaxEntries, semanticCacheTtl, semanticCacheThreshold);
     }
 
     @PostConstruct
@@ -33,7 +66,8 @@ public class NLQService {
 
     /**
      * Takes a NLQ, builds the prompts and calls the LLM to execute them. A transactionId is generated, stored and
-     * returned to manage the NLQs session.
+     * returned to manage the NLQs session. In case the same or a sufficiently similar NLQ has been finished before
+     * with the current encoding mappings, the cached graph code is handed out without calling the LLM.
      *
      * @param query
      *         The NLQ.
@@ -45,24 +79,148 @@ public class NLQService {
      *         The {@link PromptGraphCode} to be used.
      * @param model
      *         The {@link ModelLiterals} instance to be used.
+     * @param priority
+     *         The {@link Priority} the prompts are dispatched with.
      * @return A transactionId which can be used to poll the resulting graph code.
      */
     protected String handleNLQ(final String query, final String user, final PromptKeyword promptKeyword,
-                               final PromptGraphCode promptGraphCode, final ModelLiterals model) {
-        PromptBuilder promptBuilderGC = new PromptBuilder(promptGraphCode);
-        promptBuilderGC.replaceIfRequired(Replacement.QUERY, query)
-                .replaceIfRequired(Replacement.USER, user)
-                .replaceIfRequired(Replacement.ENCODING, getEncodingService().getEncodingMappingsAsString());
-
-        if (promptGraphCode.requiresKeywords()) {
-            PromptBuilder promptBuilderKeyword = new PromptBuilder(promptKeyword);
-            promptBuilderKeyword.replaceIfRequired(Replacement.QUERY, query)
-                    .replaceIfRequired(Replacement.USER, user)
-                    .replaceIfRequired(Replacement.ENCODING, getEncodingService().getEncodingMappingsAsString());
-
-            return llmService.addKeywordPrompt(promptBuilderKeyword.toString(), model, promptBuilderGC);
+                               final PromptGraphCode promptGraphCode, final ModelLiterals model,
+                               final Priority priority) {
+        return handleNLQ(new NLQ(query, user, promptKeyword, promptGraphCode, model, priority), getEncodingVersion(),
+                new Preparation());
+    }
+
+    /**
+     * Takes many NLQs at once, e.g. of a re-indexing job, and handles each of them like
+     * {@link #handleNLQ(String, String, PromptKeyword, PromptGraphCode, ModelLiterals, Priority)}. The encoding
+     * mappings are looked up and each prompt is read only once for the whole batch. NLQs which cannot be handled, e.g.
+     * as they are rejected due to the load of their model, do not fail the batch, but get a transactionId of an
+     * erroneous graph code. So there is always one transactionId per NLQ.
+     *
+     * @param nlqs
+     *         The {@link NLQ}s to be handled.
+     * @return The transactionIds in the order of the NLQs.
+     */
+    protected List<String> handleNLQs(final List<NLQ> nlqs) {
+        final long encodingVersion = getEncodingVersion();
+        final Preparation preparation = new Preparation();
+        List<String> transactionIds = new ArrayList<>(nlqs.size());
+        for (NLQ nlq : nlqs) {
+            String transactionId;
+            try {
+                transactionId = handleNLQ(nlq, encodingVersion, preparation);
+            } catch (AdmissionRejectedException e) {
+                LOGGER.debug("Rejected query {} of batch", nlq.query());
+                transactionId = addFailedNLQ(nlq, "Admission rejected", e.getMessage());
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not handle query {} of batch", nlq.query(), e);
+                transactionId = addFailedNLQ(nlq, "Query could not be handled", e.getMessage());
+            }
+            transactionIds.add(transactionId);
+        }
+        return transactionIds;
+    }
+
+    /**
+     * Stores an erroneous graph code for a NLQ of a batch which could not be handled.
+     *
+     * @param nlq
+     *         The {@link NLQ}.
+     * @param error
+     *         The error of the graph code.
+     * @param description
+     *         The description of the error.
+     * @return The transactionId of the erroneous graph code.
+     */
+    private String addFailedNLQ(final NLQ nlq, final String error, final String description) {
+        GraphCode failed = GraphCode.getPendingGC(nlq.model() == null ? ModelLiterals.getDefault() : nlq.model());
+        failed.error(error, description);
+        return llmService.addFinishedGraphCode(failed);
+    }
+
+    /**
+     * Hands out a cached graph code of the NLQ or submits it to the LLM.
+     *
+     * @param nlq
+     *         The {@link NLQ}.
+     * @param encodingVersion
+     *         The current version of the encoding mappings.
+     * @param preparation
+     *         The {@link Preparation} shared by the NLQs handled together.
+     * @return A transactionId which can be used to poll the resulting graph code.
+     */
+    private String handleNLQ(final NLQ nlq, final long encodingVersion, final Preparation preparation) {
+        final GraphCodeCache.Key key = cache.createKey(nlq.query(), nlq.user(), nlq.promptKeyword(),
+                nlq.promptGraphCode(), nlq.model(), encodingVersion);
+        GraphCode cached = cache.get(key);
+        if (cached == null) cached = semanticCache.get(key);
+        if (cached != null) {
+            LOGGER.debug("Found cached graph code for query {}", nlq.query());
+            return llmService.addFinishedGraphCode(cached);
         }
-        return llmService.addGCPrompt(promptBuilderGC.toString(), model);
+
+        final String transactionId = submitNLQ(nlq, preparation);
+        llmService.subscribe(transactionId, (event, graphCode) -> {
+            if (event == TransactionEvent.FINISHED) {
+                cache.put(key, graphCode);
+                semanticCache.put(key, graphCode);
+            }
+        });
+        return transactionId;
+    }
+
+    /**
+     * Builds the prompts of a NLQ and calls the LLM to execute them.
+     *
+     * @param nlq
+     *         The {@link NLQ}.
+     * @param preparation
+     *         The {@link Preparation} shared by the NLQs handled together.
+     * @return A transactionId which can be used to poll the resulting graph code.
+     */
+    private String submitNLQ(final NLQ nlq, final Preparation preparation) {
+        PromptBuilder promptBuilderGC = buildPrompt(nlq.promptGraphCode(), nlq, preparation);
+
+        if (nlq.promptGraphCode().requiresKeywords()) {
+            PromptBuilder promptBuilderKeyword = buildPrompt(nlq.promptKeyword(), nlq, preparation);
+            return llmService.addKeywordPrompt(promptBuilderKeyword.toString(), nlq.model(), promptBuilderGC,
+                    nlq.promptKeyword(), nlq.user(), nlq.priority());
+        }
+        return llmService.addGCPrompt(promptBuilderGC.toString(), nlq.model(), nlq.user(), nlq.priority());
+    }
+
+    /**
+     * Gives the size of the prompts of a NLQ, e.g. to compare the prompts by their costs. The keywords of the keyword
+     * extraction are not known beforehand, so their placeholder is counted instead.
+     *
+     * @param nlq
+     *         The {@link NLQ}.
+     * @return The number of characters of all prompts of the NLQ.
+     */
+    protected int getPromptLength(final NLQ nlq) {
+        Preparation preparation = new Preparation();
+        int length = buildPrompt(nlq.promptGraphCode(), nlq, preparation).length();
+        if (nlq.promptGraphCode().requiresKeywords())
+            length += buildPrompt(nlq.promptKeyword(), nlq, preparation).length();
+        return length;
+    }
+
+    /**
+     * Performs the replacements of a prompt which are known before the LLM has been called.
+     *
+     * @param prompt
+     *         The {@link Prompt} to be built.
+     * @param nlq
+     *         The {@link NLQ}.
+     * @param preparation
+     *         The {@link Preparation} shared by the NLQs handled together.
+     * @return The {@link PromptBuilder} of the prompt.
+     */
+    private PromptBuilder buildPrompt(final Prompt prompt, final NLQ nlq, final Preparation preparation) {
+        return preparation.createPromptBuilder(prompt)
+                .replaceIfRequired(Replacement.QUERY, nlq.query())
+                .replaceIfRequired(Replacement.USER, nlq.user())
+                .replaceIfRequired(Replacement.ENCODING, preparation.getEncodingMappings());
     }
 
     /**
@@ -76,10 +234,84 @@ public class NLQService {
         return llmService.getGraphCode(transactionId);
     }
 
+    /**
+     * Looks up the {@link GraphCode}s corresponding to the given transactionIds, pending ones included.
+     *
+     * @param transactionIds
+     *         The transactions' ids.
+     * @return The {@link GraphCode}s in the order of the transactionIds.
+     */
+    protected List<GraphCode> getGraphCodes(final List<String> transactionIds) {
+        return transactionIds.stream().map(llmService::getGraphCode).toList();
+    }
+
+    /**
+     * Waits for the {@link GraphCode} corresponding to the given transactionId to be finished.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @param waitMillis
+     *         The maximum time to wait in milliseconds.
+     * @return A {@link CompletableFuture} of the {@link GraphCode} behind the transactionId.
+     */
+    protected CompletableFuture<GraphCode> awaitGraphCode(final String transactionId, final long waitMillis) {
+        return llmService.awaitGraphCode(transactionId, waitMillis);
+    }
+
+    /**
+     * Registers a listener for the events of the given transaction.
+     *
+     * @param transactionId
+     *         The transactions' id.
+     * @param listener
+     *         Receives each {@link TransactionEvent} together with the {@link GraphCode} of the transaction.
+     * @return <code>true</code> in case the transaction is known. Otherwise <code>false</code>.
+     */
+    protected boolean subscribe(final String transactionId, final BiConsumer<TransactionEvent, GraphCode> listener) {
+        return llmService.subscribe(transactionId, listener);
+    }
+
+    /**
+     * Gives the version of the encoding mappings. The caches are cleared as soon as the mappings have changed, as
+     * entries of former versions are never hit again.
+     *
+     * @return The current version of the encoding mappings.
+     */
+    private synchronized long getEncodingVersion() {
+        long version = getEncodingService().getVersion();
+        if (version != cachedEncodingVersion) {
+            cache.clear();
+            semanticCache.clear();
+            cachedEncodingVersion = version;
+        }
+        return version;
+    }
+
     private EncodingService getEncodingService() {
         if (encodingService == null)
             encodingService = EncodingService.getInstance();
         return encodingService;
     }
 
+    /**
+     * The parts of the prompts shared by NLQs handled together. The encoding mappings and the prompts are read on first
+     * use only.
+     */
+    private final class Preparation {
+
+        private final Map<Prompt, String> templates = new HashMap<>();
+        private String encodingMappings;
+
+        private PromptBuilder createPromptBuilder(final Prompt prompt) {
+            return new PromptBuilder(prompt, templates.computeIfAbsent(prompt, PromptBuilder::readPrompt));
+        }
+
+        private String getEncodingMappings() {
+            if (encodingMappings == null)
+                encodingMappings = getEncodingService().getEncodingMappingsAsString();
+            return encodingMappings;
+        }
+
+    }
+
 }
\ No newline at end of file
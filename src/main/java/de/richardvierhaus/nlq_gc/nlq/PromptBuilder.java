@@ -17,8 +17,21 @@ public class PromptBuilder {
     private String prompt;
 
     protected PromptBuilder(final Prompt prompt) {
+        this(prompt, readPrompt(prompt));
+    }
+
+    /**
+     * Creates a {@link PromptBuilder} based on the already read content of the given prompt, e.g. to read it only once
+     * for many NLQs.
+     *
+     * @param prompt
+     *         The {@link Prompt} to be built.
+     * @param template
+     *         The content of the file behind the prompt, see {@link #readPrompt(Prompt)}.
+     */
+    protected PromptBuilder(final Prompt prompt, final String template) {
         leftoverReplacements = new ArrayList<>(prompt.getRequiredReplacements());
-        this.prompt = readPrompt(prompt);
+        this.prompt = template;
     }
 
     /**
@@ -85,6 +98,16 @@ public class PromptBuilder {
         return String.join("\n", reader.lines().toArray(String[]::new));
     }
 
+    /**
+     * Gives the length of the prompt built so far. Leftover replacements are counted by the length of their
+     * placeholders.
+     *
+     * @return The number of characters.
+     */
+    public int length() {
+        return prompt.length();
+    }
+
     public List<Replacement> getLeftoverReplacements() {
         return List.copyOf(leftoverReplacements);
     }
@@ -0,0 +1,156 @@
+package de.richardvierhaus.nlq_gc.nlq;
+
+import de.richardvierhaus.nlq_gc.GraphCode;
+import de.richardvierhaus.nlq_gc.enums.State;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * Caches finished graph codes of NLQs by the meaning of their query, so that differently phrased NLQs asking for the
+ * same content are not sent to the LLM again. Queries are embedded offline by hashing their words and character
+ * trigrams and looked up in one {@link HnswIndex} per scope. A scope covers everything the prompts are built from
+ * apart from the query, i.e. the prompts, the model, the encoding version and the user if the prompts contain it.
+ */
+public class SemanticCache {
+
+    static final int DIMENSIONS = 512;
+    private static final int NGRAM = 3;
+    private static final float WORD_WEIGHT = 1f;
+    private static final float NGRAM_WEIGHT = 0.5f;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final double threshold;
+    private final LinkedHashMap<GraphCodeCache.Key, HnswIndex<Entry>> scopes = new LinkedHashMap<>(16, 0.75f, true);
+    private int size;
+
+    /**
+     * Creates a new {@link SemanticCache}.
+     *
+     * @param maxEntries
+     *         The maximum number of cached graph codes. <code>0</code> disables the cache.
+     * @param ttlMillis
+     *         The time in milliseconds a graph code is cached.
+     * @param threshold
+     *         The minimum cosine similarity between two queries for them to be treated as identical.
+     */
+    public SemanticCache(final int maxEntries, final long ttlMillis, final double threshold) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Gives the cached graph code of the most similar query within the scope of the given key.
+     *
+     * @param key
+     *         The {@link GraphCodeCache.Key} of the NLQ.
+     * @return The cached {@link GraphCode} or <code>null</code> in case no query is similar enough.
+     */
+    public synchronized GraphCode get(final GraphCodeCache.Key key) {
+        HnswIndex<Entry> index = scopes.get(getScope(key));
+        if (index == null) return null;
+
+        long now = System.currentTimeMillis();
+        for (HnswIndex.Result<Entry> result : index.search(embed(key.query()), 1)) {
+            if (result.similarity() < threshold) return null;
+            if (result.value().expires() >= now) return result.value().graphCode();
+            index.remove(result.id());
+            size--;
+        }
+        return null;
+    }
+
+    /**
+     * Caches the given graph code. Only successfully finished graph codes are cached.
+     *
+     * @param key
+     *         The {@link GraphCodeCache.Key} of the NLQ.
+     * @param graphCode
+     *         The finished {@link GraphCode}.
+     */
+    public synchronized void put(final GraphCodeCache.Key key, final GraphCode graphCode) {
+        if (maxEntries <= 0 || graphCode.getState() != State.FINISHED) return;
+
+        scopes.computeIfAbsent(getScope(key), scope -> new HnswIndex<>())
+                .add(embed(key.query()), new Entry(graphCode, System.currentTimeMillis() + ttlMillis));
+        size++;
+
+        // evicts the oldest entries of the least recently used scopes
+        Iterator<HnswIndex<Entry>> iterator = scopes.values().iterator();
+        while (size > maxEntries && iterator.hasNext()) {
+            HnswIndex<Entry> index = iterator.next();
+            while (size > maxEntries && index.size() > 0) {
+                index.removeOldest();
+                size--;
+            }
+            if (index.size() == 0) iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all cached graph codes.
+     */
+    public synchronized void clear() {
+        scopes.clear();
+        size = 0;
+    }
+
+    /**
+     * Gives the number of cached graph codes.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private static GraphCodeCache.Key getScope(final GraphCodeCache.Key key) {
+        return new GraphCodeCache.Key(null, key.user(), key.promptKeyword(), key.promptGraphCode(), key.model(),
+                key.encodingVersion());
+    }
+
+    /**
+     * Embeds a query into a normalized vector by hashing its words and the character trigrams of its words. Similar
+     * phrasings share most of their words and word stems and therefore result in similar vectors.
+     *
+     * @param query
+     *         The NLQ.
+     * @return The normalized vector with {@link #DIMENSIONS} dimensions.
+     */
+    static float[] embed(final String query) {
+        float[] vector = new float[DIMENSIONS];
+        for (String word : query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) continue;
+            add(vector, word, WORD_WEIGHT);
+
+            String padded = "#" + word + "#";
+            for (int i = 0; i + NGRAM <= padded.length(); i++)
+                add(vector, padded.substring(i, i + NGRAM), NGRAM_WEIGHT);
+        }
+
+        float norm = 0;
+        for (float value : vector) norm += value * value;
+        if (norm == 0) return vector;
+        norm = (float) Math.sqrt(norm);
+        for (int i = 0; i < vector.length; i++) vector[i] /= norm;
+        return vector;
+    }
+
+    /**
+     * Adds a feature to the vector. The sign is derived from the hash as well, so that collisions cancel out on
+     * average instead of inflating the similarity.
+     */
+    private static void add(final float[] vector, final String feature, final float weight) {
+        int hash = feature.hashCode() * 0x9E3779B1;
+        hash ^= hash >>> 15;
+        vector[Math.floorMod(hash, DIMENSIONS)] += (hash & 0x40000000) == 0 ? weight : -weight;
+    }
+
+    private record Entry(GraphCode graphCode, long expires) {
+
+    }
+
+}
\ No newline at end of file
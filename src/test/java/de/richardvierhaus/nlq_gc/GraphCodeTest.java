@@ -56,6 +56,20 @@ public class GraphCodeTest {
         assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> gc.finished(List.of(), null, "ABC"));
     }
 
+    @Test
+    public void testRestore() {
+        final List<String> dictionary = List.of("A");
+        final int[][] matrix = {{1}};
+        final GraphCode gc = GraphCode.restore(State.FINISHED, model, 42, dictionary, matrix, null, "ABC");
+        checkGCValues(gc, State.FINISHED, dictionary, matrix, null, "ABC");
+        assertThat(gc.getStart()).isEqualTo(42);
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> gc.error("ABC", "TEST"));
+
+        checkGCValues(GraphCode.restore(State.ERROR, model, 42, null, null, "ABC", "TEST"), State.ERROR, null, null, "ABC", "TEST");
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> GraphCode.restore(State.PENDING, model, 42, null, null, null, null));
+    }
+
     @Test
     public void testFinishedNotValid() {
         List<String> dictionary = List.of("A", "B");
@@ -28,8 +28,10 @@ public class EncodingServiceTest {
         mapping3.setAttribute("ABC2");
         mapping3.setIdentityMapping(false);
 
+        long version = service.getVersion();
         service.addMapping(mapping1);
         service.addMapping(mapping2);
+        assertThat(service.getVersion()).isEqualTo(version + 2);
         assertThat(service.getEncodingMappings()).hasSize(2)
                 .anyMatch(mapping -> mapping.getId() == 1 && mapping.getAttribute().equals("ABC") && !mapping.isIdentityMapping())
                 .anyMatch(mapping -> mapping.getId() == 2 && mapping.getAttribute().equals("TEST") && mapping.isIdentityMapping());
@@ -43,6 +45,7 @@ public class EncodingServiceTest {
 
         service.clear();
         assertThat(service.getEncodingMappings()).isEmpty();
+        assertThat(service.getVersion()).isEqualTo(version + 5);
     }
 
     @Test
@@ -27,4 +27,9 @@ public class EnumControllerTest {
         assertThat(controller.getModels()).hasSize(ModelLiterals.values().length);
     }
 
+    @Test
+    public void testGetPriorities() {
+        assertThat(controller.getPriorities()).containsExactly("INTERACTIVE", "NORMAL", "BULK");
+    }
+
 }
\ No newline at end of file
@@ -4,16 +4,26 @@ import com.google.gson.Gson;
 import de.richardvierhaus.nlq_gc.GraphCode;
 import de.richardvierhaus.nlq_gc.KeywordResponse;
 import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
 import de.richardvierhaus.nlq_gc.enums.Replacement;
 import de.richardvierhaus.nlq_gc.enums.State;
+import de.richardvierhaus.nlq_gc.enums.TransactionEvent;
 import de.richardvierhaus.nlq_gc.nlq.PromptBuilder;
 import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
@@ -27,14 +37,17 @@ public class AsyncLLMServiceTest {
     private static final Gson gson = new Gson();
 
     private PromptBuilder gcBuilder;
+    private ResultStore resultStore;
+    private CompletableFuture<String> keywordFuture;
+    private CompletableFuture<String> gcFuture;
 
     @BeforeAll
     public static void init() {
         service = spy(AsyncLLMService.class);
         service.init();
 
-        qwen = mock(QWen.class);
-        QWen.setInstance(qwen);
+        QWen.setInstance(mock(QWen.class));
+        qwen = QWen.getInstance(); // shared with other tests
     }
 
     @AfterAll
@@ -45,33 +58,50 @@ public class AsyncLLMServiceTest {
     @BeforeEach
     public void initRun() {
         Mockito.reset(service, qwen);
+        // handle responses on the completing thread to keep the assertions deterministic
+        doReturn((Executor) Runnable::run).when(service).getExecutor();
+        service.getKeywordCache().clear();
+        resultStore = new MemoryResultStore(60000);
+        // stubbed via when() as the scheduler calls the service concurrently
+        when(service.getResultStore()).thenReturn(resultStore);
 
         gcBuilder = mock(PromptBuilder.class);
         doReturn("GCPROMPT").when(gcBuilder).toString();
         doReturn(List.of(Replacement.KEYWORDS)).when(gcBuilder).getLeftoverReplacements();
 
-        doReturn("KEYWORD-TRANSACTION").when(qwen).handlePrompt("KEYWORDPROMPT");
-        doReturn("GC-TRANSACTION").when(qwen).handlePrompt("GCPROMPT");
+        keywordFuture = new CompletableFuture<>();
+        gcFuture = new CompletableFuture<>();
+        doReturn(keywordFuture).when(qwen).submit("KEYWORDPROMPT");
+        doReturn(gcFuture).when(qwen).submit("GCPROMPT");
+    }
+
+    @AfterEach
+    public void finishRun() {
+        // running prompts would be joined by the following tests otherwise
+        keywordFuture.cancel(false);
+        gcFuture.cancel(false);
     }
 
     @Test
-    public void testSuccess() throws InterruptedException {
+    public void testSuccess() {
         assertThat(service.getGraphCode("ABC")).isEqualTo(GraphCode.getNotAvailable());
 
         KeywordResponse keywordResponse = new KeywordResponse(List.of("KEY1", "KEY2"), null, null);
 
-        doReturn(gson.toJson(keywordResponse)).when(qwen).getResponse("KEYWORD-TRANSACTION");
-        doReturn("{\"dictionary\":[\"Key1\", \"Key2\"], \"matrix\":[[1,2],[3,4]], \"description\":\"TEST\"}").when(qwen).getResponse("GC-TRANSACTION");
-
-        String transactionId1 = service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, gcBuilder);
-        String transactionId2 = service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B);
+        String transactionId1 = service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, gcBuilder, PromptKeyword.KEYWORDS_01_ZS, "USER", Priority.NORMAL);
+        String transactionId2 = service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
 
         GraphCode gc1 = service.getGraphCode(transactionId1);
         assertThat(gc1.getState()).isEqualTo(State.PENDING);
         assertThat(gc1.getModel()).isEqualTo(ModelLiterals.QWEN3_1_7_B);
 
-        // wait at least one scheduler loop
-        Thread.sleep(4000);
+        // keyword stage finished, graph code prompt is handed over directly and joins the identical running one
+        keywordFuture.complete(gson.toJson(keywordResponse));
+        verify(gcBuilder).replace(Replacement.KEYWORDS, "[\"KEY1\",\"KEY2\"]");
+        verify(qwen, times(1)).submit("GCPROMPT");
+        assertThat(service.getGraphCode(transactionId1).getState()).isEqualTo(State.PENDING);
+
+        gcFuture.complete("{\"dictionary\":[\"Key1\", \"Key2\"], \"matrix\":[[1,2],[3,4]], \"description\":\"TEST\"}");
 
         gc1 = service.getGraphCode(transactionId1);
         GraphCode gc2 = service.getGraphCode(transactionId2);
@@ -81,21 +111,22 @@ public class AsyncLLMServiceTest {
         assertThat(gc1.getDictionary()).isEqualTo(gc2.getDictionary()).containsExactly("Key1", "Key2");
         assertThat(gc1.getDescription()).isEqualTo(gc2.getDescription()).isEqualTo("TEST");
 
-        assertThat(service.getGraphCode(transactionId1)).isSameAs(service.getGraphCode(transactionId2))
-                .isSameAs(GraphCode.getNotAvailable());
+        // results are not consumed by reading them
+        assertThat(service.getGraphCode(transactionId1)).isSameAs(gc1);
+        assertThat(service.getGraphCode(transactionId2)).isSameAs(gc2);
+        assertThat(resultStore.size()).isEqualTo(2);
     }
 
     @Test
-    public void testFail() throws InterruptedException {
+    public void testFail() {
         KeywordResponse keywordResponse = new KeywordResponse(null, "ERROR1", "DESCRIPTION1");
-        doReturn(gson.toJson(keywordResponse)).when(qwen).getResponse("KEYWORD-TRANSACTION");
-        doReturn("{\"error\":\"ERROR2\",\"description\":\"DESCRIPTION2\"}").when(qwen).getResponse("GC-TRANSACTION");
 
-        String transactionId1 = service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, gcBuilder);
-        String transactionId2 = service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B);
+        String transactionId1 = service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, gcBuilder, PromptKeyword.KEYWORDS_01_ZS, "USER", Priority.NORMAL);
+        String transactionId2 = service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
 
-        // wait at least one scheduler loop
-        Thread.sleep(4000);
+        keywordFuture.complete(gson.toJson(keywordResponse));
+        gcFuture.complete("{\"error\":\"ERROR2\",\"description\":\"DESCRIPTION2\"}");
+        verify(qwen, times(1)).submit("GCPROMPT");
 
         final GraphCode gc1 = service.getGraphCode(transactionId1);
         final GraphCode gc2 = service.getGraphCode(transactionId2);
@@ -107,25 +138,261 @@ public class AsyncLLMServiceTest {
 
     }
 
+    @Test
+    public void testGetGraphCodeWithoutLLM() {
+        String transactionId = service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
+        CompletableFuture<GraphCode> completion = service.awaitGraphCode(transactionId, 10000);
+        clearInvocations(qwen);
+
+        // reading a pending graph code does not contact the LLM
+        for (int i = 0; i < 10; i++)
+            assertThat(service.getGraphCode(transactionId).getState()).isEqualTo(State.PENDING);
+        verifyNoInteractions(qwen);
+
+        // the response completes the transaction without being read
+        gcFuture.complete("{\"dictionary\":[\"Key1\"], \"matrix\":[[1]], \"description\":\"TEST\"}");
+        assertThat(completion).isCompleted();
+        assertThat(service.getGraphCode(transactionId).getState()).isEqualTo(State.FINISHED);
+        verifyNoInteractions(qwen);
+    }
+
     @Test
     public void testTimeout() throws InterruptedException {
         doReturn(0).when(service).getTimeout();
 
-        String transactionId = service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, gcBuilder);
+        String transactionId = service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, gcBuilder, PromptKeyword.KEYWORDS_01_ZS, "USER", Priority.NORMAL);
+        String finishedTransactionId = service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
+        gcFuture.complete("{\"error\":\"ERROR\",\"description\":\"DESCRIPTION\"}");
 
         // wait at least one scheduler loop
         Thread.sleep(4000);
 
         assertThat(service.getGraphCode(transactionId)).isSameAs(GraphCode.getNotAvailable());
+        assertThat(keywordFuture).isCancelled();
+        assertThat(service.getGraphCode(finishedTransactionId).getState()).isEqualTo(State.ERROR);
+    }
+
+    @Test
+    public void testLLMFailure() {
+        String transactionId1 = service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, gcBuilder, PromptKeyword.KEYWORDS_01_ZS, "USER", Priority.NORMAL);
+        String transactionId2 = service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
+
+        // not retried, as the failure is not transient
+        keywordFuture.completeExceptionally(new HttpStatusException("POST", 400));
+        gcFuture.complete("NO JSON");
+
+        final GraphCode gc1 = service.getGraphCode(transactionId1);
+        final GraphCode gc2 = service.getGraphCode(transactionId2);
+        assertThat(gc1.getState()).isEqualTo(gc2.getState()).isEqualTo(State.ERROR);
+        assertThat(gc1.getDescription()).isEqualTo("HTTP POST failed with code 400");
+        assertThat(gc2.getError()).isNotBlank();
+        verify(qwen, times(1)).submit("GCPROMPT");
+    }
+
+    @Test
+    public void testHandoff() throws InterruptedException {
+        Executor executor = Executors.newVirtualThreadPerTaskExecutor();
+        doReturn(executor).when(service).getExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            blocked.await();
+            return gcBuilder;
+        }).when(gcBuilder).replace(any(), any());
+
+        KeywordResponse keywordResponse = new KeywordResponse(List.of("KEY1"), null, null);
+        String transactionId1 = service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, gcBuilder, PromptKeyword.KEYWORDS_01_ZS, "USER", Priority.NORMAL);
+        CompletableFuture<String> otherFuture = new CompletableFuture<>();
+        doReturn(otherFuture).when(qwen).submit("OTHERPROMPT");
+        String transactionId2 = service.addGCPrompt("OTHERPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
+
+        // the completing thread is not blocked by the stage handoff
+        assertThat(keywordFuture.complete(gson.toJson(keywordResponse))).isTrue();
+        otherFuture.complete("{\"dictionary\":[\"Key1\"], \"matrix\":[[1]], \"description\":\"TEST\"}");
+
+        // a slow handoff does not delay other transactions
+        GraphCode gc2 = service.getGraphCode(transactionId2);
+        for (int i = 0; i < 100 && gc2.getState() == State.PENDING; i++) {
+            Thread.sleep(10);
+            gc2 = service.getGraphCode(transactionId2);
+        }
+        assertThat(gc2.getState()).isEqualTo(State.FINISHED);
+        verify(qwen, never()).submit("GCPROMPT");
+        // the transaction remains visible during the handoff
+        assertThat(service.getGraphCode(transactionId1).getState()).isEqualTo(State.PENDING);
+
+        blocked.countDown();
+        verify(qwen, timeout(1000)).submit("GCPROMPT");
+        assertThat(service.getGraphCode(transactionId1).getState()).isEqualTo(State.PENDING);
+    }
+
+    @Test
+    public void testAwaitGraphCode() {
+        assertThat(service.awaitGraphCode("ABC", 1000)).isCompletedWithValue(GraphCode.getNotAvailable());
+
+        String transactionId = service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
+
+        // waiting time is over
+        assertThat(service.awaitGraphCode(transactionId, 100)).succeedsWithin(1, TimeUnit.SECONDS)
+                .extracting(GraphCode::getState).isEqualTo(State.PENDING);
+
+        CompletableFuture<GraphCode> result = service.awaitGraphCode(transactionId, 5000);
+        assertThat(result).isNotDone();
+        gcFuture.complete("{\"dictionary\":[\"Key1\"], \"matrix\":[[1]], \"description\":\"TEST\"}");
+        assertThat(result).isCompleted();
+        assertThat(result.join().getState()).isEqualTo(State.FINISHED);
+        assertThat(service.awaitGraphCode(transactionId, 1000)).isCompletedWithValue(result.join());
+    }
+
+    @Test
+    public void testSubscribe() {
+        List<TransactionEvent> events = new ArrayList<>();
+        assertThat(service.subscribe("ABC", (event, graphCode) -> events.add(event))).isFalse();
+
+        String transactionId = service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, gcBuilder, PromptKeyword.KEYWORDS_01_ZS, "USER", Priority.NORMAL);
+        assertThat(service.subscribe(transactionId, (event, graphCode) -> events.add(event))).isTrue();
+        assertThat(events).containsExactly(TransactionEvent.SUBMITTED);
+
+        keywordFuture.complete(gson.toJson(new KeywordResponse(List.of("KEY1"), null, null)));
+        // failing listeners do not affect the transaction
+        service.subscribe(transactionId, (event, graphCode) -> {
+            throw new IllegalStateException("Listener failed");
+        });
+        gcFuture.complete("{\"dictionary\":[\"Key1\"], \"matrix\":[[1]], \"description\":\"TEST\"}");
+
+        assertThat(events).containsExactly(TransactionEvent.SUBMITTED, TransactionEvent.KEYWORDS_EXTRACTED,
+                TransactionEvent.GRAPH_CODE_PROMPT_SUBMITTED, TransactionEvent.FINISHED);
+        assertThat(service.getGraphCode(transactionId).getState()).isEqualTo(State.FINISHED);
+
+        // stored transactions replay their result
+        List<TransactionEvent> storedEvents = new ArrayList<>();
+        assertThat(service.subscribe(transactionId, (event, graphCode) -> storedEvents.add(event))).isTrue();
+        assertThat(storedEvents).containsExactly(TransactionEvent.FINISHED);
+    }
+
+    @Test
+    public void testAddFinishedGraphCode() {
+        GraphCode graphCode = GraphCode.getPendingGC(ModelLiterals.QWEN3_1_7_B);
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> service.addFinishedGraphCode(graphCode));
+
+        graphCode.finished(List.of("Key1"), new int[][]{{1}}, "TEST");
+        String transactionId = service.addFinishedGraphCode(graphCode);
+        assertThat(service.awaitGraphCode(transactionId, 1000)).isCompletedWithValue(graphCode);
+        assertThat(service.getGraphCode(transactionId)).isSameAs(graphCode);
+        assertThat(resultStore.get(transactionId)).isSameAs(graphCode);
+        verify(qwen, never()).submit(any());
+    }
+
+    @Test
+    public void testResultStoreFailure() {
+        ResultStore failingStore = mock(ResultStore.class);
+        doThrow(new IllegalStateException("Disk full")).when(failingStore).put(any(), any());
+        when(service.getResultStore()).thenReturn(failingStore);
+
+        String transactionId = service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
+        gcFuture.complete("{\"dictionary\":[\"Key1\"], \"matrix\":[[1]], \"description\":\"TEST\"}");
+
+        // the transaction is kept on the heap instead
+        assertThat(service.awaitGraphCode(transactionId, 1000)).isCompleted();
+        assertThat(service.getGraphCode(transactionId).getState()).isEqualTo(State.FINISHED);
+        assertThat(service.getGraphCode(transactionId).getState()).isEqualTo(State.FINISHED);
+        verify(failingStore, never()).get(transactionId);
+    }
+
+    @Test
+    public void testAdmission() {
+        ModelDispatcher dispatcher = new ModelDispatcher(ModelLiterals.QWEN3_1_7_B, 1, 1);
+        when(service.getDispatcher(ModelLiterals.QWEN3_1_7_B)).thenReturn(dispatcher);
+        CompletableFuture<String> otherFuture = new CompletableFuture<>();
+        doReturn(otherFuture).when(qwen).submit("OTHERPROMPT");
+
+        String transactionId1 = service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
+        String transactionId2 = service.addGCPrompt("OTHERPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
+        assertThatExceptionOfType(AdmissionRejectedException.class)
+                .isThrownBy(() -> service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL))
+                .satisfies(e -> assertThat(e.getRetryAfterSeconds()).isPositive());
+        assertThat(dispatcher.getQueued()).isEqualTo(1);
+        verify(qwen, never()).submit("OTHERPROMPT");
+
+        // finished transactions free their slot
+        gcFuture.complete("{\"dictionary\":[\"Key1\"], \"matrix\":[[1]], \"description\":\"TEST\"}");
+        assertThat(service.getGraphCode(transactionId1).getState()).isEqualTo(State.FINISHED);
+        verify(qwen).submit("OTHERPROMPT");
+        assertThat(dispatcher.getAdmitted()).isEqualTo(1);
+
+        otherFuture.complete("{\"dictionary\":[\"Key1\"], \"matrix\":[[1]], \"description\":\"TEST\"}");
+        assertThat(service.getGraphCode(transactionId2).getState()).isEqualTo(State.FINISHED);
+        assertThat(dispatcher.getAdmitted()).isZero();
+        assertThat(dispatcher.getInFlight()).isZero();
+    }
+
+    @Test
+    public void testCoalescing() {
+        String transactionId1 = service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
+        String transactionId2 = service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
+        assertThat(transactionId1).isNotEqualTo(transactionId2);
+        verify(qwen, times(1)).submit("GCPROMPT");
+
+        gcFuture.complete("{\"dictionary\":[\"Key1\"], \"matrix\":[[1]], \"description\":\"TEST\"}");
+        assertThat(service.getGraphCode(transactionId1).getState()).isEqualTo(State.FINISHED);
+        assertThat(service.getGraphCode(transactionId2).getState()).isEqualTo(State.FINISHED);
+
+        // a finished prompt is executed again
+        CompletableFuture<String> secondFuture = new CompletableFuture<>();
+        doReturn(secondFuture).when(qwen).submit("GCPROMPT");
+        service.addGCPrompt("GCPROMPT", ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL);
+        verify(qwen, times(2)).submit("GCPROMPT");
+        secondFuture.cancel(false);
+    }
+
+    @Test
+    public void testKeywordCache() {
+        KeywordResponse keywordResponse = new KeywordResponse(List.of("KEY1", "KEY2"), null, null);
+
+        service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, gcBuilder, PromptKeyword.KEYWORDS_01_ZS, "USER", Priority.NORMAL);
+        keywordFuture.complete(gson.toJson(keywordResponse));
+
+        // identical keyword prompt skips the keyword extraction
+        PromptBuilder secondBuilder = mock(PromptBuilder.class);
+        doReturn("GCPROMPT").when(secondBuilder).toString();
+        doReturn(List.of(Replacement.KEYWORDS)).when(secondBuilder).getLeftoverReplacements();
+        String transactionId = service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, secondBuilder,
+                PromptKeyword.KEYWORDS_01_ZS, "USER", Priority.NORMAL);
+
+        verify(qwen, times(1)).submit("KEYWORDPROMPT");
+        verify(secondBuilder).replace(Replacement.KEYWORDS, "[\"KEY1\",\"KEY2\"]");
+        assertThat(service.getGraphCode(transactionId).getState()).isEqualTo(State.PENDING);
+        assertThat(service.getKeywordCache().getStatistics().get(PromptKeyword.KEYWORDS_01_ZS))
+                .isEqualTo(new KeywordCache.Statistics(1, 1));
+
+        // errors are not cached
+        service.getKeywordCache().clear();
+        resultStore = new MemoryResultStore(60000);
+        when(service.getResultStore()).thenReturn(resultStore);
+        keywordFuture = new CompletableFuture<>();
+        doReturn(keywordFuture).when(qwen).submit("KEYWORDPROMPT");
+        service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, gcBuilder, PromptKeyword.KEYWORDS_01_ZS, "USER", Priority.NORMAL);
+        keywordFuture.complete("{\"error\":\"ERROR\",\"description\":\"DESCRIPTION\"}");
+        service.addKeywordPrompt("KEYWORDPROMPT", ModelLiterals.QWEN3_1_7_B, gcBuilder, PromptKeyword.KEYWORDS_01_ZS, "USER", Priority.NORMAL);
+        verify(qwen, times(3)).submit("KEYWORDPROMPT");
+    }
+
+    @Test
+    public void testIsValidResponse() {
+        assertThat(service.isValidResponse("{\"dictionary\":[\"Key1\"], \"matrix\":[[1]]}")).isTrue();
+        assertThat(service.isValidResponse("{\"error\":\"ERROR\",\"description\":\"DESCRIPTION\"}")).isTrue();
+        assertThat(service.isValidResponse("No JSON")).isFalse();
+        assertThat(service.isValidResponse("[1]")).isFalse();
+        assertThat(service.isValidResponse("")).isFalse();
+        assertThat(service.isValidResponse(null)).isFalse();
     }
 
     @Test
     public void testException() {
         doReturn(List.of(Replacement.USER, Replacement.QUERY)).when(gcBuilder).getLeftoverReplacements();
-        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> service.addKeywordPrompt("", null, gcBuilder));
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> service.addKeywordPrompt("", null, gcBuilder, null, null, null));
 
         doReturn(List.of(Replacement.USER)).when(gcBuilder).getLeftoverReplacements();
-        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> service.addKeywordPrompt("", null, gcBuilder));
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> service.addKeywordPrompt("", null, gcBuilder, null, null, null));
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Flow;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class ChatCompletionStreamSubscriberTest {
+
+    private ChatCompletionStreamSubscriber subscriber;
+    private Flow.Subscription subscription;
+
+    @BeforeEach
+    public void init() {
+        subscriber = new ChatCompletionStreamSubscriber();
+        subscription = mock(Flow.Subscription.class);
+        subscriber.onSubscribe(subscription);
+    }
+
+    @Test
+    public void testEarlyTermination() {
+        subscriber.onNext(": OPENROUTER PROCESSING");
+        subscriber.onNext("");
+        subscriber.onNext(delta("```json\\n{\\\"dictionary\\\":"));
+        subscriber.onNext(delta("[\\\"A\\\"], \\\"matrix\\\":[[1]]"));
+        assertThat(subscriber.getResult()).isNotDone();
+        verify(subscription, never()).cancel();
+
+        subscriber.onNext(delta("}\\n```\\nThe graph code has been"));
+        assertThat(subscriber.getResult()).isCompletedWithValue("{\"dictionary\":[\"A\"], \"matrix\":[[1]]}");
+        verify(subscription).cancel();
+    }
+
+    @Test
+    public void testStreamEnd() {
+        subscriber.onNext(delta("{\\\"error\\\":\\\"ERROR\\\""));
+        subscriber.onNext("data: [DONE]");
+        assertThat(subscriber.getResult()).isCompletedWithValue("{\"error\":\"ERROR\"");
+    }
+
+    @Test
+    public void testErrors() {
+        subscriber.onNext("data: {\"error\":{\"code\":429,\"message\":\"Rate limit exceeded\"}}");
+        assertThat(subscriber.getResult()).isCompletedExceptionally();
+        verify(subscription).cancel();
+
+        ChatCompletionStreamSubscriber failing = new ChatCompletionStreamSubscriber();
+        failing.onError(new IOException("HTTP POST failed with code 500"));
+        assertThat(failing.getResult()).isCompletedExceptionally();
+    }
+
+    @Test
+    public void testCancellation() {
+        subscriber.getResult().cancel(false);
+        verify(subscription).cancel();
+    }
+
+    private String delta(final String content) {
+        return "data: {\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"" + content + "\"}}]}";
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,88 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+
+    private static final Exception TRANSIENT = new RuntimeException("Error in handlePrompt",
+            new ConnectException("Connection refused"));
+
+    @Test
+    public void testIsTransient() {
+        assertThat(CircuitBreaker.isTransient(TRANSIENT)).isTrue();
+        assertThat(CircuitBreaker.isTransient(new CompletionException(new HttpConnectTimeoutException("Timeout")))).isTrue();
+        assertThat(CircuitBreaker.isTransient(new HttpStatusException("POST", 429))).isTrue();
+        assertThat(CircuitBreaker.isTransient(new HttpStatusException("POST", 503))).isTrue();
+        assertThat(CircuitBreaker.isTransient(new RuntimeException(new HttpStatusException("POST", 400)))).isFalse();
+        assertThat(CircuitBreaker.isTransient(new IllegalStateException("No JSON"))).isFalse();
+        assertThat(CircuitBreaker.isTransient(new CancellationException())).isFalse();
+        assertThat(CircuitBreaker.isTransient(new IOException("Connection reset"))).isTrue();
+    }
+
+    @Test
+    public void testOpen() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000);
+        assertThat(breaker.tryAcquire(0)).isTrue();
+        breaker.failure(TRANSIENT, 0);
+        breaker.success();
+        breaker.failure(TRANSIENT, 0);
+        // other failures neither count nor reset the count
+        breaker.failure(new IllegalStateException("No JSON"), 0);
+        breaker.failure(TRANSIENT, 0);
+        assertThat(breaker.getState(0)).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        breaker.failure(TRANSIENT, 100);
+        assertThat(breaker.getState(100)).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.isOpen(500)).isTrue();
+        assertThat(breaker.tryAcquire(500)).isFalse();
+    }
+
+    @Test
+    public void testHalfOpen() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        breaker.failure(TRANSIENT, 0);
+        assertThat(breaker.getState(1000)).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.isOpen(1000)).isFalse();
+
+        // a single trial prompt is let through
+        assertThat(breaker.tryAcquire(1000)).isTrue();
+        assertThat(breaker.tryAcquire(1000)).isFalse();
+        assertThat(breaker.isOpen(1000)).isTrue();
+
+        // a failed trial opens the circuit again
+        breaker.failure(TRANSIENT, 1500);
+        assertThat(breaker.tryAcquire(2000)).isFalse();
+        assertThat(breaker.tryAcquire(2500)).isTrue();
+
+        // a cancelled trial lets the next one through
+        breaker.cancelled();
+        assertThat(breaker.tryAcquire(2500)).isTrue();
+
+        // a trial failing otherwise does not close the circuit
+        breaker.failure(new IllegalStateException("No JSON"), 2500);
+        assertThat(breaker.getState(2500)).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire(2500)).isTrue();
+
+        breaker.success();
+        assertThat(breaker.getState(2500)).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire(2500)).isTrue();
+        assertThat(breaker.tryAcquire(2500)).isTrue();
+    }
+
+    @Test
+    public void testDisabled() {
+        CircuitBreaker breaker = new CircuitBreaker(0, 1000);
+        for (int i = 0; i < 100; i++) breaker.failure(TRANSIENT, 0);
+        assertThat(breaker.getState(0)).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire(0)).isTrue();
+    }
+
+}
\ No newline at end of file
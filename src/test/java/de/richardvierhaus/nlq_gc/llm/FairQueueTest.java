@@ -0,0 +1,89 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FairQueueTest {
+
+    @Test
+    public void testFairness() {
+        FairQueue<String> queue = new FairQueue<>(1, 0);
+        for (int i = 0; i < 5; i++) queue.add("HEAVY", "H" + i);
+        queue.add("LIGHT", "L0");
+        queue.add("LIGHT", "L1");
+        assertThat(queue.size()).isEqualTo(7);
+
+        // the light user does not wait for the whole backlog of the heavy user
+        assertThat(pollAll(queue)).containsExactly("H0", "L0", "H1", "L1", "H2", "H3", "H4");
+        assertThat(queue.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testWeights() {
+        FairQueue<String> queue = new FairQueue<>(1, 0, Map.of("LIGHT", 3.0), Map.of());
+        for (int i = 0; i < 4; i++) queue.add("HEAVY", "H" + i);
+        for (int i = 0; i < 4; i++) queue.add("LIGHT", "L" + i);
+
+        assertThat(pollAll(queue)).containsExactly("H0", "L0", "L1", "L2", "H1", "L3", "H2", "H3");
+    }
+
+    @Test
+    public void testMaxInFlight() {
+        FairQueue<String> queue = new FairQueue<>(1, 0, Map.of(), Map.of("HEAVY", 1));
+        queue.add("HEAVY", "H0");
+        queue.add("HEAVY", "H1");
+        queue.add("LIGHT", "L0");
+
+        assertThat(queue.poll()).isEqualTo("H0");
+        assertThat(queue.getInFlight("HEAVY")).isEqualTo(1);
+        // the heavy user is capped
+        assertThat(queue.poll()).isEqualTo("L0");
+        assertThat(queue.peek()).isNull();
+        assertThat(queue.mayStart("HEAVY")).isFalse();
+
+        queue.finished("HEAVY");
+        assertThat(queue.poll()).isEqualTo("H1");
+    }
+
+    @Test
+    public void testStart() {
+        FairQueue<String> queue = new FairQueue<>(1, 0);
+        assertThat(queue.mayStart("HEAVY")).isTrue();
+        queue.start("HEAVY");
+        queue.start("HEAVY");
+        assertThat(queue.getInFlight("HEAVY")).isEqualTo(2);
+
+        // prompts started directly are charged as well
+        queue.add("HEAVY", "H2");
+        queue.add("LIGHT", "L0");
+        assertThat(queue.mayStart("HEAVY")).isFalse();
+        assertThat(pollAll(queue)).containsExactly("L0", "H2");
+    }
+
+    @Test
+    public void testRemove() {
+        FairQueue<String> queue = new FairQueue<>(1, 0);
+        queue.add(null, "A0");
+        queue.add(null, "A1");
+        assertThat(queue.remove(null, "A0")).isTrue();
+        assertThat(queue.remove(null, "A0")).isFalse();
+        assertThat(queue.size()).isEqualTo(1);
+        assertThat(queue.poll()).isEqualTo("A1");
+        assertThat(queue.getInFlight(null)).isEqualTo(1);
+        queue.finished(null);
+        assertThat(queue.getInFlight(null)).isZero();
+    }
+
+    private static List<String> pollAll(final FairQueue<String> queue) {
+        List<String> polled = new ArrayList<>();
+        String item;
+        while ((item = queue.poll()) != null) polled.add(item);
+        return polled;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,110 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class FallbackChainTest {
+
+    private PromptCoalescer.Upstream upstream;
+    private ModelDispatcher dispatcher;
+    private FallbackChain chain;
+
+    @BeforeEach
+    public void init() {
+        upstream = mock(PromptCoalescer.Upstream.class);
+        dispatcher = mock(ModelDispatcher.class);
+        doReturn(true).when(dispatcher).acquire();
+        chain = new FallbackChain(upstream, model -> dispatcher, Map.of(ModelLiterals.QWEN3_1_7_B,
+                List.of(ModelLiterals.QWEN_TURBO, ModelLiterals.QWEN3_1_7_B, ModelLiterals.QWEN3_14B)));
+    }
+
+    @Test
+    public void testChain() {
+        assertThat(chain.getChain(ModelLiterals.QWEN3_1_7_B))
+                .containsExactly(ModelLiterals.QWEN3_1_7_B, ModelLiterals.QWEN_TURBO, ModelLiterals.QWEN3_14B);
+        assertThat(chain.getChain(ModelLiterals.QWEN_TURBO)).containsExactly(ModelLiterals.QWEN_TURBO);
+    }
+
+    @Test
+    public void testFallback() {
+        CompletableFuture<String> turbo = new CompletableFuture<>();
+        doReturn(CompletableFuture.failedFuture(new CircuitOpenException(ModelLiterals.QWEN3_1_7_B))).when(upstream)
+                .submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        doReturn(turbo).when(upstream).submit(ModelLiterals.QWEN_TURBO, "USER", Priority.NORMAL, "PROMPT");
+
+        CompletableFuture<String> result = chain.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        verify(upstream).submit(ModelLiterals.QWEN_TURBO, "USER", Priority.NORMAL, "PROMPT");
+        assertThat(result).isNotDone();
+
+        turbo.complete("RESPONSE");
+        assertThat(result).isCompletedWithValue("RESPONSE");
+        verify(upstream, never()).submit(eq(ModelLiterals.QWEN3_14B), any(), any(), any());
+
+        // only the fallback model has been admitted by the chain
+        verify(dispatcher).acquire();
+        verify(dispatcher).release();
+    }
+
+    @Test
+    public void testFallbackFull() {
+        CompletableFuture<String> last = new CompletableFuture<>();
+        doReturn(CompletableFuture.failedFuture(new IllegalStateException("Failed"))).when(upstream)
+                .submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        doReturn(last).when(upstream).submit(ModelLiterals.QWEN3_14B, "USER", Priority.NORMAL, "PROMPT");
+        doReturn(false).doReturn(true).when(dispatcher).acquire();
+
+        // the fallback model working at its limit is skipped
+        CompletableFuture<String> result = chain.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        verify(upstream, never()).submit(eq(ModelLiterals.QWEN_TURBO), any(), any(), any());
+        verify(upstream).submit(ModelLiterals.QWEN3_14B, "USER", Priority.NORMAL, "PROMPT");
+        verify(dispatcher, never()).release();
+
+        last.complete("RESPONSE");
+        assertThat(result).isCompletedWithValue("RESPONSE");
+        verify(dispatcher).release();
+
+        // a rejection of the last model is handed out
+        doReturn(false).when(dispatcher).acquire();
+        result = chain.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        assertThat(result.exceptionNow()).isInstanceOf(AdmissionRejectedException.class);
+    }
+
+    @Test
+    public void testAllFail() {
+        doThrow(new IllegalStateException("Rejected")).when(upstream)
+                .submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        doReturn(CompletableFuture.failedFuture(new IllegalStateException("Failed"))).when(upstream)
+                .submit(ModelLiterals.QWEN_TURBO, "USER", Priority.NORMAL, "PROMPT");
+        doReturn(CompletableFuture.failedFuture(new IllegalStateException("Last"))).when(upstream)
+                .submit(ModelLiterals.QWEN3_14B, "USER", Priority.NORMAL, "PROMPT");
+
+        CompletableFuture<String> result = chain.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        assertThat(result).isCompletedExceptionally();
+        assertThat(result.exceptionNow()).hasMessage("Last");
+
+        // models without fallbacks are handed over directly
+        CompletableFuture<String> turbo = new CompletableFuture<>();
+        doReturn(turbo).when(upstream).submit(ModelLiterals.QWEN_TURBO, "USER", Priority.BULK, "PROMPT");
+        assertThat(chain.submit(ModelLiterals.QWEN_TURBO, "USER", Priority.BULK, "PROMPT")).isSameAs(turbo);
+    }
+
+    @Test
+    public void testCancel() {
+        CompletableFuture<String> primary = new CompletableFuture<>();
+        doReturn(primary).when(upstream).submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+
+        chain.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT").cancel(false);
+        assertThat(primary).isCancelled();
+        verify(upstream, never()).submit(eq(ModelLiterals.QWEN_TURBO), any(), any(), any());
+    }
+
+}
\ No newline at end of file
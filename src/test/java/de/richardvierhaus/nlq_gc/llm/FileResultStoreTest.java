@@ -0,0 +1,175 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.GraphCode;
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.State;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileResultStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testPutAndGet() {
+        Path path = directory.resolve("results.log");
+        GraphCode finished = createGraphCode("TEST");
+        GraphCode error = GraphCode.getPendingGC(null);
+        error.error("ERROR", "DESCRIPTION ÄÖÜ");
+
+        try (FileResultStore store = new FileResultStore(path, 60000)) {
+            assertThat(store.get("T1")).isNull();
+            store.put("T1", finished);
+            store.put("T2", error);
+            assertThat(store.size()).isEqualTo(2);
+
+            // results can be read repeatedly
+            assertEquals(store.get("T1"), finished);
+            assertEquals(store.get("T1"), finished);
+            assertEquals(store.get("T2"), error);
+
+            // storing a result again replaces it
+            GraphCode replacement = createGraphCode("REPLACED");
+            store.put("T1", replacement);
+            assertEquals(store.get("T1"), replacement);
+            assertThat(store.size()).isEqualTo(2);
+        }
+
+        // recovered after a restart
+        try (FileResultStore store = new FileResultStore(path, 60000)) {
+            assertThat(store.size()).isEqualTo(2);
+            assertThat(store.get("T1").getDescription()).isEqualTo("REPLACED");
+            assertEquals(store.get("T2"), error);
+        }
+    }
+
+    @Test
+    public void testRecoverTornRecord() throws IOException {
+        Path path = directory.resolve("results.log");
+        try (FileResultStore store = new FileResultStore(path, 60000)) {
+            store.put("T1", createGraphCode("TEST"));
+        }
+        long size = Files.size(path);
+        byte[] record = FileResultStore.encode("T2", Long.MAX_VALUE, createGraphCode("TORN"));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(record, 0, record.length - 3));
+        }
+
+        try (FileResultStore store = new FileResultStore(path, 60000)) {
+            assertThat(store.size()).isEqualTo(1);
+            assertThat(store.get("T2")).isNull();
+            assertThat(store.getFileSize()).isEqualTo(size);
+
+            // appending continues behind the last complete record
+            store.put("T3", createGraphCode("NEXT"));
+        }
+        try (FileResultStore store = new FileResultStore(path, 60000)) {
+            assertThat(store.get("T3").getDescription()).isEqualTo("NEXT");
+        }
+    }
+
+    @Test
+    public void testRecoverCorruptRecord() throws IOException {
+        Path path = directory.resolve("results.log");
+        try (FileResultStore store = new FileResultStore(path, 60000, true)) {
+            for (int i = 1; i <= 4; i++) store.put("T" + i, createGraphCode("R" + i));
+        }
+        long size = Files.size(path);
+        int length = FileResultStore.encode("T1", Long.MAX_VALUE, createGraphCode("R1")).length;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            // the length of the second record points past the end of the file
+            channel.write(ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).flip(), length);
+            // a byte within the payload of the third record is flipped
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), 2L * length + 12);
+            // a header whose length exceeds the file is an incomplete record at the end
+            channel.write(ByteBuffer.allocate(8).putInt(100).putInt(0).flip(), size);
+        }
+
+        try (FileResultStore store = new FileResultStore(path, 60000)) {
+            // the corrupt records are skipped, the records behind them are kept
+            assertThat(store.size()).isEqualTo(2);
+            assertThat(store.get("T1").getDescription()).isEqualTo("R1");
+            assertThat(store.get("T2")).isNull();
+            assertThat(store.get("T3")).isNull();
+            assertThat(store.get("T4").getDescription()).isEqualTo("R4");
+            assertThat(store.getFileSize()).isEqualTo(size);
+        }
+    }
+
+    @Test
+    public void testCompact() throws IOException, InterruptedException {
+        Path path = directory.resolve("results.log");
+        try (FileResultStore expiring = new FileResultStore(path, 10, 0, false)) {
+            expiring.put("T1", createGraphCode("OLD"));
+            Thread.sleep(50);
+            assertThat(expiring.get("T1")).isNull();
+        }
+
+        try (FileResultStore store = new FileResultStore(path, 60000, 0, false)) {
+            // expired results are not recovered
+            assertThat(store.size()).isZero();
+            long expiredSize = store.getFileSize();
+            store.put("T2", createGraphCode("TEST"));
+            store.put("T2", createGraphCode("TEST"));
+            store.put("T2", createGraphCode("TEST"));
+            long liveSize = (store.getFileSize() - expiredSize) / 3;
+
+            store.compact(System.currentTimeMillis());
+            assertThat(store.getFileSize()).isEqualTo(liveSize);
+            assertThat(store.get("T2").getDescription()).isEqualTo("TEST");
+
+            store.put("T3", createGraphCode("TEST"));
+            store.compact(System.currentTimeMillis() + 120000);
+            assertThat(store.size()).isZero();
+            assertThat(store.getFileSize()).isZero();
+        }
+    }
+
+    @Test
+    public void testReplacedExpiration() throws InterruptedException {
+        try (FileResultStore store = new FileResultStore(directory.resolve("results.log"), 60000, 0, false)) {
+            store.put("T1", createGraphCode("OLD"));
+            long first = System.currentTimeMillis();
+            Thread.sleep(20);
+            store.put("T1", createGraphCode("NEW"));
+            long second = System.currentTimeMillis();
+
+            // the expiration of the replaced result does not remove the new one
+            store.compact(first + 60001);
+            assertThat(store.size()).isEqualTo(1);
+            assertThat(store.get("T1").getDescription()).isEqualTo("NEW");
+
+            store.compact(second + 60001);
+            assertThat(store.size()).isZero();
+        }
+    }
+
+    private static void assertEquals(final GraphCode actual, final GraphCode expected) {
+        assertThat(actual.getState()).isEqualTo(expected.getState());
+        assertThat(actual.getModel()).isEqualTo(expected.getModel());
+        assertThat(actual.getStart()).isEqualTo(expected.getStart());
+        assertThat(actual.getDictionary()).isEqualTo(expected.getDictionary());
+        assertThat(actual.getMatrix()).isEqualTo(expected.getMatrix());
+        assertThat(actual.getError()).isEqualTo(expected.getError());
+        assertThat(actual.getDescription()).isEqualTo(expected.getDescription());
+    }
+
+    private static GraphCode createGraphCode(final String description) {
+        GraphCode graphCode = GraphCode.getPendingGC(ModelLiterals.QWEN3_1_7_B);
+        graphCode.finished(List.of("Key1", "Key2"), new int[][]{{1, 2}, {3, 4}}, description);
+        assertThat(graphCode.getState()).isEqualTo(State.FINISHED);
+        return graphCode;
+    }
+
+}
\ No newline at end of file
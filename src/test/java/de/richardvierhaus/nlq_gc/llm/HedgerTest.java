@@ -0,0 +1,171 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class HedgerTest {
+
+    private ModelDispatcher primary;
+    private ModelDispatcher secondary;
+    private LatencyTracker latency;
+    private CompletableFuture<String> primaryFuture;
+    private CompletableFuture<String> secondaryFuture;
+
+    @BeforeEach
+    public void init() {
+        primary = mock(ModelDispatcher.class);
+        secondary = mock(ModelDispatcher.class);
+        latency = new LatencyTracker(16);
+        primaryFuture = new CompletableFuture<>();
+        secondaryFuture = new CompletableFuture<>();
+        doReturn(latency).when(primary).getLatency();
+        doReturn(new LatencyTracker(16)).when(secondary).getLatency();
+        doReturn(primaryFuture).when(primary).submit("USER", Priority.NORMAL, "PROMPT");
+        doReturn(secondaryFuture).when(secondary).submit("USER", Priority.NORMAL, "PROMPT");
+        doReturn(true).when(secondary).acquire();
+    }
+
+    @Test
+    public void testWithoutSamples() {
+        Hedger hedger = createHedger(1);
+        for (int i = 0; i < 3; i++) latency.record(10);
+
+        // too few latencies are known
+        assertThat(hedger.getDelay(ModelLiterals.QWEN3_1_7_B)).isEqualTo(-1);
+        assertThat(hedger.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT")).isSameAs(primaryFuture);
+
+        // models without secondary are not hedged
+        doReturn(latency).when(secondary).getLatency();
+        doReturn(secondaryFuture).when(secondary).submit("USER", Priority.INTERACTIVE, "PROMPT");
+        assertThat(hedger.submit(ModelLiterals.QWEN_TURBO, "USER", Priority.INTERACTIVE, "PROMPT")).isSameAs(secondaryFuture);
+    }
+
+    @Test
+    public void testHedgeWins() {
+        Hedger hedger = createHedger(1);
+        for (int i = 0; i < 5; i++) latency.record(10);
+        latency.record(50);
+        assertThat(hedger.getDelay(ModelLiterals.QWEN3_1_7_B)).isEqualTo(50);
+
+        CompletableFuture<String> result = hedger.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        verify(secondary, timeout(2000)).submit("USER", Priority.NORMAL, "PROMPT");
+        assertThat(result).isNotDone();
+
+        // the faster response is taken and the slower prompt is cancelled
+        secondaryFuture.complete("RESPONSE");
+        assertThat(result).succeedsWithin(2, TimeUnit.SECONDS).isEqualTo("RESPONSE");
+        assertThat(primaryFuture).isCancelled();
+        assertThat(hedger.getStatistics()).containsEntry(ModelLiterals.QWEN3_1_7_B, new Hedger.Statistics(1, 1, 1, 0, 1));
+        verify(secondary).acquire();
+        verify(secondary).release();
+    }
+
+    @Test
+    public void testSecondaryFull() {
+        Hedger hedger = createHedger(1);
+        for (int i = 0; i < 5; i++) latency.record(10);
+        doReturn(false).when(secondary).acquire();
+
+        // the hedge is skipped, as the secondary model admits no further work
+        CompletableFuture<String> result = hedger.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        verify(secondary, timeout(2000)).acquire();
+        primaryFuture.complete("RESPONSE");
+        assertThat(result).succeedsWithin(2, TimeUnit.SECONDS).isEqualTo("RESPONSE");
+        verify(secondary, never()).submit(any(), any(), any());
+        verify(secondary, never()).release();
+        assertThat(hedger.getStatistics().get(ModelLiterals.QWEN3_1_7_B).hedges()).isZero();
+    }
+
+    @Test
+    public void testPrimaryFails() {
+        Hedger hedger = createHedger(1);
+        for (int i = 0; i < 5; i++) latency.record(10);
+
+        CompletableFuture<String> result = hedger.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        verify(secondary, timeout(2000)).submit("USER", Priority.NORMAL, "PROMPT");
+
+        // the result only fails after both prompts failed
+        primaryFuture.completeExceptionally(new IllegalStateException("Failed"));
+        assertThat(result).isNotDone();
+        secondaryFuture.completeExceptionally(new IllegalStateException("Failed"));
+        assertThat(result).failsWithin(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testInvalidResponse() {
+        Hedger hedger = createHedger(1);
+        for (int i = 0; i < 5; i++) latency.record(10);
+
+        CompletableFuture<String> result = hedger.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        verify(secondary, timeout(2000)).submit("USER", Priority.NORMAL, "PROMPT");
+
+        // an invalid response loses, so the race waits for the other prompt
+        secondaryFuture.complete("INVALID");
+        assertThat(result).isNotDone();
+        assertThat(primaryFuture).isNotCancelled();
+        primaryFuture.complete("RESPONSE");
+        assertThat(result).succeedsWithin(2, TimeUnit.SECONDS).isEqualTo("RESPONSE");
+        assertThat(hedger.getStatistics().get(ModelLiterals.QWEN3_1_7_B).hedgeWins()).isZero();
+
+        // without any valid response the invalid one is handed out
+        CompletableFuture<String> other = new CompletableFuture<>();
+        CompletableFuture<String> otherHedge = new CompletableFuture<>();
+        doReturn(other).when(primary).submit("USER", Priority.NORMAL, "OTHER");
+        doReturn(otherHedge).when(secondary).submit("USER", Priority.NORMAL, "OTHER");
+        result = hedger.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "OTHER");
+        verify(secondary, timeout(2000)).submit("USER", Priority.NORMAL, "OTHER");
+        other.complete("INVALID");
+        assertThat(result).isNotDone();
+        otherHedge.completeExceptionally(new IllegalStateException("Failed"));
+        assertThat(result).succeedsWithin(2, TimeUnit.SECONDS).isEqualTo("INVALID");
+    }
+
+    @Test
+    public void testPrimaryWins() {
+        Hedger hedger = createHedger(1);
+        for (int i = 0; i < 5; i++) latency.record(60000);
+
+        CompletableFuture<String> result = hedger.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        primaryFuture.complete("RESPONSE");
+        assertThat(result).isCompletedWithValue("RESPONSE");
+
+        // cancelling the result cancels the prompts
+        CompletableFuture<String> other = new CompletableFuture<>();
+        doReturn(other).when(primary).submit("USER", Priority.NORMAL, "OTHER");
+        hedger.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "OTHER").cancel(false);
+        assertThat(other).isCancelled();
+        verify(secondary, never()).submit(any(), any(), any());
+    }
+
+    @Test
+    public void testBudget() {
+        Hedger hedger = createHedger(0);
+        for (int i = 0; i < 5; i++) latency.record(10);
+
+        CompletableFuture<String> result = hedger.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS).execute(() -> primaryFuture.complete("RESPONSE"));
+        assertThat(result.join()).isEqualTo("RESPONSE");
+        verify(secondary, never()).submit(any(), any(), any());
+        assertThat(hedger.getStatistics().get(ModelLiterals.QWEN3_1_7_B).budgetExhausted()).isEqualTo(1);
+
+        // bulk prompts are never hedged
+        doReturn(primaryFuture).when(primary).submit("USER", Priority.BULK, "PROMPT");
+        assertThat(createHedger(1).submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.BULK, "PROMPT")).isSameAs(primaryFuture);
+    }
+
+    private Hedger createHedger(final double maxRatio) {
+        return new Hedger(model -> model == ModelLiterals.QWEN3_1_7_B ? primary : secondary,
+                Map.of(ModelLiterals.QWEN3_1_7_B, ModelLiterals.QWEN_TURBO), maxRatio, 5, 0,
+                response -> !"INVALID".equals(response));
+    }
+
+}
\ No newline at end of file
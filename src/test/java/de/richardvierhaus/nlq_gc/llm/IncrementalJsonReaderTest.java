@@ -0,0 +1,72 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IncrementalJsonReaderTest {
+
+    @Test
+    public void testCompleteObject() {
+        IncrementalJsonReader reader = new IncrementalJsonReader();
+
+        assertThat(reader.feed("```json\n{\"dictionary\":[\"A\", ")).isFalse();
+        assertThat(reader.feed("\"B\"], \"matrix\":[[1,0],[0,1]], ")).isFalse();
+        assertThat(reader.feed("\"description\":\"Text with } and { and \\\" inside\"")).isFalse();
+        assertThat(reader.isComplete()).isFalse();
+        assertThat(reader.feed("}\n```\nSome additional thoughts {")).isTrue();
+        assertThat(reader.isComplete()).isTrue();
+
+        assertThat(reader.getJson()).isEqualTo("{\"dictionary\":[\"A\", \"B\"], \"matrix\":[[1,0],[0,1]], "
+                + "\"description\":\"Text with } and { and \\\" inside\"}");
+
+        // further chunks are ignored
+        assertThat(reader.feed("}")).isTrue();
+        assertThat(reader.getJson()).endsWith("inside\"}");
+    }
+
+    @Test
+    public void testNestedObject() {
+        IncrementalJsonReader reader = new IncrementalJsonReader();
+
+        assertThat(reader.feed("{\"a\":{\"b\":{}}, \"keywords\":[]")).isFalse();
+        assertThat(reader.feed("}")).isTrue();
+        assertThat(reader.getJson()).isEqualTo("{\"a\":{\"b\":{}}, \"keywords\":[]}");
+    }
+
+    @Test
+    public void testChainOfThought() {
+        IncrementalJsonReader reader = new IncrementalJsonReader();
+
+        // braces in front of the response are skipped as long as the object has none of the expected keys
+        assertThat(reader.feed("The vocabulary is {\"person\", \"bed\"} and {\"a\":{\"dictionary\":1}}. ")).isFalse();
+        assertThat(reader.feed("{\"error\":\"ERROR\"}")).isTrue();
+        assertThat(reader.getJson()).isEqualTo("{\"error\":\"ERROR\"}");
+
+        // any object behind a code fence is taken, even if a brace in front of it has not been closed
+        reader = new IncrementalJsonReader();
+        assertThat(reader.feed("Set {A, B with relation \"x")).isFalse();
+        assertThat(reader.feed("\"\n```js")).isFalse();
+        assertThat(reader.feed("on\n{\"response\":\"OK\"}")).isTrue();
+        assertThat(reader.getJson()).isEqualTo("{\"response\":\"OK\"}");
+    }
+
+    @Test
+    public void testUnknownObject() {
+        IncrementalJsonReader reader = new IncrementalJsonReader();
+
+        // without code fence and expected keys the whole stream has to be read
+        assertThat(reader.feed("{\"a\":1} and {\"b\":2}")).isFalse();
+        assertThat(reader.isComplete()).isFalse();
+        assertThat(reader.getJson()).isEqualTo("{\"a\":1} and {\"b\":2}");
+    }
+
+    @Test
+    public void testIncompleteObject() {
+        IncrementalJsonReader reader = new IncrementalJsonReader();
+
+        assertThat(reader.feed("```json\n{\"error\":\"ERROR\"")).isFalse();
+        assertThat(reader.getJson()).isEqualTo("{\"error\":\"ERROR\"");
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,50 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KeywordCacheTest {
+
+    @Test
+    public void testGetAndPut() {
+        KeywordCache cache = new KeywordCache(2, 60000);
+        assertThat(cache.get(ModelLiterals.QWEN3_1_7_B, "PROMPT1", PromptKeyword.KEYWORDS_01_ZS)).isNull();
+
+        cache.put(ModelLiterals.QWEN3_1_7_B, "PROMPT1", List.of("KEY1"));
+        cache.put(ModelLiterals.QWEN3_1_7_B, "PROMPT2", List.of("KEY2"));
+        cache.put(ModelLiterals.QWEN3_1_7_B, "PROMPT3", null);
+        assertThat(cache.get(ModelLiterals.QWEN3_1_7_B, "PROMPT1", PromptKeyword.KEYWORDS_01_ZS)).containsExactly("KEY1");
+        assertThat(cache.get(ModelLiterals.QWEN_TURBO, "PROMPT1", PromptKeyword.KEYWORDS_01_ZS)).isNull();
+        assertThat(cache.get(ModelLiterals.QWEN3_1_7_B, "PROMPT3", null)).isNull();
+
+        // least recently used entry is evicted
+        cache.put(ModelLiterals.QWEN3_1_7_B, "PROMPT3", List.of("KEY3"));
+        assertThat(cache.get(ModelLiterals.QWEN3_1_7_B, "PROMPT2", PromptKeyword.KEYWORDS_01_FS)).isNull();
+        assertThat(cache.get(ModelLiterals.QWEN3_1_7_B, "PROMPT1", PromptKeyword.KEYWORDS_01_FS)).containsExactly("KEY1");
+
+        assertThat(cache.getStatistics())
+                .containsEntry(PromptKeyword.KEYWORDS_01_ZS, new KeywordCache.Statistics(1, 2))
+                .containsEntry(PromptKeyword.KEYWORDS_01_FS, new KeywordCache.Statistics(1, 1));
+
+        cache.clear();
+        assertThat(cache.get(ModelLiterals.QWEN3_1_7_B, "PROMPT1", null)).isNull();
+        assertThat(cache.getStatistics().get(PromptKeyword.KEYWORDS_01_ZS)).isEqualTo(new KeywordCache.Statistics(0, 0));
+    }
+
+    @Test
+    public void testDisabledAndExpired() {
+        KeywordCache disabled = new KeywordCache(0, 60000);
+        disabled.put(ModelLiterals.QWEN3_1_7_B, "PROMPT", List.of("KEY"));
+        assertThat(disabled.get(ModelLiterals.QWEN3_1_7_B, "PROMPT", null)).isNull();
+
+        KeywordCache expired = new KeywordCache(10, -1);
+        expired.put(ModelLiterals.QWEN3_1_7_B, "PROMPT", List.of("KEY"));
+        assertThat(expired.get(ModelLiterals.QWEN3_1_7_B, "PROMPT", null)).isNull();
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,110 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.net.ConnectException;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.*;
+
+public class LLMControllerTest {
+
+    private LLMController controller;
+    private QWen qwen;
+
+    @BeforeEach
+    public void init() {
+        qwen = mock(QWen.class);
+        controller = Mockito.spy(new LLMController());
+        doReturn(qwen).when(controller).getLLM("QWEN3_1_7_B");
+    }
+
+    @Test
+    public void testCallback() {
+        String body = "{\"transaction_id\":\"TRANSACTION\",\"response\":\"RESPONSE\"}";
+        doReturn(true).when(qwen).verifyCallback(body, "SIGNATURE");
+        controller.callback("QWEN3_1_7_B", "SIGNATURE", body);
+        verify(qwen).complete("TRANSACTION", "RESPONSE");
+
+        // unsigned callbacks are rejected
+        assertThatExceptionOfType(ResponseStatusException.class)
+                .isThrownBy(() -> controller.callback("QWEN3_1_7_B", null, body))
+                .satisfies(e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED));
+        verify(qwen, times(1)).complete(any(), any());
+    }
+
+    @Test
+    public void testCallbackException() {
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> controller.callback("UNKNOWN", "SIGNATURE", "{\"transaction_id\":\"T\",\"response\":\"R\"}"));
+
+        doReturn(mock(OpenRouterLLM.class)).when(controller).getLLM("QWEN_TURBO");
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> controller.callback("QWEN_TURBO", "SIGNATURE", "{\"transaction_id\":\"T\",\"response\":\"R\"}"));
+
+        doReturn(true).when(qwen).verifyCallback(any(), eq("SIGNATURE"));
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> controller.callback("QWEN3_1_7_B", "SIGNATURE", "{\"response\":\"R\"}"));
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> controller.callback("QWEN3_1_7_B", "SIGNATURE", "{\"transaction_id\":\"T\",\"response\":null}"));
+
+        verify(qwen, never()).complete(any(), any());
+    }
+
+    @Test
+    public void testHedgingStatistics() {
+        AsyncLLMService service = mock(AsyncLLMService.class);
+        ModelDispatcher dispatcher = mock(ModelDispatcher.class);
+        Hedger hedger = new Hedger(model -> dispatcher, Map.of(), 0.05, 20, 1000, response -> true);
+        doReturn(service).when(controller).getLLMService();
+        doReturn(hedger).when(service).getHedger();
+        doReturn(new LatencyTracker(16)).when(dispatcher).getLatency();
+
+        hedger.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        assertThat(controller.getHedgingStatistics())
+                .containsExactly(Map.entry(ModelLiterals.QWEN3_1_7_B, new Hedger.Statistics(1, 0, 0, 0, 0)));
+    }
+
+    @Test
+    public void testCircuitStates() {
+        AsyncLLMService service = mock(AsyncLLMService.class);
+        ModelDispatcher closedDispatcher = mock(ModelDispatcher.class);
+        ModelDispatcher openDispatcher = mock(ModelDispatcher.class);
+        CircuitBreaker open = new CircuitBreaker(1, 60000);
+        open.failure(new ConnectException("Connection refused"), System.currentTimeMillis());
+        doReturn(service).when(controller).getLLMService();
+        doReturn(closedDispatcher).when(service).getDispatcher(any());
+        doReturn(openDispatcher).when(service).getDispatcher(ModelLiterals.QWEN3_1_7_B);
+        doReturn(new CircuitBreaker(1, 60000)).when(closedDispatcher).getCircuitBreaker();
+        doReturn(open).when(openDispatcher).getCircuitBreaker();
+
+        assertThat(controller.getCircuitStates()).hasSize(ModelLiterals.values().length)
+                .containsEntry(ModelLiterals.QWEN3_1_7_B, "OPEN").containsEntry(ModelLiterals.QWEN_TURBO, "CLOSED");
+    }
+
+    @Test
+    public void testKeywordCacheStatistics() {
+        AsyncLLMService service = mock(AsyncLLMService.class);
+        KeywordCache cache = new KeywordCache(10, 60000);
+        doReturn(service).when(controller).getLLMService();
+        doReturn(cache).when(service).getKeywordCache();
+
+        cache.get(ModelLiterals.QWEN3_1_7_B, "PROMPT", PromptKeyword.KEYWORDS_01_FS);
+        cache.put(ModelLiterals.QWEN3_1_7_B, "PROMPT", List.of("KEY"));
+        cache.get(ModelLiterals.QWEN3_1_7_B, "PROMPT", PromptKeyword.KEYWORDS_01_FS);
+
+        assertThat(controller.getKeywordCacheStatistics())
+                .containsEntry(PromptKeyword.KEYWORDS_01_FS, new KeywordCache.Statistics(1, 1));
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,138 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class LLMTransportTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicReference<String> receivedBody = new AtomicReference<>();
+    private final AtomicReference<String> receivedEncoding = new AtomicReference<>();
+
+    @BeforeEach
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/echo", exchange -> {
+            receivedEncoding.set(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            InputStream input = exchange.getRequestBody();
+            if ("gzip".equals(receivedEncoding.get())) input = new GZIPInputStream(input);
+            receivedBody.set(new String(input.readAllBytes(), StandardCharsets.UTF_8));
+
+            byte[] response = "{\"response\":\"OK\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        });
+        server.createContext("/gzip", exchange -> {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write("{\"response\":\"COMPRESSED\"}".getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, compressed.size());
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(compressed.toByteArray());
+            }
+        });
+        server.createContext("/stream", exchange -> {
+            byte[] response = ("data: {\"choices\":[{\"delta\":{\"content\":\"{\\\"error\\\":\"}}]}\n\n"
+                    + "data: {\"choices\":[{\"delta\":{\"content\":\"\\\"ERROR\\\"}\"}}]}\n\n"
+                    + "data: [DONE]\n").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        });
+        server.createContext("/error", exchange -> {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void shutdown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testSend() throws IOException, InterruptedException {
+        LLMTransport transport = createTransport(false);
+
+        assertThat(transport.send(transport.post(baseUrl + "/echo", "{\"prompt\":\"PROMPT\"}").build()))
+                .isEqualTo("{\"response\":\"OK\"}");
+        assertThat(receivedBody.get()).isEqualTo("{\"prompt\":\"PROMPT\"}");
+        assertThat(receivedEncoding.get()).isNull();
+
+        assertThat(transport.send(transport.get(baseUrl + "/gzip").build())).isEqualTo("{\"response\":\"COMPRESSED\"}");
+
+        assertThatExceptionOfType(IOException.class)
+                .isThrownBy(() -> transport.send(transport.get(baseUrl + "/error").build()))
+                .withMessage("HTTP GET failed with code 503");
+    }
+
+    @Test
+    public void testSendAsync() {
+        LLMTransport transport = createTransport(false);
+
+        assertThat(transport.sendAsync(transport.get(baseUrl + "/gzip").build()))
+                .succeedsWithin(5, TimeUnit.SECONDS).isEqualTo("{\"response\":\"COMPRESSED\"}");
+        assertThat(transport.sendAsync(transport.post(baseUrl + "/error", "{}").build()))
+                .failsWithin(5, TimeUnit.SECONDS)
+                .withThrowableOfType(Exception.class)
+                .withRootCauseExactlyInstanceOf(HttpStatusException.class);
+    }
+
+    @Test
+    public void testGzipRequest() throws IOException, InterruptedException {
+        LLMTransport transport = createTransport(true);
+
+        // small bodies stay uncompressed
+        transport.send(transport.post(baseUrl + "/echo", "{}").build());
+        assertThat(receivedEncoding.get()).isNull();
+
+        String prompt = "{\"prompt\":\"" + "A".repeat(100) + "\"}";
+        transport.send(transport.post(baseUrl + "/echo", prompt).build());
+        assertThat(receivedEncoding.get()).isEqualTo("gzip");
+        assertThat(receivedBody.get()).isEqualTo(prompt);
+    }
+
+    @Test
+    public void testStream() {
+        LLMTransport transport = createTransport(false);
+
+        ChatCompletionStreamSubscriber subscriber = new ChatCompletionStreamSubscriber();
+        transport.stream(transport.post(baseUrl + "/stream", "{}").build(), subscriber);
+        assertThat(subscriber.getResult()).succeedsWithin(5, TimeUnit.SECONDS).isEqualTo("{\"error\":\"ERROR\"}");
+
+        ChatCompletionStreamSubscriber failing = new ChatCompletionStreamSubscriber();
+        transport.stream(transport.post(baseUrl + "/error", "{}").build(), failing);
+        assertThat(failing.getResult()).failsWithin(5, TimeUnit.SECONDS);
+    }
+
+    private LLMTransport createTransport(final boolean gzipRequests) {
+        return new LLMTransport(Duration.ofSeconds(2), Duration.ofSeconds(5), HttpClient.Version.HTTP_1_1, gzipRequests, 64);
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,30 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatencyTrackerTest {
+
+    @Test
+    public void testPercentile() {
+        LatencyTracker tracker = new LatencyTracker(4);
+        assertThat(tracker.percentile(0.5)).isEqualTo(-1);
+
+        tracker.record(400);
+        tracker.record(100);
+        tracker.record(300);
+        tracker.record(200);
+        assertThat(tracker.size()).isEqualTo(4);
+        assertThat(tracker.percentile(0.5)).isEqualTo(200);
+        assertThat(tracker.percentile(0.95)).isEqualTo(400);
+        assertThat(tracker.percentile(0)).isEqualTo(100);
+
+        // the oldest sample is replaced
+        tracker.record(1000);
+        assertThat(tracker.size()).isEqualTo(4);
+        assertThat(tracker.percentile(0)).isEqualTo(100);
+        assertThat(tracker.percentile(1)).isEqualTo(1000);
+    }
+
+}
\ No newline at end of file
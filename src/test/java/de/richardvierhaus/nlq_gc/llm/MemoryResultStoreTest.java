@@ -0,0 +1,56 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.GraphCode;
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MemoryResultStoreTest {
+
+    @Test
+    public void testCompact() throws InterruptedException {
+        try (MemoryResultStore store = new MemoryResultStore(60000)) {
+            store.put("T1", createGraphCode("OLD"));
+            store.put("T2", createGraphCode("OTHER"));
+            long first = System.currentTimeMillis();
+            Thread.sleep(20);
+            store.put("T1", createGraphCode("NEW"));
+            long second = System.currentTimeMillis();
+
+            // the expiration of the replaced result does not remove the new one
+            store.compact(first + 60001);
+            assertThat(store.size()).isEqualTo(1);
+            assertThat(store.get("T1").getDescription()).isEqualTo("NEW");
+
+            store.compact(second + 60001);
+            assertThat(store.size()).isZero();
+        }
+    }
+
+    @Test
+    public void testMaxEntries() throws InterruptedException {
+        try (MemoryResultStore store = new MemoryResultStore(60000, 2)) {
+            store.put("T1", createGraphCode("FIRST"));
+            Thread.sleep(5);
+            store.put("T2", createGraphCode("SECOND"));
+            Thread.sleep(5);
+            store.put("T3", createGraphCode("THIRD"));
+
+            // the result expiring first is dropped
+            assertThat(store.size()).isEqualTo(2);
+            assertThat(store.get("T1")).isNull();
+            assertThat(store.get("T2").getDescription()).isEqualTo("SECOND");
+            assertThat(store.get("T3").getDescription()).isEqualTo("THIRD");
+        }
+    }
+
+    private static GraphCode createGraphCode(final String description) {
+        GraphCode graphCode = GraphCode.getPendingGC(ModelLiterals.QWEN3_1_7_B);
+        graphCode.finished(List.of("Key1"), new int[][]{{1}}, description);
+        return graphCode;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,239 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.*;
+
+public class ModelDispatcherTest {
+
+    private static QWen qwen;
+    private ModelDispatcher dispatcher;
+
+    @BeforeAll
+    public static void initAll() {
+        QWen.setInstance(mock(QWen.class));
+        qwen = QWen.getInstance(); // shared with other tests
+    }
+
+    @BeforeEach
+    public void init() {
+        reset(qwen);
+        dispatcher = new ModelDispatcher(ModelLiterals.QWEN3_1_7_B, 1, 2);
+    }
+
+    @Test
+    public void testAcquire() {
+        assertThat(dispatcher.acquire()).isTrue();
+        assertThat(dispatcher.acquire()).isTrue();
+        assertThat(dispatcher.acquire()).isTrue();
+        assertThat(dispatcher.acquire()).isFalse();
+        assertThat(dispatcher.getAdmitted()).isEqualTo(3);
+
+        // without releases the retry is not predictable
+        assertThat(dispatcher.estimateRetryAfter()).isEqualTo(300);
+
+        dispatcher.release();
+        assertThat(dispatcher.acquire()).isTrue();
+        assertThat(dispatcher.estimateRetryAfter()).isBetween(1L, 300L);
+    }
+
+    @Test
+    public void testSubmit() {
+        CompletableFuture<String> upstream1 = new CompletableFuture<>();
+        CompletableFuture<String> upstream2 = new CompletableFuture<>();
+        doReturn(upstream1).when(qwen).submit("PROMPT1");
+        doReturn(upstream2).when(qwen).submit("PROMPT2");
+        doReturn(new CompletableFuture<>()).when(qwen).submit("PROMPT3");
+
+        CompletableFuture<String> result1 = dispatcher.submit("USER", Priority.NORMAL, "PROMPT1");
+        CompletableFuture<String> result2 = dispatcher.submit("USER", Priority.NORMAL, "PROMPT2");
+        CompletableFuture<String> result3 = dispatcher.submit("USER", Priority.NORMAL, "PROMPT3");
+        assertThat(dispatcher.getInFlight()).isEqualTo(1);
+        assertThat(dispatcher.getQueued()).isEqualTo(2);
+        verify(qwen, never()).submit("PROMPT2");
+
+        // queued prompts are removed on cancellation
+        result3.cancel(false);
+        assertThat(dispatcher.getQueued()).isEqualTo(1);
+
+        // the next queued prompt takes over the slot
+        upstream1.complete("RESPONSE1");
+        assertThat(result1).isCompletedWithValue("RESPONSE1");
+        assertThat(dispatcher.getLatency().size()).isEqualTo(1);
+        verify(qwen).submit("PROMPT2");
+        verify(qwen, never()).submit("PROMPT3");
+        assertThat(dispatcher.getInFlight()).isEqualTo(1);
+        assertThat(dispatcher.getQueued()).isZero();
+
+        // running prompts are cancelled at the LLM
+        result2.cancel(false);
+        assertThat(upstream2).isCancelled();
+        assertThat(dispatcher.getInFlight()).isZero();
+        assertThat(dispatcher.getLatency().size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFairQueue() {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        doReturn(upstream).when(qwen).submit("BATCH0");
+        doReturn(new CompletableFuture<>()).when(qwen).submit("INTERACTIVE0");
+        dispatcher = new ModelDispatcher(ModelLiterals.QWEN3_1_7_B, 1, 4);
+
+        dispatcher.submit("BATCH", Priority.NORMAL, "BATCH0");
+        dispatcher.submit("BATCH", Priority.NORMAL, "BATCH1");
+        dispatcher.submit("BATCH", Priority.NORMAL, "BATCH2");
+        dispatcher.submit("INTERACTIVE", Priority.NORMAL, "INTERACTIVE0");
+        assertThat(dispatcher.getQueued()).isEqualTo(3);
+
+        // the interactive user overtakes the backlog of the batch user
+        upstream.complete("RESPONSE");
+        verify(qwen).submit("INTERACTIVE0");
+        verify(qwen, never()).submit("BATCH1");
+    }
+
+    @Test
+    public void testPriority() {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        doReturn(upstream).when(qwen).submit("NORMAL0");
+        doReturn(new CompletableFuture<>()).when(qwen).submit("INTERACTIVE0");
+        doReturn(new CompletableFuture<>()).when(qwen).submit("BULK0");
+        dispatcher = new ModelDispatcher(ModelLiterals.QWEN3_1_7_B, 2, 4, 1, new RateLimiter(0, 0),
+                () -> new FairQueue<>(1, 0));
+
+        dispatcher.submit("BATCH", Priority.BULK, "BULK0");
+        // the last slot is reserved for interactive and normal prompts
+        dispatcher.submit("BATCH", Priority.BULK, "BULK1");
+        verify(qwen, never()).submit("BULK1");
+        dispatcher.submit("USER", Priority.NORMAL, "NORMAL0");
+        verify(qwen).submit("NORMAL0");
+        dispatcher.submit("USER", Priority.NORMAL, "NORMAL1");
+        dispatcher.submit("USER", Priority.INTERACTIVE, "INTERACTIVE0");
+        assertThat(dispatcher.getQueued()).isEqualTo(3);
+
+        // the interactive prompt overtakes the queued normal and bulk prompts
+        upstream.complete("RESPONSE");
+        verify(qwen).submit("INTERACTIVE0");
+        verify(qwen, never()).submit("NORMAL1");
+        verify(qwen, never()).submit("BULK1");
+        assertThat(dispatcher.getQueued()).isEqualTo(2);
+    }
+
+    @Test
+    public void testUserCapAcrossPriorities() {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        doReturn(upstream).when(qwen).submit("NORMAL0");
+        doReturn(new CompletableFuture<>()).when(qwen).submit("INTERACTIVE0");
+        UserCaps caps = new UserCaps(1, Map.of());
+        dispatcher = new ModelDispatcher(ModelLiterals.QWEN3_1_7_B, 4, 4, 0, new RateLimiter(0, 0),
+                () -> new FairQueue<>(1, Map.of(), caps));
+
+        dispatcher.submit("USER", Priority.NORMAL, "NORMAL0");
+        // the cap of the user applies to the prompts of all priorities
+        dispatcher.submit("USER", Priority.INTERACTIVE, "INTERACTIVE0");
+        verify(qwen, never()).submit("INTERACTIVE0");
+        assertThat(dispatcher.getQueued()).isEqualTo(1);
+
+        upstream.complete("RESPONSE");
+        verify(qwen).submit("INTERACTIVE0");
+        assertThat(dispatcher.getQueued()).isZero();
+    }
+
+    @Test
+    public void testRateLimit() {
+        // a single request per 200 ms
+        dispatcher = new ModelDispatcher(ModelLiterals.QWEN3_1_7_B, 4, 4, 0,
+                new RateLimiter(300, 0, 200, System.currentTimeMillis()), () -> new FairQueue<>(1, 0));
+        doReturn(new CompletableFuture<>()).when(qwen).submit(anyString());
+
+        CompletableFuture<String> result1 = dispatcher.submit("USER", Priority.NORMAL, "PROMPT1");
+        dispatcher.submit("USER", Priority.NORMAL, "PROMPT2");
+        dispatcher.submit("USER", Priority.NORMAL, "PROMPT3");
+        verify(qwen).submit("PROMPT1");
+        verify(qwen, never()).submit("PROMPT2");
+        assertThat(dispatcher.getQueued()).isEqualTo(2);
+
+        // queued prompts are started once the limit has refilled instead of failing
+        verify(qwen, timeout(2000)).submit("PROMPT2");
+        verify(qwen, timeout(2000)).submit("PROMPT3");
+        assertThat(dispatcher.getQueued()).isZero();
+        assertThat(dispatcher.getInFlight()).isEqualTo(3);
+        assertThat(result1).isNotDone();
+    }
+
+    @Test
+    public void testSubmitException() {
+        doThrow(new IllegalStateException("Rejected")).when(qwen).submit("PROMPT1");
+        assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> dispatcher.submit("USER", Priority.NORMAL, "PROMPT1"));
+        assertThat(dispatcher.getInFlight()).isZero();
+
+        // queued prompts rejected by the LLM fail their future
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        doReturn(upstream).when(qwen).submit("PROMPT2");
+        dispatcher.submit("USER", Priority.NORMAL, "PROMPT2");
+        CompletableFuture<String> result = dispatcher.submit("USER", Priority.NORMAL, "PROMPT1");
+        upstream.completeExceptionally(new IllegalStateException("Failed"));
+        assertThat(result).isCompletedExceptionally();
+        assertThat(dispatcher.getInFlight()).isZero();
+    }
+
+    @Test
+    public void testRetry() {
+        dispatcher = new ModelDispatcher(ModelLiterals.QWEN3_1_7_B, 1, 2, 0, new RateLimiter(0, 0),
+                () -> new FairQueue<>(1, 0), new CircuitBreaker(0, 0), 2, 10);
+        doReturn(CompletableFuture.failedFuture(new RuntimeException(new ConnectException("Connection refused"))))
+                .doReturn(CompletableFuture.failedFuture(new HttpStatusException("POST", 503)))
+                .doReturn(CompletableFuture.completedFuture("RESPONSE"))
+                .when(qwen).submit("PROMPT1");
+
+        // transient failures are retried while keeping the slot
+        CompletableFuture<String> result = dispatcher.submit("USER", Priority.NORMAL, "PROMPT1");
+        assertThat(dispatcher.getInFlight()).isEqualTo(1);
+        assertThat(result).succeedsWithin(2, TimeUnit.SECONDS).isEqualTo("RESPONSE");
+        verify(qwen, times(3)).submit("PROMPT1");
+
+        // other failures and exhausted retries fail right away
+        doReturn(CompletableFuture.failedFuture(new HttpStatusException("POST", 400))).when(qwen).submit("PROMPT2");
+        assertThat(dispatcher.submit("USER", Priority.NORMAL, "PROMPT2")).failsWithin(2, TimeUnit.SECONDS);
+        verify(qwen).submit("PROMPT2");
+        doReturn(CompletableFuture.failedFuture(new HttpStatusException("POST", 429))).when(qwen).submit("PROMPT3");
+        assertThat(dispatcher.submit("USER", Priority.NORMAL, "PROMPT3")).failsWithin(2, TimeUnit.SECONDS);
+        verify(qwen, times(3)).submit("PROMPT3");
+
+        assertThat(ModelDispatcher.getRetryBackoff(1, 100)).isBetween(50L, 150L);
+        assertThat(ModelDispatcher.getRetryBackoff(3, 100)).isBetween(200L, 600L);
+    }
+
+    @Test
+    public void testCircuitBreaker() {
+        dispatcher = new ModelDispatcher(ModelLiterals.QWEN3_1_7_B, 1, 2, 0, new RateLimiter(0, 0),
+                () -> new FairQueue<>(1, 0), new CircuitBreaker(2, 60000), 0, 0);
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        doReturn(CompletableFuture.failedFuture(new ConnectException("Connection refused"))).when(qwen).submit("PROMPT1");
+        doReturn(upstream).when(qwen).submit("PROMPT2");
+
+        dispatcher.submit("USER", Priority.NORMAL, "PROMPT2");
+        CompletableFuture<String> queued = dispatcher.submit("USER", Priority.NORMAL, "PROMPT1");
+        upstream.completeExceptionally(new ConnectException("Connection refused"));
+        assertThat(queued).isCompletedExceptionally();
+        assertThat(dispatcher.getCircuitBreaker().getState(System.currentTimeMillis()))
+                .isEqualTo(CircuitBreaker.State.OPEN);
+
+        // the open circuit rejects prompts without handing them over to the LLM
+        CompletableFuture<String> rejected = dispatcher.submit("USER", Priority.NORMAL, "PROMPT1");
+        assertThat(rejected.exceptionNow()).isInstanceOf(CircuitOpenException.class);
+        verify(qwen).submit("PROMPT1");
+        assertThat(dispatcher.getInFlight()).isZero();
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.*;
+
+public class PromptCoalescerTest {
+
+    private static QWen qwen;
+    private PromptCoalescer coalescer;
+    private CompletableFuture<String> llmFuture;
+
+    @BeforeAll
+    public static void initAll() {
+        QWen.setInstance(mock(QWen.class));
+        qwen = QWen.getInstance(); // shared with other tests
+    }
+
+    @BeforeEach
+    public void init() {
+        reset(qwen);
+        coalescer = new PromptCoalescer();
+        llmFuture = new CompletableFuture<>();
+        doReturn(llmFuture).when(qwen).submit("PROMPT");
+    }
+
+    @Test
+    public void testSubmit() {
+        CompletableFuture<String> result1 = coalescer.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        CompletableFuture<String> result2 = coalescer.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        verify(qwen, times(1)).submit("PROMPT");
+        assertThat(result1).isNotSameAs(result2);
+        assertThat(coalescer.size()).isEqualTo(1);
+
+        llmFuture.complete("RESPONSE");
+        assertThat(result1).isCompletedWithValue("RESPONSE");
+        assertThat(result2).isCompletedWithValue("RESPONSE");
+        assertThat(coalescer.size()).isZero();
+    }
+
+    @Test
+    public void testCancel() {
+        CompletableFuture<String> result1 = coalescer.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        CompletableFuture<String> result2 = coalescer.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+
+        // the prompt keeps running as long as a caller is left
+        result1.cancel(false);
+        assertThat(llmFuture).isNotCancelled();
+        result2.cancel(false);
+        assertThat(llmFuture).isCancelled();
+        assertThat(coalescer.size()).isZero();
+
+        // a new prompt is started afterward
+        CompletableFuture<String> secondFuture = new CompletableFuture<>();
+        doReturn(secondFuture).when(qwen).submit("PROMPT");
+        CompletableFuture<String> result3 = coalescer.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        secondFuture.complete("RESPONSE");
+        assertThat(result3).isCompletedWithValue("RESPONSE");
+    }
+
+    @Test
+    public void testFailure() {
+        CompletableFuture<String> result = coalescer.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT");
+        llmFuture.completeExceptionally(new IllegalStateException("FAILED"));
+        assertThat(result).isCompletedExceptionally();
+
+        doThrow(new IllegalStateException("REJECTED")).when(qwen).submit("PROMPT");
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(() -> coalescer.submit(ModelLiterals.QWEN3_1_7_B, "USER", Priority.NORMAL, "PROMPT"));
+        assertThat(coalescer.size()).isZero();
+    }
+
+}
\ No newline at end of file
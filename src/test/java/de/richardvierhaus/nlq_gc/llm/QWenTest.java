@@ -3,13 +3,25 @@ package de.richardvierhaus.nlq_gc.llm;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
-import java.io.ByteArrayInputStream;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
@@ -18,32 +30,38 @@ import static org.mockito.Mockito.*;
 public class QWenTest {
 
     private QWen qwen;
+    private LLMTransport transport;
 
     @BeforeEach
     public void init() {
         qwen = Mockito.spy(QWen.class);
+        transport = spy(new LLMTransport(Duration.ofSeconds(1), Duration.ofSeconds(1), HttpClient.Version.HTTP_1_1, false, 0));
+        doReturn(transport).when(qwen).getTransport();
     }
 
     @Test
-    public void testHandlePrompt() throws IOException {
-        HttpURLConnection conn = mock(HttpURLConnection.class);
-        InputStream inputStream = new ByteArrayInputStream("{\"transaction_id\":\"RESPONSE\"}".getBytes());
-        OutputStream os = mock(OutputStream.class);
-        doReturn(os).when(conn).getOutputStream();
-        doReturn(conn).when(qwen).getHttpURLConnection(any());
-        doReturn(inputStream).when(conn).getInputStream();
-        doReturn(200).when(conn).getResponseCode();
+    public void testHandlePrompt() throws IOException, InterruptedException {
+        doReturn("{\"transaction_id\":\"RESPONSE\"}").when(transport).send(any());
+        doReturn("SECRET").when(qwen).getCallbackSecret();
 
         assertThat(qwen.handlePrompt("PROMPT")).isEqualTo("RESPONSE");
 
-        verify(qwen).getHttpURLConnection("http://127.0.0.1:8000/handle");
-        verify(conn).setRequestMethod("POST");
-        verify(conn).setRequestProperty("Content-Type", "application/json");
-        verify(conn).setDoOutput(true);
-        verify(os).write("{\"prompt\":\"PROMPT\"}".getBytes());
+        verify(transport).post("http://127.0.0.1:8000/handle",
+                "{\"prompt\":\"PROMPT\",\"callback_url\":\"http://127.0.0.1:8080/llm/callback/QWEN3_1_7_B\"}");
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(transport).send(captor.capture());
+        assertThat(captor.getValue().method()).isEqualTo("POST");
+        assertThat(captor.getValue().uri()).hasToString("http://127.0.0.1:8000/handle");
+        assertThat(captor.getValue().headers().firstValue("Content-Type")).contains("application/json");
+        assertThat(captor.getValue().timeout()).isPresent();
+
+        // without secret no callback is requested
+        doReturn(null).when(qwen).getCallbackSecret();
+        qwen.handlePrompt("PROMPT");
+        verify(transport).post("http://127.0.0.1:8000/handle", "{\"prompt\":\"PROMPT\"}");
 
         // error
-        doReturn(400).when(conn).getResponseCode();
+        doThrow(new IOException("HTTP POST failed with code 400")).when(transport).send(any());
         try {
             qwen.handlePrompt("PROMPT");
             Assertions.fail("Expected exception did not throw");
@@ -54,25 +72,22 @@ public class QWenTest {
     }
 
     @Test
-    public void testGetResponse() throws IOException {
-        HttpURLConnection conn = mock(HttpURLConnection.class);
-        InputStream inputStream = new ByteArrayInputStream("{\"response\":\"RESPONSE\"}".getBytes());
-        doReturn(conn).when(qwen).getHttpURLConnection(any());
-        doReturn(200).when(conn).getResponseCode();
-        doReturn(inputStream).when(conn).getInputStream();
+    public void testGetResponse() throws IOException, InterruptedException {
+        doReturn("{\"response\":\"RESPONSE\"}").when(transport).send(any());
 
         assertThat(qwen.getResponse("TRANSACTION")).isEqualTo("RESPONSE");
-        verify(qwen).getHttpURLConnection("http://127.0.0.1:8000/response?transaction_id=TRANSACTION");
-        verify(conn).setRequestMethod("GET");
-        verify(conn).setRequestProperty("Accept", "application/json");
+        verify(transport).get("http://127.0.0.1:8000/response?transaction_id=TRANSACTION");
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(transport).send(captor.capture());
+        assertThat(captor.getValue().method()).isEqualTo("GET");
+        assertThat(captor.getValue().headers().firstValue("Accept")).contains("application/json");
 
         // Response null
-        inputStream = new ByteArrayInputStream("{\"response\":null}".getBytes());
-        doReturn(inputStream).when(conn).getInputStream();
+        doReturn("{\"response\":null}").when(transport).send(any());
         assertThat(qwen.getResponse("TRANSACTION")).isNull();
 
         // error
-        doReturn(400).when(conn).getResponseCode();
+        doThrow(new IOException("HTTP GET failed with code 400")).when(transport).send(any());
         try {
             qwen.getResponse("TRANSACTION");
             Assertions.fail("Expected exception did not throw");
@@ -82,4 +97,135 @@ public class QWenTest {
         }
     }
 
+    @Test
+    public void testGetResponses() throws IOException, InterruptedException {
+        doReturn("{\"responses\":{\"T1\":\"RESPONSE1\",\"T2\":null,\"T3\":\"RESPONSE3\"}}").when(transport).send(any());
+
+        assertThat(qwen.getResponses(List.of("T1", "T2", "T3")))
+                .containsExactlyInAnyOrderEntriesOf(Map.of("T1", "RESPONSE1", "T3", "RESPONSE3"));
+        verify(transport).post("http://127.0.0.1:8000/responses", "{\"transaction_ids\":[\"T1\",\"T2\",\"T3\"]}");
+        verify(qwen, never()).getResponse(any());
+
+        // fallback to single requests in case the batch route is missing
+        doThrow(new HttpStatusException("POST", 404)).when(transport).send(any());
+        doReturn("RESPONSE1").when(qwen).getResponse("T1");
+        doReturn(null).when(qwen).getResponse("T2");
+        doThrow(new RuntimeException("Error in getResponse")).when(qwen).getResponse("T3");
+
+        assertThat(qwen.getResponses(List.of("T1", "T2", "T3"))).containsExactlyEntriesOf(Map.of("T1", "RESPONSE1"));
+        assertThat(qwen.getResponses(List.of("T1"))).containsExactlyEntriesOf(Map.of("T1", "RESPONSE1"));
+        verify(transport, times(2)).send(any());
+        verify(qwen, times(2)).getResponse("T1");
+    }
+
+    @Test
+    public void testSubmit() throws ExecutionException, InterruptedException, TimeoutException, IOException {
+        doReturn("TRANSACTION").when(qwen).handlePrompt("PROMPT");
+        doReturn("{\"responses\":{\"TRANSACTION\":null}}")
+                .doReturn("{\"responses\":{\"TRANSACTION\":\"RESPONSE\"}}").when(transport).send(any());
+
+        CompletableFuture<String> future = qwen.submit("PROMPT");
+        assertThat(future.get(10, TimeUnit.SECONDS)).isEqualTo("RESPONSE");
+        verify(qwen).handlePrompt("PROMPT");
+        verify(transport, times(2)).post("http://127.0.0.1:8000/responses", "{\"transaction_ids\":[\"TRANSACTION\"]}");
+        verify(qwen, never()).getResponse(any());
+
+        // error
+        doThrow(new RuntimeException("Error in handlePrompt")).when(qwen).handlePrompt("PROMPT");
+        assertThat(qwen.submit("PROMPT")).failsWithin(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testShutdown() throws ExecutionException, InterruptedException, TimeoutException, IOException {
+        doReturn("TRANSACTION").when(qwen).handlePrompt("PROMPT");
+        doReturn("{\"responses\":{\"TRANSACTION\":\"RESPONSE\"}}").when(transport).send(any());
+        assertThat(qwen.submit("PROMPT").get(10, TimeUnit.SECONDS)).isEqualTo("RESPONSE");
+        qwen.shutdown();
+
+        // the threads are started again by the next prompt
+        assertThat(qwen.submit("PROMPT").get(10, TimeUnit.SECONDS)).isEqualTo("RESPONSE");
+        qwen.shutdown();
+    }
+
+    @Test
+    public void testComplete() {
+        doReturn("TRANSACTION1").when(qwen).handlePrompt("PROMPT1");
+        doReturn("TRANSACTION2").when(qwen).handlePrompt("PROMPT2");
+        doReturn(Map.of()).when(qwen).getResponses(any());
+
+        // pushed while the transaction is pending
+        CompletableFuture<String> future1 = qwen.submit("PROMPT1");
+        verify(qwen, timeout(1000)).handlePrompt("PROMPT1");
+        qwen.complete("TRANSACTION1", "RESPONSE1");
+        assertThat(future1).succeedsWithin(1, TimeUnit.SECONDS).isEqualTo("RESPONSE1");
+
+        // pushed before the transactionId is known
+        assertThat(qwen.complete("TRANSACTION2", "RESPONSE2")).isFalse();
+        assertThat(qwen.submit("PROMPT2")).succeedsWithin(1, TimeUnit.SECONDS).isEqualTo("RESPONSE2");
+
+        assertThat(qwen.complete("TRANSACTION1", "RESPONSE1")).isFalse();
+        assertThat(qwen.complete("TRANSACTION3", null)).isFalse();
+    }
+
+    @Test
+    public void testPollSchedule() {
+        // default as long as no latency has been observed
+        assertThat(qwen.estimateFirstPoll(100)).isEqualTo(1500);
+
+        doReturn("TRANSACTION").when(qwen).handlePrompt("PROMPT");
+        doReturn(Map.of()).when(qwen).getResponses(any());
+        for (int i = 0; i < 5; i++) {
+            CompletableFuture<String> future = qwen.submit("PROMPT");
+            verify(qwen, timeout(1000).times(i + 1)).handlePrompt("PROMPT");
+            qwen.complete("TRANSACTION", "RESPONSE");
+            assertThat(future).succeedsWithin(1, TimeUnit.SECONDS);
+        }
+        assertThat(qwen.getLatency().size()).isEqualTo(5);
+        // fast responses are polled early, but not below the minimum delay
+        assertThat(qwen.estimateFirstPoll(100)).isEqualTo(500);
+        assertThat(qwen.estimateFirstPoll(10000)).isEqualTo(500);
+
+        assertThat(PollingLanguageModel.getBackoff(1)).isBetween(400L, 600L);
+        assertThat(PollingLanguageModel.getBackoff(3)).isBetween(1600L, 2400L);
+        assertThat(PollingLanguageModel.getBackoff(20)).isBetween(8000L, 12000L);
+    }
+
+    @Test
+    public void testVerifyCallback() {
+        String body = "{\"transaction_id\":\"T\",\"response\":\"R\"}";
+        String valid = hmac("SECRET", body);
+        // without secret no callback is accepted
+        assertThat(qwen.verifyCallback(body, valid)).isFalse();
+
+        doReturn("SECRET").when(qwen).getCallbackSecret();
+        assertThat(qwen.verifyCallback(body, valid)).isTrue();
+        assertThat(qwen.verifyCallback(body, "sha256=" + valid.toUpperCase())).isTrue();
+        assertThat(qwen.verifyCallback(body + " ", valid)).isFalse();
+        assertThat(qwen.verifyCallback(body, hmac("OTHER", body))).isFalse();
+        assertThat(qwen.verifyCallback(body, "NO HEX")).isFalse();
+        assertThat(qwen.verifyCallback(body, null)).isFalse();
+    }
+
+    @Test
+    public void testEarlyResponseLimit() {
+        for (int i = 0; i < 1500; i++) assertThat(qwen.complete("UNKNOWN" + i, "RESPONSE")).isFalse();
+        assertThat(qwen.getEarlyResponseCount()).isEqualTo(1000);
+
+        // the newest responses are kept
+        doReturn("UNKNOWN1499").when(qwen).handlePrompt("PROMPT");
+        doReturn(Map.of()).when(qwen).getResponses(any());
+        assertThat(qwen.submit("PROMPT")).succeedsWithin(1, TimeUnit.SECONDS).isEqualTo("RESPONSE");
+        assertThat(qwen.getEarlyResponseCount()).isEqualTo(999);
+    }
+
+    private static String hmac(final String secret, final String body) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return HexFormat.of().formatHex(mac.doFinal(body.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RateLimiterTest {
+
+    @Test
+    public void testRequestLimit() {
+        RateLimiter limiter = new RateLimiter(60, 0, 3000, 0);
+
+        // the burst is taken right away
+        assertThat(limiter.tryAcquire(100, 0)).isZero();
+        assertThat(limiter.tryAcquire(100, 0)).isZero();
+        assertThat(limiter.tryAcquire(100, 0)).isZero();
+        assertThat(limiter.tryAcquire(100, 0)).isEqualTo(1000);
+
+        // one request per second is refilled
+        assertThat(limiter.tryAcquire(100, 400)).isEqualTo(600);
+        assertThat(limiter.tryAcquire(100, 1000)).isZero();
+        assertThat(limiter.tryAcquire(100, 1000)).isEqualTo(1000);
+
+        // the bucket does not exceed its capacity
+        assertThat(limiter.tryAcquire(100, 60000)).isZero();
+        assertThat(limiter.tryAcquire(100, 60000)).isZero();
+        assertThat(limiter.tryAcquire(100, 60000)).isZero();
+        assertThat(limiter.tryAcquire(100, 60000)).isPositive();
+    }
+
+    @Test
+    public void testTokenLimit() {
+        RateLimiter limiter = new RateLimiter(0, 6000, 1000, 0);
+
+        assertThat(limiter.tryAcquire(60, 0)).isZero();
+        assertThat(limiter.tryAcquire(60, 0)).isEqualTo(200);
+        assertThat(limiter.tryAcquire(60, 200)).isZero();
+
+        // prompts larger than the bucket are started as soon as it is full
+        assertThat(limiter.tryAcquire(1000, 200)).isEqualTo(1000);
+        assertThat(limiter.tryAcquire(1000, 1200)).isZero();
+    }
+
+    @Test
+    public void testUnlimited() {
+        RateLimiter limiter = new RateLimiter(0, 0, 60000, 0);
+        for (int i = 0; i < 1000; i++)
+            assertThat(limiter.tryAcquire(100000, 0)).isZero();
+    }
+
+    @Test
+    public void testEstimateTokens() {
+        assertThat(RateLimiter.estimateTokens("")).isZero();
+        assertThat(RateLimiter.estimateTokens("abcd")).isEqualTo(1);
+        assertThat(RateLimiter.estimateTokens("abcde")).isEqualTo(2);
+    }
+
+}
\ No newline at end of file
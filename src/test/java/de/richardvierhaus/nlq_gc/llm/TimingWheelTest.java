@@ -0,0 +1,45 @@
+package de.richardvierhaus.nlq_gc.llm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testAdvance() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 8, 0);
+        wheel.schedule("A", 250);
+        wheel.schedule("B", 300);
+        wheel.schedule("C", 1000);
+        assertThat(wheel.size()).isEqualTo(3);
+
+        assertThat(wheel.advance(50)).isEmpty();
+        assertThat(wheel.advance(299)).isEmpty();
+        assertThat(wheel.advance(300)).containsExactlyInAnyOrder("A", "B");
+        assertThat(wheel.size()).isEqualTo(1);
+
+        // deadlines in the past are due with the next tick
+        wheel.schedule("D", 0);
+        assertThat(wheel.advance(400)).containsExactly("D");
+        assertThat(wheel.advance(1000)).containsExactly("C");
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    public void testRounds() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 4, 0);
+        wheel.schedule("NEAR", 100);
+        wheel.schedule("FAR", 500); // shares the slot with NEAR
+
+        assertThat(wheel.advance(100)).containsExactly("NEAR");
+        assertThat(wheel.advance(400)).isEmpty();
+        assertThat(wheel.advance(500)).containsExactly("FAR");
+
+        // skipping more than one round still finds every due item
+        wheel.schedule("LATE", 700);
+        wheel.schedule("LATER", 1800);
+        assertThat(wheel.advance(5000)).containsExactlyInAnyOrder("LATE", "LATER");
+    }
+
+}
\ No newline at end of file
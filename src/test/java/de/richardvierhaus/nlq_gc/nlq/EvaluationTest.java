@@ -0,0 +1,126 @@
+package de.richardvierhaus.nlq_gc.nlq;
+
+import de.richardvierhaus.nlq_gc.GraphCode;
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
+import de.richardvierhaus.nlq_gc.enums.PromptGraphCode;
+import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
+import de.richardvierhaus.nlq_gc.enums.State;
+import de.richardvierhaus.nlq_gc.llm.AdmissionRejectedException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EvaluationTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testScoreDictionary() {
+        assertThat(Evaluation.scoreDictionary(List.of("Cat", "Dog"), List.of(" dog", "cat"))).isEqualTo(1);
+        assertThat(Evaluation.scoreDictionary(List.of("Cat", "Dog"), List.of("Cat", "Tree"))).isCloseTo(1 / 3.0, within(1e-9));
+        assertThat(Evaluation.scoreDictionary(List.of("Cat"), null)).isZero();
+        assertThat(Evaluation.scoreDictionary(List.of(), List.of())).isEqualTo(1);
+    }
+
+    @Test
+    public void testScoreMatrix() {
+        int[][] expected = {{1, 2}, {0, 1}};
+        // the order of the dictionary does not matter
+        assertThat(Evaluation.scoreMatrix(List.of("Cat", "Dog"), expected, List.of("Dog", "Cat"), new int[][]{{1, 0}, {2, 1}}))
+                .isEqualTo(1);
+        // a missing term only meets the cells expected to be 0
+        assertThat(Evaluation.scoreMatrix(List.of("Cat", "Dog"), expected, List.of("Cat"), new int[][]{{1}})).isEqualTo(0.5);
+        assertThat(Evaluation.scoreMatrix(List.of("Cat", "Dog"), expected, null, null)).isEqualTo(0.25);
+    }
+
+    @Test
+    public void testCombinations() {
+        List<Evaluation.Combination> combinations = Evaluation.Combination.of(
+                List.of(PromptGraphCode.NO_KEYWORDS_01_ZS, PromptGraphCode.WITH_KEYWORDS_01_ZS),
+                List.of(PromptKeyword.KEYWORDS_01_ZS, PromptKeyword.KEYWORDS_01_FS),
+                List.of(ModelLiterals.QWEN3_1_7_B));
+        assertThat(combinations).containsExactly(
+                new Evaluation.Combination(PromptGraphCode.NO_KEYWORDS_01_ZS, null, ModelLiterals.QWEN3_1_7_B),
+                new Evaluation.Combination(PromptGraphCode.WITH_KEYWORDS_01_ZS, PromptKeyword.KEYWORDS_01_ZS, ModelLiterals.QWEN3_1_7_B),
+                new Evaluation.Combination(PromptGraphCode.WITH_KEYWORDS_01_ZS, PromptKeyword.KEYWORDS_01_FS, ModelLiterals.QWEN3_1_7_B));
+    }
+
+    @Test
+    public void testReadItems() throws IOException {
+        Path input = directory.resolve("input.jsonl");
+        Files.writeString(input, "{\"query\": \"QUERY\", \"dictionary\": [\"Cat\"], \"matrix\": [[1]]}\n\n");
+        assertThat(Evaluation.readItems(input)).singleElement().satisfies(item -> {
+            assertThat(item.query()).isEqualTo("QUERY");
+            assertThat(item.user()).isNull();
+            assertThat(item.matrix()).isEqualTo(new int[][]{{1}});
+        });
+
+        Files.writeString(input, "{\"query\": \"QUERY\"}");
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> Evaluation.readItems(input));
+    }
+
+    @Test
+    public void testRun() throws IOException, InterruptedException {
+        NLQService service = Mockito.mock(NLQService.class);
+        doReturn(100).when(service).getPromptLength(any());
+        when(service.handleNLQ(any(), any(), any(), any(), eq(ModelLiterals.QWEN3_1_7_B), any()))
+                .thenThrow(new AdmissionRejectedException(ModelLiterals.QWEN3_1_7_B, 0))
+                .thenReturn("TRANSACTION1");
+        doReturn("TRANSACTION2").when(service).handleNLQ(any(), any(), any(), any(), eq(ModelLiterals.QWEN3_14B), any());
+
+        GraphCode finished = GraphCode.getPendingGC(ModelLiterals.QWEN3_1_7_B);
+        finished.finished(List.of("Cat", "Dog"), new int[][]{{1, 1}, {0, 1}}, "DESCRIPTION");
+        GraphCode error = GraphCode.getPendingGC(ModelLiterals.QWEN3_14B);
+        error.error("ERROR", "DESCRIPTION");
+        doReturn(CompletableFuture.completedFuture(finished)).when(service).awaitGraphCode(eq("TRANSACTION1"), anyLong());
+        doReturn(CompletableFuture.completedFuture(error)).when(service).awaitGraphCode(eq("TRANSACTION2"), anyLong());
+
+        Evaluation evaluation = new Evaluation(service, 2, 1000);
+        List<Evaluation.Item> items = List.of(new Evaluation.Item("QUERY", null, List.of("Cat", "Dog"), new int[][]{{1, 1}, {0, 1}}));
+        List<Evaluation.Combination> combinations = Evaluation.Combination.of(List.of(PromptGraphCode.NO_KEYWORDS_01_ZS), List.of(),
+                List.of(ModelLiterals.QWEN3_1_7_B, ModelLiterals.QWEN3_14B));
+        Path output = directory.resolve("output.jsonl");
+
+        List<Evaluation.Result> results = evaluation.run(items, combinations, output);
+        assertThat(results).hasSize(2);
+        assertThat(Files.readAllLines(output)).hasSize(2).anySatisfy(line -> assertThat(line)
+                .contains("\"model\":\"QWEN3_14B\"").contains("\"state\":\"ERROR\"").contains("\"error\":\"ERROR\""));
+        verify(service).handleNLQ("QUERY", "evaluation", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.QWEN3_14B,
+                Priority.BULK);
+
+        Evaluation.Result result = results.stream().filter(Evaluation.Result::isValid).findFirst().orElseThrow();
+        assertThat(result.state()).isEqualTo(State.FINISHED);
+        assertThat(result.promptLength()).isEqualTo(100);
+        assertThat(result.dictionaryScore()).isEqualTo(1);
+        assertThat(result.matrixScore()).isEqualTo(1);
+
+        String summary = Evaluation.summarize(results);
+        assertThat(summary.lines()).hasSize(3);
+        assertThat(summary).contains("QWEN3_1_7_B").contains("100.0%").contains("0.0%");
+    }
+
+    @Test
+    public void testConcurrency() {
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> new Evaluation(Mockito.mock(NLQService.class), 0, 1000));
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,97 @@
+package de.richardvierhaus.nlq_gc.nlq;
+
+import de.richardvierhaus.nlq_gc.GraphCode;
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.PromptGraphCode;
+import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GraphCodeCacheTest {
+
+    @Test
+    public void testGetAndPut() {
+        GraphCodeCache cache = new GraphCodeCache(2, 100000, 60000, true);
+        GraphCodeCache.Key key1 = createKey(cache, "Query  One", 1);
+        GraphCodeCache.Key key2 = createKey(cache, "Query Two", 1);
+        GraphCodeCache.Key key3 = createKey(cache, "Query Three", 1);
+        GraphCode graphCode = createGraphCode();
+
+        assertThat(cache.get(key1)).isNull();
+        cache.put(key1, graphCode);
+        assertThat(cache.get(createKey(cache, " query one ", 1))).isSameAs(graphCode);
+        assertThat(cache.get(createKey(cache, "Query One", 2))).isNull();
+
+        // pending and failed graph codes are not cached
+        cache.put(key2, GraphCode.getPendingGC(ModelLiterals.QWEN3_1_7_B));
+        assertThat(cache.get(key2)).isNull();
+
+        // the least recently used entry is evicted
+        cache.put(key2, graphCode);
+        cache.get(key1);
+        cache.put(key3, graphCode);
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get(key1)).isSameAs(graphCode);
+        assertThat(cache.get(key2)).isNull();
+        assertThat(cache.get(key3)).isSameAs(graphCode);
+
+        cache.clear();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.getBytes()).isZero();
+    }
+
+    @Test
+    public void testBounds() throws InterruptedException {
+        GraphCode graphCode = createGraphCode();
+
+        // byte bound
+        GraphCodeCache small = new GraphCodeCache(100, 1000, 60000, false);
+        small.put(createKey(small, "A", 1), graphCode);
+        small.put(createKey(small, "B", 1), graphCode);
+        small.put(createKey(small, "C", 1), graphCode);
+        assertThat(small.size()).isEqualTo(2);
+        assertThat(small.getBytes()).isLessThanOrEqualTo(1000);
+        assertThat(small.get(createKey(small, "a", 1))).isNull();
+
+        // ttl
+        GraphCodeCache expiring = new GraphCodeCache(100, 100000, 10, false);
+        expiring.put(createKey(expiring, "A", 1), graphCode);
+        Thread.sleep(50);
+        assertThat(expiring.get(createKey(expiring, "A", 1))).isNull();
+        assertThat(expiring.size()).isZero();
+
+        // disabled
+        GraphCodeCache disabled = new GraphCodeCache(0, 100000, 60000, false);
+        disabled.put(createKey(disabled, "A", 1), graphCode);
+        assertThat(disabled.size()).isZero();
+    }
+
+    @Test
+    public void testCreateKey() {
+        GraphCodeCache cache = new GraphCodeCache(10, 100000, 60000, false);
+
+        // the user is ignored in case no prompt contains it
+        assertThat(cache.createKey("Q", "USER1", null, PromptGraphCode.NO_KEYWORDS_SIMPLE, ModelLiterals.QWEN3_1_7_B, 1))
+                .isEqualTo(cache.createKey("Q", "USER2", null, PromptGraphCode.NO_KEYWORDS_SIMPLE, ModelLiterals.QWEN3_1_7_B, 1));
+        assertThat(cache.createKey("Q", "USER1", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.QWEN3_1_7_B, 1))
+                .isNotEqualTo(cache.createKey("Q", "USER2", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.QWEN3_1_7_B, 1));
+        assertThat(cache.createKey("Q", "USER", PromptKeyword.KEYWORDS_01_ZS, PromptGraphCode.WITH_KEYWORDS_01_ZS, ModelLiterals.QWEN3_1_7_B, 1))
+                .isNotEqualTo(cache.createKey("q", "USER", PromptKeyword.KEYWORDS_01_ZS, PromptGraphCode.WITH_KEYWORDS_01_ZS, ModelLiterals.QWEN3_1_7_B, 1));
+
+        assertThat(GraphCodeCache.normalize("  Show\tALL   Images\n")).isEqualTo("show all images");
+    }
+
+    private static GraphCodeCache.Key createKey(final GraphCodeCache cache, final String query, final long version) {
+        return cache.createKey(query, "USER", null, PromptGraphCode.NO_KEYWORDS_SIMPLE, ModelLiterals.QWEN3_1_7_B, version);
+    }
+
+    private static GraphCode createGraphCode() {
+        GraphCode graphCode = GraphCode.getPendingGC(ModelLiterals.QWEN3_1_7_B);
+        graphCode.finished(List.of("Key1", "Key2"), new int[][]{{1, 0}, {0, 1}}, "DESCRIPTION");
+        return graphCode;
+    }
+
+}
\ No newline at end of file
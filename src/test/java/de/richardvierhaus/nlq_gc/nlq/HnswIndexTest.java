@@ -0,0 +1,92 @@
+package de.richardvierhaus.nlq_gc.nlq;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HnswIndexTest {
+
+    @Test
+    public void testSearch() {
+        Random random = new Random(42);
+        HnswIndex<Integer> index = new HnswIndex<>(random);
+        assertThat(index.search(vector(random, 16), 1)).isEmpty();
+
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            vectors.add(vector(random, 16));
+            index.add(vectors.get(i), i);
+        }
+        assertThat(index.size()).isEqualTo(1000);
+
+        // compare with the exact nearest neighbours
+        int hits = 0;
+        for (int i = 0; i < 100; i++) {
+            float[] query = vector(random, 16);
+            int exact = 0;
+            for (int j = 1; j < vectors.size(); j++)
+                if (dot(query, vectors.get(j)) > dot(query, vectors.get(exact))) exact = j;
+
+            List<HnswIndex.Result<Integer>> results = index.search(query, 3);
+            assertThat(results).hasSize(3);
+            assertThat(results.get(0).similarity()).isGreaterThanOrEqualTo(results.get(1).similarity());
+            if (results.get(0).value() == exact) hits++;
+        }
+        assertThat(hits).isGreaterThanOrEqualTo(90);
+
+        // a stored vector finds itself
+        assertThat(index.search(vectors.get(7), 1).getFirst().value()).isEqualTo(7);
+    }
+
+    @Test
+    public void testRemove() {
+        Random random = new Random(7);
+        HnswIndex<Integer> index = new HnswIndex<>(random);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            vectors.add(vector(random, 8));
+            index.add(vectors.get(i), i);
+        }
+
+        int id = index.search(vectors.get(5), 1).getFirst().id();
+        index.remove(id);
+        index.remove(id);
+        assertThat(index.size()).isEqualTo(99);
+        assertThat(index.search(vectors.get(5), 1).getFirst().value()).isNotEqualTo(5);
+
+        index.removeOldest();
+        assertThat(index.size()).isEqualTo(98);
+        assertThat(index.search(vectors.get(0), 1).getFirst().value()).isNotEqualTo(0);
+
+        // the graph is rebuilt from the remaining vectors once most of them are deleted
+        for (int i = 0; i < 60; i++) index.removeOldest();
+        index.add(vectors.get(0), 0);
+        assertThat(index.size()).isEqualTo(39);
+        assertThat(index.search(vectors.get(0), 1).getFirst().value()).isEqualTo(0);
+        assertThat(index.search(vectors.get(99), 1).getFirst().value()).isEqualTo(99);
+        assertThat(index.search(vectors.get(30), 1).getFirst().value()).isNotEqualTo(30);
+    }
+
+    private static float[] vector(final Random random, final int dimensions) {
+        float[] vector = new float[dimensions];
+        float norm = 0;
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        norm = (float) Math.sqrt(norm);
+        for (int i = 0; i < dimensions; i++) vector[i] /= norm;
+        return vector;
+    }
+
+    private static float dot(final float[] a, final float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+}
\ No newline at end of file
@@ -1,16 +1,26 @@
 package de.richardvierhaus.nlq_gc.nlq;
 
 import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
 import de.richardvierhaus.nlq_gc.enums.PromptGraphCode;
 import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
+import de.richardvierhaus.nlq_gc.llm.AdmissionRejectedException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 
+import java.util.List;
 import java.util.Optional;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.verify;
 
 @SpringBootTest
@@ -27,14 +37,40 @@ public class NLQControllerTest {
 
     @Test
     public void testHandleNLQ() {
-        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> controller.handleNLQ(null, null, Optional.empty(), Optional.empty(), Optional.empty()));
-        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> controller.handleNLQ("Test", null, Optional.empty(), Optional.empty(), Optional.empty()));
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> controller.handleNLQ(null, null, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty()));
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> controller.handleNLQ("Test", null, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty()));
 
-        controller.handleNLQ("QUERY", "USER", Optional.empty(), Optional.empty(), Optional.empty());
-        verify(service).handleNLQ("QUERY", "USER", null, PromptGraphCode.getDefault(), ModelLiterals.getDefault());
+        controller.handleNLQ("QUERY", "USER", Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+        verify(service).handleNLQ("QUERY", "USER", null, PromptGraphCode.getDefault(), ModelLiterals.getDefault(), Priority.NORMAL);
 
-        controller.handleNLQ("QUERY", "USER", Optional.empty(), Optional.of("WITH_KEYWORDS_01_FS"), Optional.of("QWEN3_1_7_B"));
-        verify(service).handleNLQ("QUERY", "USER", PromptKeyword.getDefault(), PromptGraphCode.WITH_KEYWORDS_01_FS, ModelLiterals.QWEN3_1_7_B);
+        controller.handleNLQ("QUERY", "USER", Optional.empty(), Optional.of("WITH_KEYWORDS_01_FS"), Optional.of("QWEN3_1_7_B"), Optional.of("BULK"));
+        verify(service).handleNLQ("QUERY", "USER", PromptKeyword.getDefault(), PromptGraphCode.WITH_KEYWORDS_01_FS, ModelLiterals.QWEN3_1_7_B,
+                Priority.BULK);
+    }
+
+    @Test
+    public void testHandleNLQs() {
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> controller.handleNLQs("{}"));
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> controller.handleNLQs("[\"QUERY\"]"));
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> controller.handleNLQs("[{\"query\": \"QUERY\"}]"));
+
+        doReturn(List.of("TRANSACTION1", "TRANSACTION2")).when(service).handleNLQs(any());
+        assertThat(controller.handleNLQs("[{\"query\": \"QUERY1\", \"user\": \"USER\"}, {\"query\": \"QUERY2\", "
+                + "\"user\": \"USER\", \"promptGC\": \"WITH_KEYWORDS_01_FS\", \"model\": \"QWEN3_1_7_B\", \"priority\": \"BULK\"}]"))
+                .isEqualTo("[\"TRANSACTION1\",\"TRANSACTION2\"]");
+        verify(service).handleNLQs(List.of(
+                new NLQ("QUERY1", "USER", null, PromptGraphCode.getDefault(), ModelLiterals.getDefault(), Priority.NORMAL),
+                new NLQ("QUERY2", "USER", PromptKeyword.getDefault(), PromptGraphCode.WITH_KEYWORDS_01_FS, ModelLiterals.QWEN3_1_7_B,
+                        Priority.BULK)));
+    }
+
+    @Test
+    public void testAdmissionRejected() {
+        ResponseEntity<String> response = controller.handleAdmissionRejected(
+                new AdmissionRejectedException(ModelLiterals.QWEN3_1_7_B, 12));
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("12");
+        assertThat(response.getBody()).contains("QWEN3_1_7_B");
     }
 
     @Test
@@ -45,4 +81,33 @@ public class NLQControllerTest {
         verify(service).getGraphCode("TRANSACTION");
     }
 
+    @Test
+    public void testGetGraphCodes() {
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> controller.getGraphCodes("TRANSACTION"));
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> controller.getGraphCodes("[\"\"]"));
+
+        controller.getGraphCodes("[\"TRANSACTION1\", \"TRANSACTION2\"]");
+        verify(service).getGraphCodes(List.of("TRANSACTION1", "TRANSACTION2"));
+    }
+
+    @Test
+    public void testAwaitGraphCode() {
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> controller.awaitGraphCode(null, 1000));
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> controller.awaitGraphCode("TRANSACTION", -1));
+
+        controller.awaitGraphCode("TRANSACTION", 1000);
+        verify(service).awaitGraphCode("TRANSACTION", 1000);
+
+        controller.awaitGraphCode("TRANSACTION", 600000);
+        verify(service).awaitGraphCode("TRANSACTION", 25000);
+    }
+
+    @Test
+    public void testStreamGraphCode() {
+        assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> controller.streamGraphCode(null));
+
+        assertThat(controller.streamGraphCode("TRANSACTION")).isNotNull();
+        verify(service).subscribe(eq("TRANSACTION"), any());
+    }
+
 }
\ No newline at end of file
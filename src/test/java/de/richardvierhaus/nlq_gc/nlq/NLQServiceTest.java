@@ -1,10 +1,15 @@
 package de.richardvierhaus.nlq_gc.nlq;
 
+import de.richardvierhaus.nlq_gc.GraphCode;
 import de.richardvierhaus.nlq_gc.encoding.EncodingService;
 import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.Priority;
 import de.richardvierhaus.nlq_gc.enums.PromptGraphCode;
 import de.richardvierhaus.nlq_gc.enums.PromptKeyword;
 import de.richardvierhaus.nlq_gc.enums.Replacement;
+import de.richardvierhaus.nlq_gc.enums.State;
+import de.richardvierhaus.nlq_gc.enums.TransactionEvent;
+import de.richardvierhaus.nlq_gc.llm.AdmissionRejectedException;
 import de.richardvierhaus.nlq_gc.llm.AsyncLLMService;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -13,9 +18,15 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 
+import java.util.List;
+import java.util.function.BiConsumer;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 public class NLQServiceTest {
@@ -63,21 +74,109 @@ public class NLQServiceTest {
     @Test
     public void testHandleNLQ() {
         // only gc prompt
-        service.handleNLQ("QUERY123", "USER123", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.getDefault());
+        service.handleNLQ("QUERY123", "USER123", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.getDefault(), Priority.NORMAL);
 
         ArgumentCaptor<String> promptCaptor = ArgumentCaptor.forClass(String.class);
-        verify(llmService).addGCPrompt(promptCaptor.capture(), eq(ModelLiterals.getDefault()));
+        verify(llmService).addGCPrompt(promptCaptor.capture(), eq(ModelLiterals.getDefault()), eq("USER123"), eq(Priority.NORMAL));
         assertThat(promptCaptor.getValue()).contains("QUERY123").contains("USER123").contains("ENCODING123");
 
         // with keywords
-        service.handleNLQ("QUERY123", "USER123", PromptKeyword.KEYWORDS_01_ZS, PromptGraphCode.WITH_KEYWORDS_01_ZS, ModelLiterals.getDefault());
+        service.handleNLQ("QUERY123", "USER123", PromptKeyword.KEYWORDS_01_ZS, PromptGraphCode.WITH_KEYWORDS_01_ZS, ModelLiterals.getDefault(), Priority.NORMAL);
 
         ArgumentCaptor<PromptBuilder> promptBuilderCaptor = ArgumentCaptor.forClass(PromptBuilder.class);
-        verify(llmService).addKeywordPrompt(promptCaptor.capture(), eq(ModelLiterals.getDefault()), promptBuilderCaptor.capture());
+        verify(llmService).addKeywordPrompt(promptCaptor.capture(), eq(ModelLiterals.getDefault()), promptBuilderCaptor.capture(),
+                eq(PromptKeyword.KEYWORDS_01_ZS), eq("USER123"), eq(Priority.NORMAL));
         assertThat(promptCaptor.getValue()).contains("QUERY123").contains("USER123").doesNotContain("ENCODING123");
         assertThat(promptBuilderCaptor.getValue().getLeftoverReplacements()).containsExactly(Replacement.KEYWORDS);
     }
 
+    @Test
+    public void testCache() {
+        doReturn("TRANSACTION1").when(llmService).addGCPrompt(any(), any(), any(), any());
+        doReturn("TRANSACTION2").when(llmService).addFinishedGraphCode(any());
+
+        assertThat(service.handleNLQ("QUERY", "USER", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.QWEN3_1_7_B, Priority.NORMAL))
+                .isEqualTo("TRANSACTION1");
+        ArgumentCaptor<BiConsumer<TransactionEvent, GraphCode>> listenerCaptor = ArgumentCaptor.forClass(BiConsumer.class);
+        verify(llmService).subscribe(eq("TRANSACTION1"), listenerCaptor.capture());
+
+        GraphCode graphCode = GraphCode.getPendingGC(ModelLiterals.QWEN3_1_7_B);
+        listenerCaptor.getValue().accept(TransactionEvent.SUBMITTED, graphCode);
+        graphCode.finished(List.of("KEY"), new int[][]{{1}}, "DESCRIPTION");
+        listenerCaptor.getValue().accept(TransactionEvent.FINISHED, graphCode);
+
+        // hit
+        assertThat(service.handleNLQ(" query ", "USER", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.QWEN3_1_7_B, Priority.NORMAL))
+                .isEqualTo("TRANSACTION2");
+        verify(llmService).addFinishedGraphCode(graphCode);
+        verify(llmService, times(1)).addGCPrompt(any(), any(), any(), any());
+
+        // other user
+        service.handleNLQ("QUERY", "USER2", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.QWEN3_1_7_B, Priority.NORMAL);
+        verify(llmService, times(2)).addGCPrompt(any(), any(), any(), any());
+
+        // changed encoding
+        doReturn(1L).when(encodingService).getVersion();
+        service.handleNLQ("QUERY", "USER", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.QWEN3_1_7_B, Priority.NORMAL);
+        verify(llmService, times(3)).addGCPrompt(any(), any(), any(), any());
+        verify(llmService, times(1)).addFinishedGraphCode(any());
+    }
+
+    @Test
+    public void testHandleNLQs() {
+        doReturn("TRANSACTION1").when(llmService).addGCPrompt(any(), any(), any(), any());
+        doReturn("TRANSACTION2").when(llmService).addKeywordPrompt(any(), any(), any(), any(), any(), any());
+        doThrow(new AdmissionRejectedException(ModelLiterals.QWEN3_14B, 5)).when(llmService)
+                .addGCPrompt(any(), eq(ModelLiterals.QWEN3_14B), any(), any());
+        doThrow(new IllegalStateException("FAILED")).when(llmService)
+                .addGCPrompt(any(), eq(ModelLiterals.QWEN3_235B), any(), any());
+        doReturn("TRANSACTION3").doReturn("TRANSACTION4").when(llmService).addFinishedGraphCode(any());
+
+        assertThat(service.handleNLQs(List.of(
+                new NLQ("QUERY1", "USER", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.getDefault(), Priority.BULK),
+                new NLQ("QUERY2", "USER", PromptKeyword.KEYWORDS_01_ZS, PromptGraphCode.WITH_KEYWORDS_01_ZS, ModelLiterals.getDefault(),
+                        Priority.BULK),
+                new NLQ("QUERY3", "USER", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.QWEN3_14B, Priority.BULK),
+                new NLQ("QUERY4", "USER", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.QWEN3_235B, Priority.BULK))))
+                .containsExactly("TRANSACTION1", "TRANSACTION2", "TRANSACTION3", "TRANSACTION4");
+
+        // the encoding mappings are looked up once for the whole batch
+        verify(encodingService, times(1)).getEncodingMappingsAsString();
+        verify(llmService).addGCPrompt(any(), eq(ModelLiterals.getDefault()), eq("USER"), eq(Priority.BULK));
+
+        // rejected and failed NLQs get an erroneous graph code
+        ArgumentCaptor<GraphCode> graphCodeCaptor = ArgumentCaptor.forClass(GraphCode.class);
+        verify(llmService, times(2)).addFinishedGraphCode(graphCodeCaptor.capture());
+        assertThat(graphCodeCaptor.getAllValues()).allSatisfy(graphCode -> assertThat(graphCode.getState()).isEqualTo(State.ERROR));
+        assertThat(graphCodeCaptor.getAllValues().get(0).getModel()).isEqualTo(ModelLiterals.QWEN3_14B);
+        assertThat(graphCodeCaptor.getAllValues().get(1).getError()).isEqualTo("Query could not be handled");
+        assertThat(graphCodeCaptor.getAllValues().get(1).getDescription()).isEqualTo("FAILED");
+    }
+
+    @Test
+    public void testGetPromptLength() {
+        NLQ nlq = new NLQ("QUERY", "USER", null, PromptGraphCode.NO_KEYWORDS_01_ZS, ModelLiterals.getDefault(), Priority.NORMAL);
+        String prompt = new PromptBuilder(PromptGraphCode.NO_KEYWORDS_01_ZS).replaceIfRequired(Replacement.QUERY, "QUERY")
+                .replaceIfRequired(Replacement.USER, "USER").replaceIfRequired(Replacement.ENCODING, "ENCODING123").toString();
+        assertThat(service.getPromptLength(nlq)).isEqualTo(prompt.length());
+
+        // the keyword prompt is counted as well
+        NLQ withKeywords = new NLQ("QUERY", "USER", PromptKeyword.KEYWORDS_01_ZS, PromptGraphCode.WITH_KEYWORDS_01_ZS,
+                ModelLiterals.getDefault(), Priority.NORMAL);
+        assertThat(service.getPromptLength(withKeywords)).isGreaterThan(PromptBuilder.readPrompt(PromptGraphCode.WITH_KEYWORDS_01_ZS).length());
+    }
+
+    @Test
+    public void testGetGraphCodes() {
+        GraphCode graphCode = GraphCode.getPendingGC(ModelLiterals.QWEN3_1_7_B);
+        doReturn(graphCode).when(llmService).getGraphCode("TRANSACTION1");
+        doReturn(GraphCode.getNotAvailable()).when(llmService).getGraphCode("TRANSACTION2");
+
+        List<GraphCode> graphCodes = service.getGraphCodes(List.of("TRANSACTION1", "TRANSACTION2"));
+        assertThat(graphCodes).hasSize(2).first().isSameAs(graphCode);
+        assertThat(graphCodes.get(1).getState()).isEqualTo(State.NOT_AVAILABLE);
+    }
+
     @Test
     public void testGetGraphCode() {
         service.getGraphCode("TRANSACTION");
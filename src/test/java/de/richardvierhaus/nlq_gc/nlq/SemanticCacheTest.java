@@ -0,0 +1,99 @@
+package de.richardvierhaus.nlq_gc.nlq;
+
+import de.richardvierhaus.nlq_gc.GraphCode;
+import de.richardvierhaus.nlq_gc.enums.ModelLiterals;
+import de.richardvierhaus.nlq_gc.enums.PromptGraphCode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+public class SemanticCacheTest {
+
+    private static final GraphCodeCache KEYS = new GraphCodeCache(0, 0, 0, true);
+
+    @Test
+    public void testGetAndPut() {
+        SemanticCache cache = new SemanticCache(10, 60000, 0.7);
+        GraphCode graphCode = createGraphCode();
+
+        cache.put(createKey("pictures of dogs on the beach", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1), graphCode);
+        assertThat(cache.size()).isEqualTo(1);
+
+        assertThat(cache.get(createKey("pictures of dogs on a beach", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1)))
+                .isSameAs(graphCode);
+        assertThat(cache.get(createKey("picture of a dog on the beach", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1)))
+                .isSameAs(graphCode);
+        assertThat(cache.get(createKey("cars parked in a city", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1))).isNull();
+
+        // other scopes
+        assertThat(cache.get(createKey("pictures of dogs on the beach", PromptGraphCode.NO_KEYWORDS_01_ZS, 1))).isNull();
+        assertThat(cache.get(createKey("pictures of dogs on the beach", PromptGraphCode.NO_KEYWORDS_SIMPLE, 2))).isNull();
+
+        // pending graph codes are not cached
+        cache.put(createKey("cars parked in a city", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1),
+                GraphCode.getPendingGC(ModelLiterals.QWEN3_1_7_B));
+        assertThat(cache.size()).isEqualTo(1);
+
+        cache.clear();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.get(createKey("pictures of dogs on the beach", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1))).isNull();
+    }
+
+    @Test
+    public void testBounds() throws InterruptedException {
+        GraphCode graphCode = createGraphCode();
+
+        // the oldest entries of the least recently used scope are evicted
+        SemanticCache small = new SemanticCache(2, 60000, 0.95);
+        small.put(createKey("dogs on the beach", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1), graphCode);
+        small.put(createKey("cats in the garden", PromptGraphCode.NO_KEYWORDS_SIMPLE, 2), graphCode);
+        small.get(createKey("dogs on the beach", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1));
+        small.put(createKey("birds in the sky", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1), graphCode);
+        assertThat(small.size()).isEqualTo(2);
+        assertThat(small.get(createKey("cats in the garden", PromptGraphCode.NO_KEYWORDS_SIMPLE, 2))).isNull();
+        assertThat(small.get(createKey("dogs on the beach", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1))).isSameAs(graphCode);
+
+        small.put(createKey("fish in the sea", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1), graphCode);
+        assertThat(small.get(createKey("dogs on the beach", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1))).isNull();
+        assertThat(small.get(createKey("birds in the sky", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1))).isSameAs(graphCode);
+
+        // ttl
+        SemanticCache expiring = new SemanticCache(10, 10, 0.95);
+        expiring.put(createKey("dogs on the beach", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1), graphCode);
+        Thread.sleep(50);
+        assertThat(expiring.get(createKey("dogs on the beach", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1))).isNull();
+        assertThat(expiring.size()).isZero();
+
+        // disabled
+        SemanticCache disabled = new SemanticCache(0, 60000, 0.95);
+        disabled.put(createKey("dogs on the beach", PromptGraphCode.NO_KEYWORDS_SIMPLE, 1), graphCode);
+        assertThat(disabled.size()).isZero();
+    }
+
+    @Test
+    public void testEmbed() {
+        float[] vector = SemanticCache.embed("Dogs on the beach");
+        assertThat(vector).hasSize(SemanticCache.DIMENSIONS);
+        double norm = 0;
+        for (float value : vector) norm += value * value;
+        assertThat(norm).isCloseTo(1, offset(1e-4));
+
+        assertThat(SemanticCache.embed("dogs, on the BEACH!")).isEqualTo(vector);
+        assertThat(SemanticCache.embed(" ?! ")).containsOnly(0f);
+    }
+
+    private static GraphCodeCache.Key createKey(final String query, final PromptGraphCode promptGraphCode,
+                                                final long encodingVersion) {
+        return KEYS.createKey(query, "USER", null, promptGraphCode, ModelLiterals.QWEN3_1_7_B, encodingVersion);
+    }
+
+    private static GraphCode createGraphCode() {
+        GraphCode graphCode = GraphCode.getPendingGC(ModelLiterals.QWEN3_1_7_B);
+        graphCode.finished(List.of("KEY"), new int[][]{{1}}, "DESCRIPTION");
+        return graphCode;
+    }
+
+}
\ No newline at end of file